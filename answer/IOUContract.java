@@ -5,19 +5,14 @@ import net.corda.core.contracts.*;
 import static net.corda.core.contracts.ContractsDSL.requireSingleCommand;
 import static net.corda.core.contracts.ContractsDSL.requireThat;
 
-import net.corda.core.identity.AbstractParty;
 import net.corda.core.identity.Party;
 import net.corda.core.transactions.LedgerTransaction;
 
 import net.corda.finance.contracts.asset.Cash;
 import net.corda.training.state.IOUState;
 
-import javax.swing.plaf.nimbus.State;
-import javax.validation.constraints.NotNull;
-import java.lang.reflect.Array;
 import java.security.PublicKey;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * This is the contract code which defines how the [IOUState] behaves. Looks at the unit tests in
@@ -34,25 +29,37 @@ public class IOUContract implements Contract {
     public static final String IOU_CONTRACT_ID = "net.corda.training.contract.IOUContract";
 
     /**
-     * The IOUContract can handle three transaction types involving [IOUState]s.
-     * IOUContractは、[IOUState]を含む3つのトランザクションタイプを処理できます。
+     * The IOUContract can handle five transaction types involving [IOUState]s.
+     * IOUContractは、[IOUState]を含む5つのトランザクションタイプを処理できます。
      * - Issuance: Issuing a new [IOUState] on the ledger, which is a bilateral agreement between two parties.
      *-発行：元帳に新しい[IOUState]を発行します。これは、2者間の合意です。
      * - Transfer: Re-assigning the lender/beneficiary.
       *-譲渡：貸主/受益者の再割り当て。
      * - Settle: Fully or partially settling the [IOUState] using the Corda [Cash] contract.
      *-決済：Corda [Cash]契約を使用して[IOUState]を完全または部分的に決済します。
+     * - Net: Replacing the [IOUState]s two parties owe each other with at most one residual [IOUState], without cash.
+     *-ネッティング：2者が互いに負う[IOUState]を、現金を使わずに最大1つの残余[IOUState]に置き換えます。
+     * - MultilateralNet: Replacing the [IOUState]s owed between many parties with fewer [IOUState]s that leave every
+     *   party's net position unchanged, without cash.
+     *-多者間ネッティング：多数の当事者間で負う[IOUState]を、現金を使わずに、各当事者の純ポジションを変えない
+     * より少ない[IOUState]に置き換えます。
      */
     public interface Commands extends CommandData {
         class Issue extends TypeOnlyCommandData implements Commands{}
         class Transfer extends TypeOnlyCommandData implements Commands{}
         class Settle extends TypeOnlyCommandData implements Commands{}
+        class Net extends TypeOnlyCommandData implements Commands{}
+        class MultilateralNet extends TypeOnlyCommandData implements Commands{}
     }
     /**
      * The contract code for the [IOUContract].
      * [IOUContract]の契約コード。    
      * The constraints are self documenting so don't require any additional explanation.
      *制約は自己文書化されているため、追加の説明は必要ありません。
+     * Verification runs on every node for every transaction, so the inputs and outputs are walked once and bucketed
+     * into IOUs and cash up front, and each command then only looks at the buckets it needs.
+     *検証はすべてのトランザクションについてすべてのノードで実行されるため、入力と出力は一度だけ走査されて
+     *IOUと現金に事前に振り分けられ、各コマンドは必要なものだけを参照します。
      */
     @Override
     public void verify(LedgerTransaction tx) {
@@ -61,6 +68,28 @@ public class IOUContract implements Contract {
         // requireSingleCommand関数を使用して、トランザクションからコマンドデータを抽出できます。
         final CommandWithParties<Commands> command = requireSingleCommand(tx.getCommands(), Commands.class);
         final Commands commandData = command.getValue();
+        final Set<PublicKey> signers = new HashSet<>(command.getSigners());
+
+        // Bucket the IOU and cash states in a single pass over the inputs and outputs.
+        //入力と出力を1回走査して、IOUと現金の状態を振り分けます。
+        final List<IOUState> inputIOUs = new ArrayList<>();
+        for (StateAndRef<ContractState> input: tx.getInputs()) {
+            ContractState data = input.getState().getData();
+            if (data instanceof IOUState) {
+                inputIOUs.add((IOUState) data);
+            }
+        }
+        final List<IOUState> outputIOUs = new ArrayList<>();
+        final Map<PublicKey, List<Cash.State>> outputCashByOwner = new HashMap<>();
+        for (TransactionState<ContractState> output: tx.getOutputs()) {
+            ContractState data = output.getData();
+            if (data instanceof IOUState) {
+                outputIOUs.add((IOUState) data);
+            } else if (data instanceof Cash.State) {
+                Cash.State cash = (Cash.State) data;
+                outputCashByOwner.computeIfAbsent(cash.getOwner().getOwningKey(), key -> new ArrayList<>()).add(cash);
+            }
+        }
 
         /**
          * This command data can then be used inside of a conditional statement to indicate which set of tests we
@@ -69,136 +98,369 @@ public class IOUContract implements Contract {
          *その後、このコマンドデータを条件ステートメント内で使用して、実行するテストのセットを示すことができます。
          *異なるアサーションを使用して、契約が発行、決済、転送のトランザクションを検証できるようにします。
          */
-        if (commandData.equals(new Commands.Issue())) {
-
-            requireThat(require -> {
-
-                require.using("No inputs should be consumed when issuing an IOU.", tx.getInputStates().size() == 0);
-                require.using( "Only one output state should be created when issuing an IOU.", tx.getOutputStates().size() == 1);
-
-                IOUState outputState = tx.outputsOfType(IOUState.class).get(0);
-                require.using( "A newly issued IOU must have a positive amount.", outputState.amount.getQuantity() > 0);
-                require.using( "The lender and borrower cannot have the same identity.", outputState.lender.getOwningKey() != outputState.borrower.getOwningKey());
-
-                List<PublicKey> signers = tx.getCommands().get(0).getSigners();
-                HashSet<PublicKey> signersSet = new HashSet<>();
-                for (PublicKey key: signers) {
-                    signersSet.add(key);
-                }
+        // Every IOU created, whatever the command, must have a schedule the scheduler can follow.
+        //コマンドにかかわらず、作成されるすべてのIOUは、スケジューラーが従える支払予定を持つ必要があります。
+        requireThat(require -> {
+            for (IOUState output: outputIOUs) {
+                verifySchedule(require, output);
+            }
+            return null;
+        });
+
+        if (commandData instanceof Commands.Issue) {
+            verifyIssue(tx, signers, outputIOUs);
+        } else if (commandData instanceof Commands.Transfer) {
+            verifyTransfer(tx, signers, inputIOUs, outputIOUs);
+        } else if (commandData instanceof Commands.Settle) {
+            verifySettle(signers, inputIOUs, outputIOUs, outputCashByOwner);
+        } else if (commandData instanceof Commands.Net) {
+            verifyNet(tx, signers, inputIOUs, outputIOUs);
+        } else if (commandData instanceof Commands.MultilateralNet) {
+            verifyMultilateralNet(tx, signers, inputIOUs, outputIOUs);
+        }
 
-                List<AbstractParty> participants = tx.getOutputStates().get(0).getParticipants();
-                HashSet<PublicKey> participantKeys = new HashSet<>();
-                for (AbstractParty party: participants) {
-                    participantKeys.add(party.getOwningKey());
-                }
+    }
 
-                require.using("Both lender and borrower together only may sign IOU issue transaction.", signersSet.containsAll(participantKeys) && signersSet.size() == 2);
+    private static void verifyIssue(LedgerTransaction tx, Set<PublicKey> signers, List<IOUState> outputStates) {
+        requireThat(require -> {
 
-                return null;
-            });
+            require.using("No inputs should be consumed when issuing an IOU.", tx.getInputs().isEmpty());
+            require.using( "At least one output state should be created when issuing an IOU.", !tx.getOutputs().isEmpty());
 
-        }
+            // Several IOUs may be issued in one transaction, so every output is checked in turn.
+            // 1つのトランザクションで複数のIOUを発行できるため、各出力を順番に確認します。
+            require.using( "All output states of an IOU issue transaction must be IOUs.", outputStates.size() == tx.getOutputs().size());
 
-        else if (commandData.equals(new Commands.Transfer())) {
+            Set<UniqueIdentifier> linearIds = new HashSet<>();
+            Set<PublicKey> participantKeys = new HashSet<>();
+            for (IOUState outputState: outputStates) {
+                require.using( "A newly issued IOU must have a positive amount.", outputState.amount.getQuantity() > 0);
+                require.using( "The lender and borrower cannot have the same identity.", outputState.lender.getOwningKey() != outputState.borrower.getOwningKey());
+                require.using( "Each issued IOU must have a distinct linear id.", linearIds.add(outputState.getLinearId()));
+                participantKeys.add(outputState.lender.getOwningKey());
+                participantKeys.add(outputState.borrower.getOwningKey());
+            }
 
-            requireThat(require -> {
+            require.using("Both lender and borrower together only may sign IOU issue transaction.", signers.equals(participantKeys));
 
-                require.using("An IOU transfer transaction should only consume one input state.", tx.getInputStates().size() == 1);
-                require.using("An IOU transfer transaction should only create one output state.", tx.getOutputStates().size() == 1);
+            return null;
+        });
+    }
 
-                // Copy of input with new lender;
-                //新しい貸し手によるインプットのコピー。
-                IOUState inputState = tx.inputsOfType(IOUState.class).get(0);
-                IOUState outputState = tx.outputsOfType(IOUState.class).get(0);
-                IOUState checkOutputState = outputState.withNewLender(inputState.getLender());
+    private static void verifyTransfer(LedgerTransaction tx, Set<PublicKey> signers, List<IOUState> inputIOUs, List<IOUState> outputIOUs) {
+        requireThat(require -> {
+
+            // A whole portfolio of IOUs may be transferred at once, so the IOUs are grouped by linear id and every
+            // group must consume one input state and create one output state.
+            //IOUのポートフォリオ全体を一度に譲渡できるため、IOUをlinearIdでグループ化し、
+            //各グループは1つの入力状態を消費し、1つの出力状態を作成する必要があります。
+            Map<UniqueIdentifier, IOUGroup> groups = IOUGroup.byLinearId(inputIOUs, outputIOUs);
+            boolean oneInputPerIOU = !inputIOUs.isEmpty() && inputIOUs.size() == tx.getInputs().size();
+            boolean oneOutputPerIOU = outputIOUs.size() == tx.getOutputs().size();
+            for (IOUGroup group: groups.values()) {
+                oneInputPerIOU &= group.inputs.size() == 1;
+                oneOutputPerIOU &= group.outputs.size() == 1;
+            }
+            require.using("An IOU transfer transaction should only consume one input state.", oneInputPerIOU);
+            require.using("An IOU transfer transaction should only create one output state.", oneOutputPerIOU);
+
+            Set<PublicKey> listOfParticipantPublicKeys = new HashSet<>();
+            boolean threePartiesPerIOU = true;
+            for (IOUGroup group: groups.values()) {
+                // Only the lender may differ between the input and the output.
+                //入力と出力の間で異なってよいのは貸し手だけです。
+                IOUState inputState = group.inputs.get(0);
+                IOUState outputState = group.outputs.get(0);
 
                 require.using("Only the lender property may change.",
-                        checkOutputState.amount.equals(inputState.amount) && checkOutputState.getLinearId().equals(inputState.getLinearId()) && checkOutputState.borrower.equals(inputState.borrower) && checkOutputState.paid.equals(inputState.paid));
+                        outputState.amount.equals(inputState.amount) && outputState.borrower.equals(inputState.borrower) && outputState.paid.equals(inputState.paid)
+                                && outputState.hasSameSchedule(inputState));
                 require.using("The lender property must change in a transfer.", !outputState.lender.getOwningKey().equals(inputState.lender.getOwningKey()));
 
-                List<PublicKey> listOfPublicKeys = new ArrayList<>();
-                listOfPublicKeys.add(inputState.lender.getOwningKey());
-                listOfPublicKeys.add(inputState.borrower.getOwningKey());
-                listOfPublicKeys.add(checkOutputState.lender.getOwningKey());
-
-                Set<PublicKey> listOfParticipantPublicKeys = inputState.getParticipants().stream().map(AbstractParty::getOwningKey).collect(Collectors.toSet());
-                listOfParticipantPublicKeys.add(outputState.lender.getOwningKey());
-                List<PublicKey> arrayOfSigners = command.getSigners();
-                Set<PublicKey> setOfSigners = new HashSet<PublicKey>(arrayOfSigners);
-                require.using("The borrower, old lender and new lender only must sign an IOU transfer transaction", setOfSigners.equals(listOfParticipantPublicKeys) && setOfSigners.size() == 3);
-                return null;
-
-            });
-
-        }
-
-        else if (commandData.equals(new Commands.Settle())) {
-
-            requireThat(require -> {
-
-                // Check there is only one group of IOUs and that there is always an input IOU.
-                // IOUのグループが1つだけであり、常に入力IOUがあることを確認します。
-                List<LedgerTransaction.InOutGroup<IOUState, UniqueIdentifier>> groups = tx.groupStates(IOUState.class, IOUState::getLinearId);
-                require.using("There must be one input IOU.", groups.get(0).getInputs().size() > 0);
-
-                // Check that there are output cash states.
-                //出力された現金の状態があることを確認します。
-                List<Cash.State> allOutputCash = tx.outputsOfType(Cash.State.class);
-                require.using("There must be output cash.", !allOutputCash.isEmpty());
-
-                // Check that there is only one group of input IOU's
-                //入力IOUのグループが1つのみであることを確認します
-                List<LedgerTransaction.InOutGroup<IOUState, UniqueIdentifier>> allGroupStates = tx.groupStates(IOUState.class, IOUState::getLinearId);
-                require.using("List has more than one element.", allGroupStates.size() < 2);
+                Set<PublicKey> groupKeys = new HashSet<>();
+                groupKeys.add(inputState.lender.getOwningKey());
+                groupKeys.add(inputState.borrower.getOwningKey());
+                groupKeys.add(outputState.lender.getOwningKey());
+                threePartiesPerIOU &= groupKeys.size() == 3;
+                listOfParticipantPublicKeys.addAll(groupKeys);
+            }
+            require.using("The borrower, old lender and new lender only must sign an IOU transfer transaction", signers.equals(listOfParticipantPublicKeys) && threePartiesPerIOU);
+            return null;
+
+        });
+    }
 
-                IOUState inputIOU = tx.inputsOfType(IOUState.class).get(0);
-                Amount<Currency> inputAmount = inputIOU.amount;
+    private static void verifySettle(Set<PublicKey> signers, List<IOUState> inputIOUs, List<IOUState> outputIOUs, Map<PublicKey, List<Cash.State>> outputCashByOwner) {
+        requireThat(require -> {
+
+            // Group the IOUs by linear id and check there is always exactly one input IOU in every group.
+            // IOUをlinearIdでグループ化し、各グループに常に1つの入力IOUがあることを確認します。
+            Map<UniqueIdentifier, IOUGroup> groups = IOUGroup.byLinearId(inputIOUs, outputIOUs);
+            require.using("There must be one input IOU.", !groups.isEmpty());
+            for (IOUGroup group: groups.values()) {
+                require.using("There must be one input IOU.", group.inputs.size() == 1);
+            }
+
+            // Check that there are output cash states.
+            //出力された現金の状態があることを確認します。
+            require.using("There must be output cash.", !outputCashByOwner.isEmpty());
+
+            // Several IOUs may be settled at once, so bucket the groups by lender. The cash paid to each lender
+            // settles all of the IOUs owed to that lender.
+            //複数のIOUを一度に決済できるため、グループを貸し手ごとにまとめます。
+            //各貸し手に支払われた現金は、その貸し手に対するすべてのIOUを決済します。
+            Map<PublicKey, List<IOUGroup>> groupsByLender = new LinkedHashMap<>();
+            for (IOUGroup group: groups.values()) {
+                PublicKey lenderKey = group.inputs.get(0).lender.getOwningKey();
+                groupsByLender.computeIfAbsent(lenderKey, key -> new ArrayList<>()).add(group);
+            }
+
+            Set<PublicKey> listOfParticipantPublicKeys = new HashSet<>();
+            for (Map.Entry<PublicKey, List<IOUGroup>> entry: groupsByLender.entrySet()) {
+                List<IOUGroup> lenderGroups = entry.getValue();
+                Currency token = lenderGroups.get(0).inputs.get(0).amount.getToken();
 
                 // check that the output cash is being assigned to the lender
                 //出力キャッシュが貸し手に割り当てられていることを確認します
-                Party lenderIdentity = inputIOU.lender;
-                List<Cash.State> acceptableCash = allOutputCash.stream().filter(cash -> cash.getOwner().getOwningKey().equals(lenderIdentity.getOwningKey())).collect(Collectors.toList());
-
+                List<Cash.State> acceptableCash = outputCashByOwner.getOrDefault(entry.getKey(), Collections.emptyList());
                 require.using("There must be output cash paid to the recipient.", acceptableCash.size() > 0);
 
                 // Sum the acceptable cash sent to the lender
                 //貸し手に送られた許容現金を合計します
-                Amount<Currency> acceptableCashSum = new Amount<>(0, inputAmount.getToken());
-                for (Cash.State cash: acceptableCash) {
-                    Amount<Currency> addCash = new Amount<>(cash.getAmount().getQuantity(), cash.getAmount().getToken().getProduct());
-                    acceptableCashSum = acceptableCashSum.plus(addCash);
+                Amount<Currency> acceptableCashSum = new Amount<>(sumCash(acceptableCash, token), token);
+
+                if (lenderGroups.size() == 1) {
+                    // A single IOU owed to this lender is settled by all of the cash paid to them.
+                    //この貸し手に対する単一のIOUは、貸し手に支払われたすべての現金で決済されます。
+                    verifySettledGroup(require, lenderGroups.get(0), acceptableCashSum);
+                } else {
+                    // Several IOUs owed to this lender: each one records how much of it is being settled, and
+                    // together they must account for exactly the cash paid to the lender.
+                    //この貸し手に対する複数のIOU：各IOUは決済される金額を記録し、
+                    //その合計は貸し手に支払われた現金と正確に一致する必要があります。
+                    long totalSettled = 0;
+                    for (IOUGroup group: lenderGroups) {
+                        IOUState inputIOU = group.inputs.get(0);
+                        require.using("All IOUs settled with the same lender must be in the same currency.", inputIOU.amount.getToken().equals(token));
+
+                        long settled = group.outputs.isEmpty()
+                                ? inputIOU.amount.getQuantity() - inputIOU.paid.getQuantity()
+                                : group.outputs.get(0).paid.getQuantity() - inputIOU.paid.getQuantity();
+                        require.using("Each settled IOU must have a positive settlement.", settled > 0);
+
+                        verifySettledGroup(require, group, new Amount<>(settled, token));
+                        totalSettled += settled;
+                    }
+                    require.using("The cash paid to each lender must equal the amount settled on their IOUs.", totalSettled == acceptableCashSum.getQuantity());
                 }
 
-                Amount<Currency> amountOutstanding = inputIOU.amount.minus(inputIOU.paid);
-                require.using("The amount settled cannot be more than the amount outstanding.", amountOutstanding.getQuantity() >= acceptableCashSum.getQuantity());
+                for (IOUGroup group: lenderGroups) {
+                    IOUState inputIOU = group.inputs.get(0);
+                    listOfParticipantPublicKeys.add(inputIOU.lender.getOwningKey());
+                    listOfParticipantPublicKeys.add(inputIOU.borrower.getOwningKey());
+                }
+            }
 
-                if (amountOutstanding.equals(acceptableCashSum)) {
-                    // If the IOU has been fully settled then there should be no IOU output state.
-                    // IOUが完全に決済された場合、IOU出力状態はありません。
-                    require.using("There must be no output IOU as it has been fully settled.", tx.outputsOfType(IOUState.class).isEmpty());
+            require.using("Both lender and borrower must sign IOU settle transaction.", signers.equals(listOfParticipantPublicKeys));
 
+            return null;
+        });
+    }
+
+    private static void verifyNet(LedgerTransaction tx, Set<PublicKey> signers, List<IOUState> inputIOUs, List<IOUState> outputIOUs) {
+        requireThat(require -> {
+
+            // Netting only replaces IOUs with IOUs; no cash or other states may move.
+            //ネッティングはIOUをIOUに置き換えるだけです。現金やその他の状態は移動できません。
+            require.using("Only IOUs may be consumed or created when netting.",
+                    inputIOUs.size() == tx.getInputs().size() && outputIOUs.size() == tx.getOutputs().size());
+            require.using("At least two IOUs must be netted.", inputIOUs.size() >= 2);
+            require.using("Netting may create at most one residual IOU.", outputIOUs.size() <= 1);
+
+            // Every netted IOU must be between the same two parties and in the same currency. The residual IOU has no
+            // schedule, so IOUs with a due date are left to be settled on it.
+            //ネッティングされるすべてのIOUは、同じ2者間で同じ通貨建てである必要があります。残余IOUには支払予定が
+            //ないため、期日を持つIOUはその期日に決済されるよう残されます。
+            IOUState first = inputIOUs.get(0);
+            Party partyA = first.lender;
+            Party partyB = first.borrower;
+            Currency token = first.amount.getToken();
+            long owedToA = 0;
+            long owedToB = 0;
+            for (IOUState input: inputIOUs) {
+                require.using("All netted IOUs must be in the same currency.", input.amount.getToken().equals(token));
+                require.using("IOUs with a due date cannot be netted.", input.dueDate == null);
+                long outstanding = input.amount.getQuantity() - input.paid.getQuantity();
+                if (input.lender.equals(partyA) && input.borrower.equals(partyB)) {
+                    owedToA = Math.addExact(owedToA, outstanding);
+                } else if (input.lender.equals(partyB) && input.borrower.equals(partyA)) {
+                    owedToB = Math.addExact(owedToB, outstanding);
                 } else {
-                    // If the IOU has been partially settled then it should still exist.
-                    // IOUが部分的に決済されている場合、IOUはまだ存在するはずです。
-                    require.using("There must be one output IOU.", tx.outputsOfType(IOUState.class).size() == 1);
+                    require.using("All netted IOUs must be between the same two parties.", false);
+                }
+            }
+            require.using("Netted IOUs must be owed in both directions.", owedToA > 0 && owedToB > 0);
+
+            // The residual IOU is a new, unpaid IOU for the net amount, owed to the party that was owed more.
+            //残余IOUは、純額に対する新しい未払いのIOUであり、より多くの債権を持つ当事者に対して負われます。
+            long net = owedToA - owedToB;
+            if (net == 0) {
+                require.using("There must be no residual IOU when the IOUs net to zero.", outputIOUs.isEmpty());
+            } else {
+                require.using("There must be one residual IOU when the IOUs do not net to zero.", outputIOUs.size() == 1);
+                IOUState residual = outputIOUs.get(0);
+                Party creditor = net > 0 ? partyA : partyB;
+                Party debtor = net > 0 ? partyB : partyA;
+                require.using("The residual IOU must be owed by the net debtor to the net creditor.",
+                        residual.lender.equals(creditor) && residual.borrower.equals(debtor));
+                require.using("The residual IOU must be for the net amount.",
+                        residual.amount.equals(new Amount<>(Math.abs(net), token)) && residual.paid.getQuantity() == 0);
+                require.using("Residual IOUs must have no due date or instalments.", hasNoSchedule(residual));
+            }
+
+            Set<PublicKey> listOfParticipantPublicKeys = new HashSet<>();
+            listOfParticipantPublicKeys.add(partyA.getOwningKey());
+            listOfParticipantPublicKeys.add(partyB.getOwningKey());
+            require.using("Both parties must sign an IOU netting transaction.", signers.equals(listOfParticipantPublicKeys));
+
+            return null;
+        });
+    }
 
-                    IOUState outputIOU = tx.outputsOfType(IOUState.class).get(0);
+    private static void verifyMultilateralNet(LedgerTransaction tx, Set<PublicKey> signers, List<IOUState> inputIOUs, List<IOUState> outputIOUs) {
+        requireThat(require -> {
+
+            require.using("Only IOUs may be consumed or created when netting.",
+                    inputIOUs.size() == tx.getInputs().size() && outputIOUs.size() == tx.getOutputs().size());
+            require.using("At least two IOUs must be netted.", inputIOUs.size() >= 2);
+
+            // Sum every party's net position from the inputs, then take the outputs back off; every position must end
+            // at zero.
+            //入力から各当事者の純ポジションを合計し、出力の分を差し引きます。すべてのポジションはゼロになる必要があります。
+            Currency token = inputIOUs.get(0).amount.getToken();
+            Map<PublicKey, Long> positions = new HashMap<>();
+            for (IOUState input: inputIOUs) {
+                require.using("All netted IOUs must be in the same currency.", input.amount.getToken().equals(token));
+                require.using("IOUs with a due date cannot be netted.", input.dueDate == null);
+                long outstanding = input.amount.getQuantity() - input.paid.getQuantity();
+                positions.merge(input.lender.getOwningKey(), outstanding, Math::addExact);
+                positions.merge(input.borrower.getOwningKey(), -outstanding, Math::addExact);
+            }
+            for (IOUState output: outputIOUs) {
+                require.using("All netted IOUs must be in the same currency.", output.amount.getToken().equals(token));
+                require.using("Residual IOUs must be unpaid and for a positive amount.", output.paid.getQuantity() == 0 && output.amount.getQuantity() > 0);
+                require.using("The lender and borrower cannot have the same identity.", !output.lender.getOwningKey().equals(output.borrower.getOwningKey()));
+                require.using("Residual IOUs must have no due date or instalments.", hasNoSchedule(output));
+                require.using("Residual IOUs must be between parties to the netted IOUs.",
+                        positions.containsKey(output.lender.getOwningKey()) && positions.containsKey(output.borrower.getOwningKey()));
+                positions.merge(output.lender.getOwningKey(), -output.amount.getQuantity(), Math::addExact);
+                positions.merge(output.borrower.getOwningKey(), output.amount.getQuantity(), Math::addExact);
+            }
+            require.using("Multilateral netting must leave every party's net position unchanged.",
+                    positions.values().stream().allMatch(position -> position == 0));
+            require.using("Multilateral netting must create fewer IOUs than there are parties.", outputIOUs.size() < positions.size());
+
+            // The netting may be coordinated by a party that signs as well.
+            //ネッティングは、署名も行う当事者によって調整される場合があります。
+            require.using("Every party to the netted IOUs must sign a multilateral netting transaction.", signers.containsAll(positions.keySet()));
+
+            return null;
+        });
+    }
 
-                    require.using("The amount may not change when settling.", inputIOU.amount.equals(outputIOU.amount));
-                    require.using("The lender may not change when settling.", inputIOU.lender.equals(outputIOU.lender));
-                    require.using("The borrower may not change when settling.", inputIOU.borrower.equals(outputIOU.borrower));
-                }
+    /**
+     * Checks that [iou] has a schedule the scheduler can follow: an IOU paid in instalments needs a due date, a positive
+     * instalment in its own currency and a positive interval, and only such an IOU may have an interval.
+     * [iou]がスケジューラーの従える支払予定を持つことを確認します。分割払いのIOUには期日、同じ通貨建ての正の分割額、
+     * 正の間隔が必要で、間隔を持てるのはそのようなIOUだけです。
+     */
+    private static void verifySchedule(Requirements require, IOUState iou) {
+        if (iou.instalment != null) {
+            require.using("An IOU paid in instalments must have a due date.", iou.dueDate != null);
+            require.using("An instalment must be a positive amount in the currency of the IOU.",
+                    iou.instalment.getQuantity() > 0 && iou.instalment.getToken().equals(iou.amount.getToken()));
+            require.using("The interval between instalments must be positive.",
+                    iou.instalmentInterval != null && !iou.instalmentInterval.isNegative() && !iou.instalmentInterval.isZero());
+        } else {
+            require.using("Only an IOU paid in instalments may have an instalment interval.", iou.instalmentInterval == null);
+        }
+    }
 
-                Set<PublicKey> listOfParticipantPublicKeys = inputIOU.getParticipants().stream().map(AbstractParty::getOwningKey).collect(Collectors.toSet());
-                List<PublicKey> arrayOfSigners = command.getSigners();
-                Set<PublicKey> setOfSigners = new HashSet<PublicKey>(arrayOfSigners);
-                require.using("Both lender and borrower must sign IOU settle transaction.", setOfSigners.equals(listOfParticipantPublicKeys));
+    /**
+     * Whether [iou] has neither a due date nor instalments, as the residual IOUs of a netting must not.
+     * [iou]が期日も分割払いも持たないかどうか。ネッティングの残余IOUはそうである必要があります。
+     */
+    private static boolean hasNoSchedule(IOUState iou) {
+        return iou.dueDate == null && iou.instalment == null && iou.instalmentInterval == null;
+    }
 
-                return null;
-            });
+    /**
+     * Checks a single group of IOUs being settled by [settledAmount].
+     * [settledAmount]で決済されるIOUの単一グループを確認します。
+     */
+    private static void verifySettledGroup(Requirements require, IOUGroup group, Amount<Currency> settledAmount) {
+        IOUState inputIOU = group.inputs.get(0);
+
+        long amountOutstanding = inputIOU.amount.getQuantity() - inputIOU.paid.getQuantity();
+        require.using("The amount settled cannot be more than the amount outstanding.", amountOutstanding >= settledAmount.getQuantity());
+
+        if (amountOutstanding == settledAmount.getQuantity()) {
+            // If the IOU has been fully settled then there should be no IOU output state.
+            // IOUが完全に決済された場合、IOU出力状態はありません。
+            require.using("There must be no output IOU as it has been fully settled.", group.outputs.isEmpty());
+
+        } else {
+            // If the IOU has been partially settled then it should still exist.
+            // IOUが部分的に決済されている場合、IOUはまだ存在するはずです。
+            require.using("There must be one output IOU.", group.outputs.size() == 1);
+
+            IOUState outputIOU = group.outputs.get(0);
+
+            require.using("The amount may not change when settling.", inputIOU.amount.equals(outputIOU.amount));
+            require.using("The lender may not change when settling.", inputIOU.lender.equals(outputIOU.lender));
+            require.using("The borrower may not change when settling.", inputIOU.borrower.equals(outputIOU.borrower));
+            require.using("The due date and instalments may not change when settling.", inputIOU.hasSameSchedule(outputIOU));
+            require.using("The amount paid must increase by exactly the amount settled.",
+                    outputIOU.paid.equals(inputIOU.paid.plus(settledAmount)));
+        }
+    }
 
+    /**
+     * Sums the quantity of [cash] without allocating an intermediate [Amount] per state. The cash must be in [token].
+     * 状態ごとに中間の[Amount]を割り当てずに[cash]の数量を合計します。現金は[token]建てである必要があります。
+     */
+    private static long sumCash(List<Cash.State> cash, Currency token) {
+        long sum = 0;
+        for (Cash.State state: cash) {
+            Currency cashToken = state.getAmount().getToken().getProduct();
+            if (!cashToken.equals(token)) {
+                throw new IllegalArgumentException("Token mismatch: " + cashToken + " vs " + token);
+            }
+            sum = Math.addExact(sum, state.getAmount().getQuantity());
         }
+        return sum;
+    }
 
+    /**
+     * The input and output [IOUState]s sharing a linear id, built from the already bucketed IOU lists rather than by
+     * re-scanning the transaction with [LedgerTransaction.groupStates].
+     * 同じlinearIdを共有する入力および出力の[IOUState]。[LedgerTransaction.groupStates]でトランザクションを再走査せず、
+     * 振り分け済みのIOUリストから構築されます。
+     */
+    private static final class IOUGroup {
+        final List<IOUState> inputs = new ArrayList<>(1);
+        final List<IOUState> outputs = new ArrayList<>(1);
+
+        static Map<UniqueIdentifier, IOUGroup> byLinearId(List<IOUState> inputIOUs, List<IOUState> outputIOUs) {
+            Map<UniqueIdentifier, IOUGroup> groups = new LinkedHashMap<>();
+            for (IOUState input: inputIOUs) {
+                groups.computeIfAbsent(input.getLinearId(), id -> new IOUGroup()).inputs.add(input);
+            }
+            for (IOUState output: outputIOUs) {
+                groups.computeIfAbsent(output.getLinearId(), id -> new IOUGroup()).outputs.add(output);
+            }
+            return groups;
+        }
     }
 
 }
@@ -16,6 +16,11 @@ import static net.corda.core.contracts.ContractsDSL.requireThat;
 import net.corda.core.utilities.ProgressTracker;
 
 import net.corda.training.contract.IOUContract;
+import net.corda.training.service.FlowMetricsService;
+import net.corda.training.service.FlowMetricsService.Stage;
+import net.corda.training.service.FlowMetricsService.Stopwatch;
+import net.corda.training.service.IssuanceDeduplicationService;
+import net.corda.training.service.NotarySelectionService;
 import net.corda.training.state.IOUState;
 import static net.corda.training.contract.IOUContract.Commands.*;
 
@@ -24,8 +29,8 @@ import static net.corda.training.contract.IOUContract.Commands.*;
  *これは、レジャーの新しいIOUの発行を処理するフローです。
  * Gathering the counterparty's signature is handled by the [CollectSignaturesFlow].
  *取引相手の署名の収集は[CollectSignaturesFlow]によって処理されます。
- * Notarisation (if required) and commitment to the ledger is handled by the [FinalityFlow].
- *ノータリー（必要な場合）および元帳へのコミットメントは、[FinalityFlow]によって処理されます。
+ * Notarisation (if required) and commitment to the ledger is handled by the [TimedFinalityFlow].
+ *ノータリー（必要な場合）および元帳へのコミットメントは、[TimedFinalityFlow]によって処理されます。
  * The flow returns the [SignedTransaction] that was committed to the ledger.
  *フローは、レジャーにコミットされた[SignedTransaction]を返します。
  */
@@ -35,18 +40,99 @@ public class IOUIssueFlow {
     @StartableByRPC
     public static class InitiatorFlow extends FlowLogic<SignedTransaction> {
         private final IOUState state;
+
+        private static final String FLOW_NAME = "IOUIssueFlow";
+
+        // The steps reported to RPC clients through the flow's progress tracker.
+        // フローのプログレストラッカーを通じてRPCクライアントに報告されるステップ。
+        private static final ProgressTracker.Step BUILDING = new ProgressTracker.Step("Building and verifying the transaction.");
+        private static final ProgressTracker.Step SIGNING = new ProgressTracker.Step("Signing the transaction.");
+        private static final ProgressTracker.Step COLLECTING = new ProgressTracker.Step("Collecting the counterparty's signature.") {
+            @Override
+            public ProgressTracker childProgressTracker() {
+                return CollectSignaturesFlow.Companion.tracker();
+            }
+        };
+        private static final ProgressTracker.Step FINALISING = new ProgressTracker.Step("Notarising and recording the transaction.") {
+            @Override
+            public ProgressTracker childProgressTracker() {
+                return TimedFinalityFlow.tracker();
+            }
+        };
+
+        private final ProgressTracker progressTracker = new ProgressTracker(BUILDING, SIGNING, COLLECTING, FINALISING);
+
         public InitiatorFlow(IOUState state) {
             this.state = state;
         }
 
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
         @Suspendable
         @Override
         public SignedTransaction call() throws FlowException {
+            // Time each stage of the flow, and count whether it succeeds or fails.
+            // フローの各段階の時間を計測し、成功したか失敗したかを数えます。
+            final FlowMetricsService metrics = getServiceHub().cordaService(FlowMetricsService.class);
+            try {
+                final SignedTransaction result = issue(metrics);
+                metrics.recordSuccess(FLOW_NAME);
+                return result;
+            } catch (FlowException | RuntimeException e) {
+                metrics.recordFailure(FLOW_NAME);
+                throw e;
+            }
+        }
+
+        @Suspendable
+        private SignedTransaction issue(FlowMetricsService metrics) throws FlowException {
+            // An IOU with an external id is issued at most once by each issuer: a replay returns the original issuance.
+            // The id is scoped to us, so that a counterparty using the same key can't collide with it.
+            // 外部IDを持つIOUは発行者ごとに最大1回だけ発行されます。再実行は元の発行を返します。
+            // IDは自分の範囲に限定されるため、同じキーを使う取引相手と衝突することはありません。
+            final String key = state.getLinearId().getExternalId();
+            if (key == null) {
+                return build(state, metrics);
+            }
+            final String externalId = IssuanceDeduplicationService.scopedExternalId(getOurIdentity(), key);
+            final IssuanceDeduplicationService deduplication = getServiceHub().cordaService(IssuanceDeduplicationService.class);
+            final Stopwatch lookupStarted = Stopwatch.start();
+            final SignedTransaction existing = deduplication.findIssuance(getOurIdentity(), externalId);
+            metrics.recordStage(FLOW_NAME, Stage.VAULT_QUERY, lookupStarted);
+            if (existing != null) {
+                if (!issuedSameIOU(existing, state.withExternalId(externalId))) {
+                    throw new FlowException("External id " + key + " was already used for a different IOU.");
+                }
+                return existing;
+            }
+            if (!deduplication.reserve(externalId)) {
+                throw new FlowException("An IOU with external id " + key + " is already being issued.");
+            }
+            try {
+                return build(state.withExternalId(externalId), metrics);
+            } finally {
+                deduplication.release(externalId);
+            }
+        }
+
+        @Suspendable
+        private SignedTransaction build(IOUState state, FlowMetricsService metrics) throws FlowException {
+            progressTracker.setCurrentStep(BUILDING);
+            Stopwatch stageStarted = Stopwatch.start();
+
             // Step 1. Get a reference to the notary service on our network and our key pair.
             //ステップ1.ネットワーク上のノータリーサービスとキーペアへの参照を取得します。
-            // Note: ongoing work to support multiple notary identities is still in progress.
-            //注：複数のノータリーのアイデンティティをサポートするための作業はまだ進行中です。
-            final Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
+            // New IOUs are spread over the network's notaries by the [NotarySelectionService].
+            //新しいIOUは[NotarySelectionService]によってネットワークの公証人に分散されます。
+            final NotarySelectionService notarySelection = getServiceHub().cordaService(NotarySelectionService.class);
+            final Party counterparty = state.getParticipants().stream()
+                    .map(el -> (Party) el)
+                    .filter(el -> !el.equals(getOurIdentity()))
+                    .findFirst().orElse(getOurIdentity());
+            final Party notary = notarySelection.selectNotary(counterparty);
 
             // Step 2. Create a new issue command.
             //ステップ2.新しいissueコマンドを作成します。
@@ -69,8 +155,14 @@ public class IOUIssueFlow {
 
             // Step 5. Verify and sign it with our KeyPair.
             //ステップ5. KeyPairで確認して署名します。
+            metrics.recordStage(FLOW_NAME, Stage.BUILD, stageStarted);
+            stageStarted = Stopwatch.start();
             builder.verify(getServiceHub());
+            metrics.recordStage(FLOW_NAME, Stage.VERIFY, stageStarted);
+            progressTracker.setCurrentStep(SIGNING);
+            stageStarted = Stopwatch.start();
             final SignedTransaction ptx = getServiceHub().signInitialTransaction(builder);
+            metrics.recordStage(FLOW_NAME, Stage.SIGN, stageStarted);
 
 
             // Step 6. Collect the other party's signature using the SignTransactionFlow.
@@ -85,14 +177,47 @@ public class IOUIssueFlow {
                     .stream().map(el -> initiateFlow(el))
                     .collect(Collectors.toList());
 
-            SignedTransaction stx = subFlow(new CollectSignaturesFlow(ptx, sessions));
+            progressTracker.setCurrentStep(COLLECTING);
+            stageStarted = Stopwatch.start();
+            SignedTransaction stx = subFlow(new CollectSignaturesFlow(ptx, sessions, COLLECTING.childProgressTracker()));
+            metrics.recordStage(FLOW_NAME, Stage.COLLECT_SIGNATURES, stageStarted);
 
             // Step 7. Assuming no exceptions, we can now finalise the transaction
             //ステップ7.例外を想定せずに、トランザクションを終了できるようになりました
-            return subFlow(new FinalityFlow(stx, sessions));
+            progressTracker.setCurrentStep(FINALISING);
+            final Stopwatch finalisingStarted = Stopwatch.start();
+            final SignedTransaction result = subFlow(new TimedFinalityFlow(stx, sessions, FINALISING.childProgressTracker()));
+            metrics.recordStage(FLOW_NAME, Stage.FINALITY, finalisingStarted);
+            return result;
         }
     }
 
+    /**
+     * Returns whether [existing] issued the same IOU as [state], whose external id is already scoped, apart from its
+     * linear id's UUID.
+     * リニアIDのUUIDを除いて、外部IDが既に範囲限定された[state]と同じIOUを[existing]が発行したかどうかを返します。
+     */
+    static boolean issuedSameIOU(SignedTransaction existing, IOUState state) {
+        return existing.getTx().outputsOfType(IOUState.class).stream()
+                .anyMatch(iou -> state.getLinearId().getExternalId().equals(iou.getLinearId().getExternalId())
+                        && iou.amount.equals(state.amount)
+                        && iou.lender.equals(state.lender)
+                        && iou.borrower.equals(state.borrower)
+                        && iou.hasSameSchedule(state));
+    }
+
+    /**
+     * Returns whether every IOU [stx] issues either has no external id or one scoped to [initiator], so that nobody can
+     * take up the external ids another party issues under.
+     * [stx]が発行するすべてのIOUが外部IDを持たないか、[initiator]の範囲に限定された外部IDを持つかどうかを返します。
+     * これにより、他の当事者が発行に使う外部IDを誰も横取りできません。
+     */
+    static boolean externalIdsScopedTo(SignedTransaction stx, Party initiator) {
+        return stx.getTx().outputsOfType(IOUState.class).stream()
+                .map(iou -> iou.getLinearId().getExternalId())
+                .allMatch(externalId -> externalId == null || IssuanceDeduplicationService.isScopedTo(externalId, initiator));
+    }
+
     /**
      * This is the flow which signs IOU issuances.
      *これは、IOUの発行に署名するフローです。
@@ -124,6 +249,7 @@ public class IOUIssueFlow {
                     requireThat(req -> {
                         ContractState output = stx.getTx().getOutputs().get(0).getData();
                         req.using("This must be an IOU transaction", output instanceof IOUState);
+                        req.using("External ids must be scoped to the issuer", externalIdsScopedTo(stx, flowSession.getCounterparty()));
                         return null;
                     });
                     // Once the transaction has verified, initialize txWeJustSignedID variable.
@@ -12,19 +12,25 @@ import net.corda.core.node.services.vault.QueryCriteria;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.transactions.TransactionBuilder;
 import net.corda.core.utilities.OpaqueBytes;
+import net.corda.core.utilities.NonEmptySet;
 import net.corda.core.utilities.ProgressTracker;
 import net.corda.finance.contracts.asset.Cash;
 import net.corda.finance.flows.AbstractCashFlow;
 import net.corda.finance.flows.CashIssueFlow;
 import net.corda.finance.workflows.asset.CashUtils;
 import net.corda.training.contract.IOUContract;
+import net.corda.training.service.CashBalanceService;
+import net.corda.training.service.ContentionRetryService;
+import net.corda.training.service.FlowMetricsService;
+import net.corda.training.service.FlowMetricsService.Stage;
+import net.corda.training.service.FlowMetricsService.Stopwatch;
+import net.corda.training.service.NotarySelectionService;
 import net.corda.training.state.IOUState;
 
 import java.lang.IllegalArgumentException;
 import java.util.*;
 
 import static net.corda.core.contracts.ContractsDSL.requireThat;
-import static net.corda.finance.workflows.GetBalances.getCashBalance;
 
 import java.util.ArrayList;
 import java.util.Currency;
@@ -39,8 +45,8 @@ public class IOUSettleFlow {
      *これは、元帳上の既存のIOUの決済（部分的または完全）を処理するフローです。
      * Gathering the counterparty's signature is handled by the [CollectSignaturesFlow].
      *取引相手の署名の収集は[CollectSignaturesFlow]によって処理されます。
-     * Notarisation (if required) and commitment to the ledger is handled by the [FinalityFlow].
-     *公証（必要な場合）および元帳へのコミットメントは、[FinalityFlow]によって処理されます。
+     * Notarisation (if required) and commitment to the ledger is handled by the [TimedFinalityFlow].
+     *公証（必要な場合）および元帳へのコミットメントは、[TimedFinalityFlow]によって処理されます。
      * The flow returns the [SignedTransaction] that was committed to the ledger.
      *フローは、レジャーにコミットされた[SignedTransaction]を返します。
      */
@@ -51,99 +57,186 @@ public class IOUSettleFlow {
         private final UniqueIdentifier stateLinearId;
         private final Amount<Currency> amount;
 
+        private static final String FLOW_NAME = "IOUSettleFlow";
+
+        // The steps reported to RPC clients through the flow's progress tracker.
+        // フローのプログレストラッカーを通じてRPCクライアントに報告されるステップ。
+        private static final ProgressTracker.Step BUILDING = new ProgressTracker.Step("Building and verifying the transaction.");
+        private static final ProgressTracker.Step SIGNING = new ProgressTracker.Step("Signing the transaction.");
+        private static final ProgressTracker.Step COLLECTING = new ProgressTracker.Step("Collecting the lender's signature.") {
+            @Override
+            public ProgressTracker childProgressTracker() {
+                return CollectSignaturesFlow.Companion.tracker();
+            }
+        };
+        private static final ProgressTracker.Step FINALISING = new ProgressTracker.Step("Notarising and recording the transaction.") {
+            @Override
+            public ProgressTracker childProgressTracker() {
+                return TimedFinalityFlow.tracker();
+            }
+        };
+
+        private final ProgressTracker progressTracker = new ProgressTracker(BUILDING, SIGNING, COLLECTING, FINALISING);
+
         public InitiatorFlow(UniqueIdentifier stateLinearId, Amount<Currency> amount) {
             this.stateLinearId = stateLinearId;
             this.amount = amount;
         }
 
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
         @Suspendable
         @Override
         public SignedTransaction call() throws FlowException {
-
-            // 1. Retrieve the IOU State from the vault using LinearStateQueryCriteria
-            // 1. LinearStateQueryCriteriaを使用してボールトからIOU状態を取得する
-            List<UUID> listOfLinearIds = Arrays.asList(stateLinearId.getId());
-            QueryCriteria queryCriteria = new QueryCriteria.LinearStateQueryCriteria(null, listOfLinearIds);
-            Vault.Page results = getServiceHub().getVaultService().queryBy(IOUState.class, queryCriteria);
-
-            // 2. Get a reference to the inputState data that we are going to settle.
-            // 2.解決しようとしているinputStateデータへの参照を取得します。
-            StateAndRef inputStateAndRefToSettle = (StateAndRef) results.getStates().get(0);
-            IOUState inputStateToSettle = (IOUState) ((StateAndRef) results.getStates().get(0)).getState().getData();
-
-            // 3. Check the party running this flow is the borrower.
-            // 3.このフローを実行しているパーティが借り手であることを確認します。
-            if (!inputStateToSettle.borrower.getOwningKey().equals(getOurIdentity().getOwningKey())) {
-                throw new IllegalArgumentException("The borrower must issue the flow");
-            }
-
-            // 4. We should now get some of the components required for to execute the transaction
-            // 4.ここで、トランザクションの実行に必要なコンポーネントの一部を取得する必要があります
-            // Here we get a reference to the default notary and instantiate a transaction builder.
-            //ここでは、デフォルトの公証人への参照を取得し、トランザクションビルダーをインスタンス化します。
-            Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
-            TransactionBuilder tb = new TransactionBuilder(notary);
-
-            // 5. Check we have enough cash to settle the requested amount
-            // 5.要求された金額を決済するのに十分な現金があることを確認します
-            final Amount<Currency> cashBalance = getCashBalance(getServiceHub(), (Currency) amount.getToken());
-
-            if (cashBalance.getQuantity() < amount.getQuantity()) {
-                throw new IllegalArgumentException("Borrower doesn't have enough cash to settle with the amount specified.");
-            } else if (amount.getQuantity() > (inputStateToSettle.amount.getQuantity() - inputStateToSettle.paid.getQuantity())) {
-                throw new IllegalArgumentException("Borrow tried to settle with more than was required for the obligation.");
-            }
-
-            // 6. Get some cash from the vault and add a spend to our transaction builder.
-            // 6.ボールトから現金を受け取り、トランザクションビルダーに支出を追加します。
-            CashUtils.generateSpend(getServiceHub(), tb, amount, getOurIdentityAndCert(), inputStateToSettle.lender, ImmutableSet.of()).getSecond();
-
-            // 7. Create a command. you will need to provide the Command constructor with a reference to the Settle Command as well as a list of required signers.
-            // 7.コマンドを作成します。 CommandコンストラクターにSettle Commandへの参照と必要な署名者のリストを提供する必要があります。
-            Command<IOUContract.Commands.Settle> command = new Command<>(
-                    new IOUContract.Commands.Settle(),
-                    inputStateToSettle.getParticipants()
-                            .stream().map(AbstractParty::getOwningKey)
-                            .collect(Collectors.toList())
-            );
-
-            // 8. Add the command and the input state to the transaction using the TransactionBuilder.
-            // 8. TransactionBuilderを使用して、コマンドと入力状態をトランザクションに追加します。
-            tb.addCommand(command);
-            tb.addInputState(inputStateAndRefToSettle);
-
-            // 9. Add an IOU output state if the IOU in question that has not been fully settled.
-            // 9.問題のIOUが完全に解決されていない場合、IOU出力状態を追加します。
-            if (amount.getQuantity() < inputStateToSettle.amount.getQuantity()) {
-                tb.addOutputState(inputStateToSettle.pay(amount), IOUContract.IOU_CONTRACT_ID);
+            // Time each stage of the flow, and count whether it succeeds or fails.
+            // フローの各段階の時間を計測し、成功したか失敗したかを数えます。
+            final FlowMetricsService metrics = getServiceHub().cordaService(FlowMetricsService.class);
+            try {
+                final SignedTransaction result = settle();
+                metrics.recordSuccess(FLOW_NAME);
+                return result;
+            } catch (FlowException | RuntimeException e) {
+                metrics.recordFailure(FLOW_NAME);
+                throw e;
             }
+        }
 
-            // 10. Verify and sign the transaction
-            // 10.トランザクションを確認して署名する
-            tb.verify(getServiceHub());
-            SignedTransaction stx = getServiceHub().signInitialTransaction(tb, getOurIdentity().getOwningKey());
+        /**
+         * Retries when another flow wins the race for the IOU or the cash, either at the soft lock or at the notary.
+         * ソフトロックまたは公証人で、別のフローがIOUまたは現金の競合に勝った場合に再試行します。
+         */
+        @Suspendable
+        private SignedTransaction settle() throws FlowException {
+            return getServiceHub().cordaService(ContentionRetryService.class).runWithRetries(this, FLOW_NAME, SettleAttempt::new);
+        }
 
-            // 11. Collect all of the required signatures from other Corda nodes using the CollectSignaturesFlow
-            // 11. CollectSignaturesFlowを使用して、他のCordaノードから必要な署名をすべて収集します
-            List<FlowSession> sessions = new ArrayList<>();
+        /**
+         * One attempt at the settlement, run as a subflow by the [ContentionRetryService].
+         * [ContentionRetryService]によってサブフローとして実行される、決済の1回の試行。
+         */
+        private class SettleAttempt extends FlowLogic<SignedTransaction> {
+
+            @Suspendable
+            @Override
+            public SignedTransaction call() throws FlowException {
+                final FlowMetricsService metrics = getServiceHub().cordaService(FlowMetricsService.class);
+
+                progressTracker.setCurrentStep(BUILDING);
+                Stopwatch stageStarted = Stopwatch.start();
+
+                // 1. Retrieve the IOU State from the vault using LinearStateQueryCriteria
+                // 1. LinearStateQueryCriteriaを使用してボールトからIOU状態を取得する
+                List<UUID> listOfLinearIds = Arrays.asList(stateLinearId.getId());
+                QueryCriteria queryCriteria = new QueryCriteria.LinearStateQueryCriteria(null, listOfLinearIds);
+                Vault.Page results = getServiceHub().getVaultService().queryBy(IOUState.class, queryCriteria);
+
+                // 2. Get a reference to the inputState data that we are going to settle.
+                // 2.解決しようとしているinputStateデータへの参照を取得します。
+                StateAndRef inputStateAndRefToSettle = (StateAndRef) results.getStates().get(0);
+                IOUState inputStateToSettle = (IOUState) ((StateAndRef) results.getStates().get(0)).getState().getData();
+
+                // Reserve the IOU for this flow, so that a concurrent flow on this node fails here, before anything is
+                // signed, rather than at the notary. The cash selected below is soft-locked for this flow in the same way.
+                // このフローのためにIOUを予約し、このノードの並行するフローが公証人ではなく、何かに署名する前にここで失敗する
+                // ようにします。以下で選択される現金も同じようにこのフローのためにソフトロックされます。
+                getServiceHub().getVaultService().softLockReserve(getRunId().getUuid(), NonEmptySet.of(inputStateAndRefToSettle.getRef()));
+                metrics.recordStage(FLOW_NAME, Stage.VAULT_QUERY, stageStarted);
+                stageStarted = Stopwatch.start();
+
+                // 3. Check the party running this flow is the borrower.
+                // 3.このフローを実行しているパーティが借り手であることを確認します。
+                if (!inputStateToSettle.borrower.getOwningKey().equals(getOurIdentity().getOwningKey())) {
+                    throw new IllegalArgumentException("The borrower must issue the flow");
+                }
 
-            for (AbstractParty participant: inputStateToSettle.getParticipants()) {
-                Party partyToInitiateFlow = (Party) participant;
-                if (!partyToInitiateFlow.getOwningKey().equals(getOurIdentity().getOwningKey())) {
-                    sessions.add(initiateFlow(partyToInitiateFlow));
+                // 4. We should now get some of the components required for to execute the transaction
+                // 4.ここで、トランザクションの実行に必要なコンポーネントの一部を取得する必要があります
+                // Here we get a reference to the notary of the input IOU, which must notarise its spending, and instantiate a
+                // transaction builder.
+                //ここでは、入力IOUの使用を公証しなければならないその公証人への参照を取得し、トランザクションビルダーをインスタンス化します。
+                Party notary = inputStateAndRefToSettle.getState().getNotary();
+                TransactionBuilder tb = new TransactionBuilder(notary);
+
+                // 5. Check we have enough cash to settle the requested amount, using the node's cached cash balances.
+                // 5.ノードのキャッシュされた現金残高を使用して、要求された金額を決済するのに十分な現金があることを確認します
+                final Amount<Currency> cashBalance = getServiceHub().cordaService(CashBalanceService.class).getCashBalance(amount.getToken());
+
+                if (cashBalance.getQuantity() < amount.getQuantity()) {
+                    throw new IllegalArgumentException("Borrower doesn't have enough cash to settle with the amount specified.");
+                } else if (amount.getQuantity() > (inputStateToSettle.amount.getQuantity() - inputStateToSettle.paid.getQuantity())) {
+                    throw new IllegalArgumentException("Borrow tried to settle with more than was required for the obligation.");
+                }
+                // The cash can only be spent at the IOU's notary, so move any of it held at other notaries there first.
+                // 現金はIOUの公証人でしか使用できないため、他の公証人で保有されている現金を最初にそこへ移します。
+                subFlow(new MoveCashToNotaryFlow(amount, notary));
+
+                // 6. Get some cash from the vault and add a spend to our transaction builder.
+                // 6.ボールトから現金を受け取り、トランザクションビルダーに支出を追加します。
+                CashUtils.generateSpend(getServiceHub(), tb, amount, getOurIdentityAndCert(), inputStateToSettle.lender, ImmutableSet.of()).getSecond();
+
+                // 7. Create a command. you will need to provide the Command constructor with a reference to the Settle Command as well as a list of required signers.
+                // 7.コマンドを作成します。 CommandコンストラクターにSettle Commandへの参照と必要な署名者のリストを提供する必要があります。
+                Command<IOUContract.Commands.Settle> command = new Command<>(
+                        new IOUContract.Commands.Settle(),
+                        inputStateToSettle.getParticipants()
+                                .stream().map(AbstractParty::getOwningKey)
+                                .collect(Collectors.toList())
+                );
+
+                // 8. Add the command and the input state to the transaction using the TransactionBuilder.
+                // 8. TransactionBuilderを使用して、コマンドと入力状態をトランザクションに追加します。
+                tb.addCommand(command);
+                tb.addInputState(inputStateAndRefToSettle);
+
+                // 9. Add an IOU output state if the IOU in question that has not been fully settled, counting what was
+                //    paid before.
+                // 9.以前に支払われた分も含めて、問題のIOUが完全に解決されていない場合、IOU出力状態を追加します。
+                if (amount.getQuantity() < inputStateToSettle.amount.getQuantity() - inputStateToSettle.paid.getQuantity()) {
+                    tb.addOutputState(inputStateToSettle.pay(amount), IOUContract.IOU_CONTRACT_ID);
                 }
-            }
-            SignedTransaction fullySignedTransaction = subFlow(new CollectSignaturesFlow(stx, sessions));
 
-            /* 12. Return the output of the FinalityFlow which sends the transaction to the notary for verification
-             *     and the causes it to be persisted to the vault of appropriate nodes.
-             *12.検証のためにトランザクションを公証人に送信するFinalityFlowの出力を返します。これにより
-             *　　適切なノードのボールトに永続化されます。
-             */
-            return subFlow(new FinalityFlow(fullySignedTransaction, sessions));
+                // 10. Verify and sign the transaction
+                // 10.トランザクションを確認して署名する
+                metrics.recordStage(FLOW_NAME, Stage.BUILD, stageStarted);
+                stageStarted = Stopwatch.start();
+                tb.verify(getServiceHub());
+                metrics.recordStage(FLOW_NAME, Stage.VERIFY, stageStarted);
+                progressTracker.setCurrentStep(SIGNING);
+                stageStarted = Stopwatch.start();
+                SignedTransaction stx = getServiceHub().signInitialTransaction(tb, getOurIdentity().getOwningKey());
+                metrics.recordStage(FLOW_NAME, Stage.SIGN, stageStarted);
+
+                // 11. Collect all of the required signatures from other Corda nodes using the CollectSignaturesFlow
+                // 11. CollectSignaturesFlowを使用して、他のCordaノードから必要な署名をすべて収集します
+                List<FlowSession> sessions = new ArrayList<>();
+
+                for (AbstractParty participant: inputStateToSettle.getParticipants()) {
+                    Party partyToInitiateFlow = (Party) participant;
+                    if (!partyToInitiateFlow.getOwningKey().equals(getOurIdentity().getOwningKey())) {
+                        sessions.add(initiateFlow(partyToInitiateFlow));
+                    }
+                }
+                progressTracker.setCurrentStep(COLLECTING);
+                stageStarted = Stopwatch.start();
+                SignedTransaction fullySignedTransaction = subFlow(new CollectSignaturesFlow(stx, sessions, COLLECTING.childProgressTracker()));
+                metrics.recordStage(FLOW_NAME, Stage.COLLECT_SIGNATURES, stageStarted);
+
+                /* 12. Return the output of the FinalityFlow which sends the transaction to the notary for verification
+                 *     and the causes it to be persisted to the vault of appropriate nodes.
+                 *12.検証のためにトランザクションを公証人に送信するFinalityFlowの出力を返します。これにより
+                 *　　適切なノードのボールトに永続化されます。
+                 */
+                progressTracker.setCurrentStep(FINALISING);
+                final Stopwatch finalisingStarted = Stopwatch.start();
+                final SignedTransaction result = subFlow(new TimedFinalityFlow(fullySignedTransaction, sessions, FINALISING.childProgressTracker()));
+                metrics.recordStage(FLOW_NAME, Stage.FINALITY, finalisingStarted);
+                return result;
 
+            }
         }
-
     }
 
     /**
@@ -173,8 +266,11 @@ public class IOUSettleFlow {
                 @Override
                 protected void checkTransaction(SignedTransaction stx) {
                     requireThat(require -> {
-                        ContractState output = stx.getTx().outputsOfType(IOUState.class).get(0);
-                        require.using("This must be an IOU transaction", output instanceof IOUState);
+                        // A full settlement has no IOU output, so look for the settle command instead.
+                        // 完全な決済にはIOU出力がないため、代わりに決済コマンドを探します。
+                        boolean isSettlement = stx.getTx().getCommands().stream()
+                                .anyMatch(command -> command.getValue() instanceof IOUContract.Commands.Settle);
+                        require.using("This must be an IOU transaction", isSettlement);
                         return null;
                     });
                     // Once the transaction has verified, initialize txWeJustSignedID variable.
@@ -221,9 +317,9 @@ public class IOUSettleFlow {
             // Create the cash issue command.
             //キャッシュ発行コマンドを作成します。
             OpaqueBytes issueRef = OpaqueBytes.of(new byte[0]);
-            // Note: ongoing work to support multiple notary identities is still in progress. */
-            //注：複数のノータリーのアイデンティティをサポートするための作業はまだ進行中です。 * /
-            Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
+            // Let the [NotarySelectionService] choose the notary for the new cash.
+            //新しい現金の公証人は[NotarySelectionService]に選ばせます。
+            Party notary = getServiceHub().cordaService(NotarySelectionService.class).selectNotary(getOurIdentity());
             // Create the cash issuance transaction.
             //現金発行トランザクションを作成します。
             AbstractCashFlow.Result cashIssueTransaction = subFlow(new CashIssueFlow(amount, issueRef, notary));
@@ -3,12 +3,19 @@ package net.corda.training.state;
 import net.corda.core.contracts.*;
 import net.corda.core.identity.Party;
 import net.corda.core.identity.AbstractParty;
+import net.corda.core.flows.FlowLogicRefFactory;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+import net.corda.core.schemas.QueryableState;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
 import com.google.common.collect.ImmutableList;
 import net.corda.core.serialization.ConstructorForDeserialization;
 import net.corda.core.serialization.CordaSerializable;
 import net.corda.training.contract.IOUContract;
+import net.corda.training.schema.IOUSchemaV1;
 
 import javax.servlet.http.Part;
 
@@ -31,32 +38,68 @@ import javax.servlet.http.Part;
  *すべての関係者のVault。 メソッドは、1つの入力と1つの出力がトランザクションでIDを共有していることを確認する必要があります。
  * except at issuance/termination.
  *発行/終了時を除きます。
+ * - [dueDate] Optional. When the IOU falls due, or when its first instalment does if it has an [instalment].
+ *-[dueDate] 任意。IOUの支払期日、または[instalment]がある場合は最初の分割払いの期日。
+ * - [instalment] Optional. How much falls due every [instalmentInterval] from the [dueDate] until the IOU is paid off.
+ *-[instalment] 任意。IOUが完済されるまで、[dueDate]から[instalmentInterval]ごとに支払期日となる金額。
+ * - [instalmentInterval] The time between instalments. Required with an [instalment].
+ *-[instalmentInterval] 分割払いの間隔。[instalment]がある場合は必須です。
+ * An IOU with a [dueDate] is a [SchedulableState]: when its next payment falls due, the borrower's node settles it
+ * automatically with the [IOUAutoSettleFlow].
+ *[dueDate]を持つIOUは[SchedulableState]です。次の支払いが期日になると、借り手のノードが[IOUAutoSettleFlow]で
+ *自動的に決済します。
  */
 
 @BelongsToContract(IOUContract.class)
-public class IOUState implements ContractState, LinearState {
+public class IOUState implements ContractState, LinearState, QueryableState, SchedulableState {
+
+    private static final String AUTO_SETTLE_FLOW = "net.corda.training.flow.IOUAutoSettleFlow";
 
     public final Amount<Currency> amount;
     public final Party lender;
     public final Party borrower;
     public final Amount<Currency> paid;
     private final UniqueIdentifier linearId;
+    public final Instant dueDate;
+    public final Amount<Currency> instalment;
+    public final Duration instalmentInterval;
 
     // Private constructor used only for copying a State object
     // Stateオブジェクトのコピーにのみ使用されるプライベートコンストラクター
     @ConstructorForDeserialization
-    private IOUState(Amount<Currency> amount, Party lender, Party borrower, Amount<Currency> paid, UniqueIdentifier linearId){
+    private IOUState(Amount<Currency> amount, Party lender, Party borrower, Amount<Currency> paid, UniqueIdentifier linearId,
+                     Instant dueDate, Amount<Currency> instalment, Duration instalmentInterval) {
         this.amount = amount;
         this.lender = lender;
         this.borrower = borrower;
         this.paid = paid;
         this.linearId = linearId;
+        this.dueDate = dueDate;
+        this.instalment = instalment;
+        this.instalmentInterval = instalmentInterval;
+    }
+
+    private IOUState(Amount<Currency> amount, Party lender, Party borrower, Amount<Currency> paid, UniqueIdentifier linearId){
+        this(amount, lender, borrower, paid, linearId, null, null, null);
     }
 
     public IOUState(Amount<Currency> amount, Party lender, Party borrower) {
         this(amount, lender, borrower, new Amount<>(0, amount.getToken()), new UniqueIdentifier());
     }
 
+    // Creates an IOU whose linearId carries [externalId], which makes its issuance idempotent (see [IOUIssueFlow]).
+    // linearIdが[externalId]を持つIOUを作成します。これにより、その発行は冪等になります（[IOUIssueFlow]を参照）。
+    public IOUState(Amount<Currency> amount, Party lender, Party borrower, String externalId) {
+        this(amount, lender, borrower, new Amount<>(0, amount.getToken()), new UniqueIdentifier(externalId));
+    }
+
+    // Used by [IOUStateSerializer] to rebuild a state, including its linearId, from its proxy.
+    // [IOUStateSerializer]がプロキシからlinearIdを含む状態を再構築するために使用します。
+    static IOUState fromSerializedFields(Amount<Currency> amount, Party lender, Party borrower, Amount<Currency> paid, UniqueIdentifier linearId,
+                                         Instant dueDate, Amount<Currency> instalment, Duration instalmentInterval) {
+        return new IOUState(amount, lender, borrower, paid, linearId, dueDate, instalment, instalmentInterval);
+    }
+
     public Amount<Currency> getAmount() {
         return amount;
     }
@@ -78,6 +121,62 @@ public class IOUState implements ContractState, LinearState {
         return linearId;
     }
 
+    public Instant getDueDate() {
+        return dueDate;
+    }
+
+    public Amount<Currency> getInstalment() {
+        return instalment;
+    }
+
+    public Duration getInstalmentInterval() {
+        return instalmentInterval;
+    }
+
+    /**
+     * When the next payment falls due, or null if the IOU has no [dueDate].
+     * 次の支払いの期日。IOUに[dueDate]がない場合はnull。
+     * The schedule is worked out from how much has been paid, so a manual settlement counts towards the instalments
+     * and settling an IOU never has to change its schedule.
+     * スケジュールは支払済みの金額から算出されるため、手動の決済も分割払いに算入され、IOUの決済でスケジュールを変更する必要はありません。
+     */
+    public Instant getNextDue() {
+        if (dueDate == null || instalment == null) {
+            return dueDate;
+        }
+        return dueDate.plus(instalmentInterval.multipliedBy(paid.getQuantity() / instalment.getQuantity()));
+    }
+
+    /**
+     * How much falls due at [getNextDue]: the rest of the current instalment, or everything outstanding.
+     * [getNextDue]で支払期日となる金額：現在の分割払いの残り、または未払いの全額。
+     */
+    public Amount<Currency> getAmountDue() {
+        long outstanding = amount.getQuantity() - paid.getQuantity();
+        if (instalment == null) {
+            return new Amount<>(outstanding, amount.getToken());
+        }
+        long dueByNextInstalment = (paid.getQuantity() / instalment.getQuantity() + 1) * instalment.getQuantity();
+        return new Amount<>(Math.min(dueByNextInstalment - paid.getQuantity(), outstanding), amount.getToken());
+    }
+
+    /**
+     * Asks the borrower's node to settle the payment due at [getNextDue]. The activity is scheduled on the lender's node
+     * as well, where the [IOUAutoSettleFlow] returns at once. Every IOU due at the same instant schedules the same
+     * activity, so the first [IOUAutoSettleFlow] to run settles all of them together and the rest return at once.
+     * [getNextDue]に期日となる支払いの決済を借り手のノードに依頼します。アクティビティは貸し手のノードでもスケジュール
+     * されますが、そこでは[IOUAutoSettleFlow]はすぐに戻ります。同じ時刻に期日となるすべてのIOUが同じアクティビティを
+     * スケジュールするため、最初に実行される[IOUAutoSettleFlow]がそれらをまとめて決済し、残りはすぐに戻ります。
+     */
+    @Override
+    public ScheduledActivity nextScheduledActivity(StateRef thisStateRef, FlowLogicRefFactory flowLogicRefFactory) {
+        Instant nextDue = getNextDue();
+        if (nextDue == null) {
+            return null;
+        }
+        return new ScheduledActivity(flowLogicRefFactory.create(AUTO_SETTLE_FLOW, nextDue, borrower), nextDue);
+    }
+
     /**
      *  This method will return a list of the nodes which can "use" this state in a valid transaction. In this case, the
      *  lender or the borrower.
@@ -88,6 +187,33 @@ public class IOUState implements ContractState, LinearState {
         return ImmutableList.of(lender, borrower);
     }
 
+    /**
+     * Maps this state onto the [IOUSchemaV1] table so that the vault can be queried on lender, borrower, currency and
+     * amounts without deserializing the state.
+     * ボールトが状態をデシリアライズせずに貸し手、借り手、通貨、金額でクエリできるように、この状態を[IOUSchemaV1]のテーブルにマッピングします。
+     */
+    @Override
+    public PersistentState generateMappedObject(MappedSchema schema) {
+        if (schema instanceof IOUSchemaV1) {
+            return new IOUSchemaV1.PersistentIOU(
+                    lender.getName().toString(),
+                    borrower.getName().toString(),
+                    amount.getToken().getCurrencyCode(),
+                    amount.getQuantity(),
+                    paid.getQuantity(),
+                    amount.getQuantity() - paid.getQuantity(),
+                    linearId.getId(),
+                    getNextDue());
+        } else {
+            throw new IllegalArgumentException("Unrecognised schema " + schema);
+        }
+    }
+
+    @Override
+    public Iterable<MappedSchema> supportedSchemas() {
+        return ImmutableList.of(new IOUSchemaV1());
+    }
+
     /**
      * Helper methods for when building transactions for settling and transferring IOUs.
      * IOUを決済および転送するためのトランザクションを構築するときの補助となるメソッド。
@@ -97,18 +223,43 @@ public class IOUState implements ContractState, LinearState {
      *-[withNewLender]は、新しく指定された貸し手で現在の状態のコピーを作成します。 転送するときに使用します。
      * - [copy] creates a copy of the state using the internal copy constructor ensuring the LinearId is preserved.
      *-[copy]は、内部コピーコンストラクターを使用して状態のコピーを作成し、LinearIdが保持されるようにします。
+     * - [withSchedule] creates a copy of a new IOU that falls due at [dueDate], in instalments if [instalment] is given.
+     *-[withSchedule]は、[dueDate]に期日となる新しいIOUのコピーを作成します。[instalment]が指定された場合は分割払いになります。
+     * - [withExternalId] creates a copy whose linear id carries [externalId] instead, keeping the same UUID.
+     *-[withExternalId]は、同じUUIDを保ったまま、リニアIDが代わりに[externalId]を持つコピーを作成します。
+     * All of them keep the due date and instalments of the current state.
+     *いずれも現在の状態の期日と分割払いを保持します。
      */
     public IOUState pay(Amount<Currency> amountToPay) {
         Amount<Currency> newAmountPaid = this.paid.plus(amountToPay);
-        return new IOUState(amount, lender, borrower, newAmountPaid, linearId);
+        return new IOUState(amount, lender, borrower, newAmountPaid, linearId, dueDate, instalment, instalmentInterval);
     }
 
     public IOUState withNewLender(Party newLender) {
-        return new IOUState(amount, newLender, borrower, paid, linearId);
+        return new IOUState(amount, newLender, borrower, paid, linearId, dueDate, instalment, instalmentInterval);
     }
 
     public IOUState copy(Amount<Currency> amount, Party lender, Party borrower, Amount<Currency> paid) {
-        return new IOUState(amount, lender, borrower, paid, this.getLinearId());
+        return new IOUState(amount, lender, borrower, paid, this.getLinearId(), dueDate, instalment, instalmentInterval);
+    }
+
+    public IOUState withExternalId(String externalId) {
+        return new IOUState(amount, lender, borrower, paid, new UniqueIdentifier(externalId, linearId.getId()),
+                dueDate, instalment, instalmentInterval);
+    }
+
+    public IOUState withSchedule(Instant dueDate, Amount<Currency> instalment, Duration instalmentInterval) {
+        return new IOUState(amount, lender, borrower, paid, linearId, dueDate, instalment, instalmentInterval);
+    }
+
+    /**
+     * Whether [other] has the same due date and instalments as this state.
+     * [other]がこの状態と同じ期日と分割払いを持つかどうか。
+     */
+    public boolean hasSameSchedule(IOUState other) {
+        return Objects.equals(dueDate, other.dueDate)
+                && Objects.equals(instalment, other.instalment)
+                && Objects.equals(instalmentInterval, other.instalmentInterval);
     }
 
 }
@@ -6,6 +6,7 @@ import net.corda.core.contracts.ContractState;
 import net.corda.core.contracts.StateAndRef;
 import net.corda.core.crypto.SecureHash;
 import net.corda.core.flows.*;
+import net.corda.core.utilities.NonEmptySet;
 import net.corda.core.utilities.ProgressTracker;
 import net.corda.training.contract.IOUContract.Commands.Transfer;
 import net.corda.core.contracts.UniqueIdentifier;
@@ -16,6 +17,10 @@ import net.corda.core.node.services.vault.QueryCriteria;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.transactions.TransactionBuilder;
 import net.corda.training.contract.IOUContract;
+import net.corda.training.service.ContentionRetryService;
+import net.corda.training.service.FlowMetricsService;
+import net.corda.training.service.FlowMetricsService.Stage;
+import net.corda.training.service.FlowMetricsService.Stopwatch;
 import net.corda.training.state.IOUState;
 
 import javax.validation.constraints.NotNull;
@@ -33,8 +38,8 @@ import static net.corda.core.contracts.ContractsDSL.requireThat;
  *これは、元帳上の既存のIOUの転送を処理するフローです。
  * Gathering the counterparty's signature is handled by the [CollectSignaturesFlow].
  *取引相手の署名の収集は[CollectSignaturesFlow]によって処理されます。
- * Notarisation (if required) and commitment to the ledger is handled by the [FinalityFlow].
- *公証（必要な場合）および元帳へのコミットメントは、[FinalityFlow]によって処理されます。
+ * Notarisation (if required) and commitment to the ledger is handled by the [TimedFinalityFlow].
+ *公証（必要な場合）および元帳へのコミットメントは、[TimedFinalityFlow]によって処理されます。
  * The flow returns the [SignedTransaction] that was committed to the ledger.
  *フローは、レジャーにコミットされた[SignedTransaction]を返します。
  */
@@ -46,85 +51,169 @@ public class IOUTransferFlow{
         private final UniqueIdentifier stateLinearId;
         private final Party newLender;
 
+        private static final String FLOW_NAME = "IOUTransferFlow";
+
+        // The steps reported to RPC clients through the flow's progress tracker.
+        // フローのプログレストラッカーを通じてRPCクライアントに報告されるステップ。
+        private static final ProgressTracker.Step BUILDING = new ProgressTracker.Step("Building and verifying the transaction.");
+        private static final ProgressTracker.Step SIGNING = new ProgressTracker.Step("Signing the transaction.");
+        private static final ProgressTracker.Step COLLECTING = new ProgressTracker.Step("Collecting the counterparties' signatures.") {
+            @Override
+            public ProgressTracker childProgressTracker() {
+                return CollectSignaturesFlow.Companion.tracker();
+            }
+        };
+        private static final ProgressTracker.Step FINALISING = new ProgressTracker.Step("Notarising and recording the transaction.") {
+            @Override
+            public ProgressTracker childProgressTracker() {
+                return TimedFinalityFlow.tracker();
+            }
+        };
+
+        private final ProgressTracker progressTracker = new ProgressTracker(BUILDING, SIGNING, COLLECTING, FINALISING);
+
         public InitiatorFlow(UniqueIdentifier stateLinearId, Party newLender) {
             this.stateLinearId = stateLinearId;
             this.newLender = newLender;
         }
 
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
         @Suspendable
         @Override
         public SignedTransaction call() throws FlowException {
-
-            // 1. Retrieve the IOU State from the vault using LinearStateQueryCriteria
-            // 1. LinearStateQueryCriteriaを使用して、ボールトからIOU Stateを取得します
-            List<UUID> listOfLinearIds = new ArrayList<>();
-            listOfLinearIds.add(stateLinearId.getId());
-            QueryCriteria queryCriteria = new QueryCriteria.LinearStateQueryCriteria(null, listOfLinearIds);
-
-            // 2. Get a reference to the inputState data that we are going to settle.
-            // 2.解決しようとしているinputStateデータへの参照を取得します。
-            Vault.Page results = getServiceHub().getVaultService().queryBy(IOUState.class, queryCriteria);
-            StateAndRef inputStateAndRefToTransfer = (StateAndRef) results.getStates().get(0);
-            IOUState inputStateToTransfer = (IOUState) inputStateAndRefToTransfer.getState().getData();
-
-            // 3. We should now get some of the components required for to execute the transaction
-            // 3.トランザクションを実行するために必要なコンポーネントの一部を取得する必要があります
-            // Here we get a reference to the default notary and instantiate a transaction builder.
-            //ここでは、デフォルトのノータリーへの参照を取得し、トランザクションビルダーをインスタンス化します。
-            Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
-            TransactionBuilder tb = new TransactionBuilder(notary);
-
-            // 4. Construct a transfer command to be added to the transaction.
-            // 4.トランザクションに追加する転送コマンドを作成します。
-            List<PublicKey> listOfRequiredSigners = inputStateToTransfer.getParticipants()
-                    .stream().map(AbstractParty::getOwningKey)
-                    .collect(Collectors.toList());
-            listOfRequiredSigners.add(newLender.getOwningKey());
-
-            Command<Transfer> command = new Command<>(
-                    new Transfer(),
-                    listOfRequiredSigners
-            );
-
-            // 5. Add the command to the transaction using the TransactionBuilder.
-            // 5. TransactionBuilderを使用して、コマンドをトランザクションに追加します。
-            tb.addCommand(command);
-
-            // 6. Add input and output states to flow using the TransactionBuilder.
-            // 6. TransactionBuilderを使用して、inputState とoutputstateをフローに追加します。
-            tb.addInputState(inputStateAndRefToTransfer);
-            tb.addOutputState(inputStateToTransfer.withNewLender(newLender), IOUContract.IOU_CONTRACT_ID);
-
-            // 7. Ensure that this flow is being executed by the current lender.
-            // 7.このフローが現在の貸し手によって実行されていることを確認します。
-            if (!inputStateToTransfer.lender.getOwningKey().equals(getOurIdentity().getOwningKey())) {
-                throw new IllegalArgumentException("This flow must be run by the current lender.");
+            // Time each stage of the flow, and count whether it succeeds or fails.
+            // フローの各段階の時間を計測し、成功したか失敗したかを数えます。
+            final FlowMetricsService metrics = getServiceHub().cordaService(FlowMetricsService.class);
+            try {
+                final SignedTransaction result = transfer();
+                metrics.recordSuccess(FLOW_NAME);
+                return result;
+            } catch (FlowException | RuntimeException e) {
+                metrics.recordFailure(FLOW_NAME);
+                throw e;
             }
+        }
+
+        /**
+         * Retries when another flow wins the race for the IOU, either at the soft lock or at the notary.
+         * ソフトロックまたは公証人で、別のフローがIOUの競合に勝った場合に再試行します。
+         */
+        @Suspendable
+        private SignedTransaction transfer() throws FlowException {
+            return getServiceHub().cordaService(ContentionRetryService.class).runWithRetries(this, FLOW_NAME, TransferAttempt::new);
+        }
+
+        /**
+         * One attempt at the transfer, run as a subflow by the [ContentionRetryService].
+         * [ContentionRetryService]によってサブフローとして実行される、転送の1回の試行。
+         */
+        private class TransferAttempt extends FlowLogic<SignedTransaction> {
+
+            @Suspendable
+            @Override
+            public SignedTransaction call() throws FlowException {
+                final FlowMetricsService metrics = getServiceHub().cordaService(FlowMetricsService.class);
+
+                progressTracker.setCurrentStep(BUILDING);
+                Stopwatch stageStarted = Stopwatch.start();
+
+                // 1. Retrieve the IOU State from the vault using LinearStateQueryCriteria
+                // 1. LinearStateQueryCriteriaを使用して、ボールトからIOU Stateを取得します
+                List<UUID> listOfLinearIds = new ArrayList<>();
+                listOfLinearIds.add(stateLinearId.getId());
+                QueryCriteria queryCriteria = new QueryCriteria.LinearStateQueryCriteria(null, listOfLinearIds);
+
+                // 2. Get a reference to the inputState data that we are going to settle.
+                // 2.解決しようとしているinputStateデータへの参照を取得します。
+                Vault.Page results = getServiceHub().getVaultService().queryBy(IOUState.class, queryCriteria);
+                StateAndRef inputStateAndRefToTransfer = (StateAndRef) results.getStates().get(0);
+                IOUState inputStateToTransfer = (IOUState) inputStateAndRefToTransfer.getState().getData();
+
+                // Reserve the IOU for this flow, so that a concurrent flow on this node fails here, before anything is
+                // signed, rather than at the notary.
+                // このフローのためにIOUを予約し、このノードの並行するフローが公証人ではなく、何かに署名する前にここで失敗する
+                // ようにします。
+                getServiceHub().getVaultService().softLockReserve(getRunId().getUuid(), NonEmptySet.of(inputStateAndRefToTransfer.getRef()));
+                metrics.recordStage(FLOW_NAME, Stage.VAULT_QUERY, stageStarted);
+                stageStarted = Stopwatch.start();
+
+                // 3. We should now get some of the components required for to execute the transaction
+                // 3.トランザクションを実行するために必要なコンポーネントの一部を取得する必要があります
+                // Here we get a reference to the notary of the input IOU, which must notarise its spending, and instantiate a
+                // transaction builder.
+                //ここでは、入力IOUの使用を公証しなければならないその公証人への参照を取得し、トランザクションビルダーをインスタンス化します。
+                Party notary = inputStateAndRefToTransfer.getState().getNotary();
+                TransactionBuilder tb = new TransactionBuilder(notary);
+
+                // 4. Construct a transfer command to be added to the transaction.
+                // 4.トランザクションに追加する転送コマンドを作成します。
+                List<PublicKey> listOfRequiredSigners = inputStateToTransfer.getParticipants()
+                        .stream().map(AbstractParty::getOwningKey)
+                        .collect(Collectors.toList());
+                listOfRequiredSigners.add(newLender.getOwningKey());
+
+                Command<Transfer> command = new Command<>(
+                        new Transfer(),
+                        listOfRequiredSigners
+                );
+
+                // 5. Add the command to the transaction using the TransactionBuilder.
+                // 5. TransactionBuilderを使用して、コマンドをトランザクションに追加します。
+                tb.addCommand(command);
+
+                // 6. Add input and output states to flow using the TransactionBuilder.
+                // 6. TransactionBuilderを使用して、inputState とoutputstateをフローに追加します。
+                tb.addInputState(inputStateAndRefToTransfer);
+                tb.addOutputState(inputStateToTransfer.withNewLender(newLender), IOUContract.IOU_CONTRACT_ID);
+
+                // 7. Ensure that this flow is being executed by the current lender.
+                // 7.このフローが現在の貸し手によって実行されていることを確認します。
+                if (!inputStateToTransfer.lender.getOwningKey().equals(getOurIdentity().getOwningKey())) {
+                    throw new IllegalArgumentException("This flow must be run by the current lender.");
+                }
 
-            // 8. Verify and sign the transaction
-            // 8.トランザクションを検証して署名します
-            tb.verify(getServiceHub());
-            SignedTransaction partiallySignedTransaction = getServiceHub().signInitialTransaction(tb);
+                // 8. Verify and sign the transaction
+                // 8.トランザクションを検証して署名します
+                metrics.recordStage(FLOW_NAME, Stage.BUILD, stageStarted);
+                stageStarted = Stopwatch.start();
+                tb.verify(getServiceHub());
+                metrics.recordStage(FLOW_NAME, Stage.VERIFY, stageStarted);
+                progressTracker.setCurrentStep(SIGNING);
+                stageStarted = Stopwatch.start();
+                SignedTransaction partiallySignedTransaction = getServiceHub().signInitialTransaction(tb);
+                metrics.recordStage(FLOW_NAME, Stage.SIGN, stageStarted);
 
-            // 9. Collect all of the required signatures from other Corda nodes using the CollectSignaturesFlow
-            // 9. CollectSignaturesFlowを使用して、他のCordaノードから必要な署名をすべて収集します
-            List<FlowSession> sessions = new ArrayList<>();
+                // 9. Collect all of the required signatures from other Corda nodes using the CollectSignaturesFlow
+                // 9. CollectSignaturesFlowを使用して、他のCordaノードから必要な署名をすべて収集します
+                List<FlowSession> sessions = new ArrayList<>();
 
-            for (AbstractParty participant: inputStateToTransfer.getParticipants()) {
-                Party partyToInitiateFlow = (Party) participant;
-                if (!partyToInitiateFlow.getOwningKey().equals(getOurIdentity().getOwningKey())) {
-                    sessions.add(initiateFlow(partyToInitiateFlow));
+                for (AbstractParty participant: inputStateToTransfer.getParticipants()) {
+                    Party partyToInitiateFlow = (Party) participant;
+                    if (!partyToInitiateFlow.getOwningKey().equals(getOurIdentity().getOwningKey())) {
+                        sessions.add(initiateFlow(partyToInitiateFlow));
+                    }
                 }
+                sessions.add(initiateFlow(newLender));
+                progressTracker.setCurrentStep(COLLECTING);
+                stageStarted = Stopwatch.start();
+                SignedTransaction fullySignedTransaction = subFlow(new CollectSignaturesFlow(partiallySignedTransaction, sessions, COLLECTING.childProgressTracker()));
+                metrics.recordStage(FLOW_NAME, Stage.COLLECT_SIGNATURES, stageStarted);
+                /* 10. Return the output of the FinalityFlow which sends the transaction to the notary for verification
+                 *     and the causes it to be persisted to the vault of appropriate nodes.
+                 *
+                 * 10. FinalityFlowの出力を返します。FinalityFlowは、検証のためにトランザクションを公証人に送信し、
+                 *    適切なノードのボールトに永続化させます。
+                 */     
+                progressTracker.setCurrentStep(FINALISING);
+                final Stopwatch finalisingStarted = Stopwatch.start();
+                final SignedTransaction result = subFlow(new TimedFinalityFlow(fullySignedTransaction, sessions, FINALISING.childProgressTracker()));
+                metrics.recordStage(FLOW_NAME, Stage.FINALITY, finalisingStarted);
+                return result;
             }
-            sessions.add(initiateFlow(newLender));
-            SignedTransaction fullySignedTransaction = subFlow(new CollectSignaturesFlow(partiallySignedTransaction, sessions));
-            /* 10. Return the output of the FinalityFlow which sends the transaction to the notary for verification
-             *     and the causes it to be persisted to the vault of appropriate nodes.
-             *
-             * 10. FinalityFlowの出力を返します。FinalityFlowは、検証のためにトランザクションを公証人に送信し、
-             *    適切なノードのボールトに永続化させます。
-             */     
-            return subFlow(new FinalityFlow(fullySignedTransaction, sessions));
         }
     }
 
@@ -8,6 +8,7 @@ import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.utilities.OpaqueBytes;
 import net.corda.finance.contracts.asset.Cash;
 import net.corda.finance.flows.CashIssueFlow;
+import net.corda.training.service.NotarySelectionService;
 import org.intellij.lang.annotations.Flow;
 
 import javax.annotation.Signed;
@@ -16,9 +17,19 @@ import java.util.Currency;
 public class SelfIssueCashFlow extends FlowLogic<Cash.State> {
 
     private Amount<Currency> amount;
+    private Party notary;
 
     public SelfIssueCashFlow(Amount<Currency> amount) {
+        this(amount, null);
+    }
+
+    /**
+     * Issues the cash at a given [notary], for example the notary of the IOUs it will be used to settle.
+     * 指定された[notary]で現金を発行します。たとえば、決済に使用するIOUの公証人です。
+     */
+    public SelfIssueCashFlow(Amount<Currency> amount, Party notary) {
         this.amount = amount;
+        this.notary = notary;
     }
 
     @Suspendable
@@ -26,9 +37,11 @@ public class SelfIssueCashFlow extends FlowLogic<Cash.State> {
         /** Create the cash issue command. */
         /**現金発行コマンドを作成します。 */
         OpaqueBytes issueRef = OpaqueBytes.of("1".getBytes());
-        /** Note: ongoing work to support multiple notary identities is still in progress. */
-        /**注：複数のノータリーのアイデンティティをサポートするための進行中の作業はまだ進行中です。 */
-        Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
+        /** Unless a notary was given, let the [NotarySelectionService] choose one. */
+        /**公証人が指定されていない場合は、[NotarySelectionService]に選ばせます。 */
+        Party notary = this.notary != null
+                ? this.notary
+                : getServiceHub().cordaService(NotarySelectionService.class).selectNotary(getOurIdentity());
         /** Create the cash issuance transaction. */
         /**現金発行トランザクションを作成します。 */
         SignedTransaction cashIssueTransaction = subFlow(new CashIssueFlow(amount, issueRef, notary)).getStx();
@@ -0,0 +1,211 @@
+package net.corda.training.contract;
+
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.PartyAndReference;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.LedgerTransaction;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.OpaqueBytes;
+import net.corda.finance.contracts.asset.Cash;
+import net.corda.testing.core.TestIdentity;
+import net.corda.testing.node.MockServices;
+import net.corda.training.state.IOUState;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static net.corda.testing.node.MockServicesKt.makeTestIdentityService;
+import static net.corda.training.TestUtils.BOB;
+import static net.corda.training.TestUtils.CHARLIE;
+import static net.corda.training.TestUtils.DUMMY;
+
+/**
+ * Benchmarks [IOUContract.verify] for the Issue, Transfer and Settle commands against pre-built [LedgerTransaction]s,
+ * so that only contract verification is measured.
+ * 事前に構築した[LedgerTransaction]に対してIssue、Transfer、Settleコマンドの[IOUContract.verify]をベンチマークし、
+ * 契約の検証のみを計測します。
+ *
+ * - [iouGroups] The number of IOUs issued, transferred or settled by the transaction. It may not be below [lenders].
+ *-[iouGroups] トランザクションで発行、譲渡、または決済されるIOUの数。[lenders]を下回ることはできません。
+ * - [lenders] The number of distinct lenders the IOUs are spread over. The command is signed by every lender and the
+ *   borrower, so this sets the signer count.
+ *-[lenders] IOUが分散される貸し手の数。コマンドはすべての貸し手と借り手が署名するため、署名者数を決定します。
+ * - [Settlement.cashOutputs] The number of cash states paying each lender in a settlement. Only the settle benchmark
+ *   takes it, so the issue and transfer benchmarks are not repeated for each value.
+ *-[Settlement.cashOutputs] 決済で各貸し手に支払われる現金状態の数。決済のベンチマークだけが受け取るため、
+ * 発行と譲渡のベンチマークが値ごとに繰り返されることはありません。
+ *
+ * Run with `./gradlew java-source:jmh`. Add `-PjmhArgs='-prof gc'` for allocation rates.
+ * `./gradlew java-source:jmh`で実行します。割り当て率を見るには`-PjmhArgs='-prof gc'`を追加します。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IOUContractBenchmark {
+
+    @Param({"4", "10", "100"})
+    public int iouGroups;
+
+    @Param({"1", "4"})
+    public int lenders;
+
+    private final IOUContract contract = new IOUContract();
+
+    private final Party borrower = BOB.getParty();
+    private final Party notary = DUMMY.getParty();
+    private final List<TestIdentity> lenderIdentities = new ArrayList<>();
+    private final List<PublicKey> signers = new ArrayList<>();
+    private MockServices services;
+    private SignedTransaction issuance;
+
+    private LedgerTransaction issueTx;
+    private LedgerTransaction transferTx;
+
+    /**
+     * The settlement fixture, which alone depends on [cashOutputs].
+     * [cashOutputs]に依存する唯一のフィクスチャである決済のフィクスチャ。
+     */
+    @State(Scope.Benchmark)
+    public static class Settlement {
+
+        @Param({"1", "10"})
+        public int cashOutputs;
+
+        private LedgerTransaction settleTx;
+
+        @Setup
+        public void setup(IOUContractBenchmark fixture) {
+            settleTx = fixture.settlement(cashOutputs);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        // Every lender must hold at least one IOU, or two parameter combinations would build the same transactions.
+        // すべての貸し手が少なくとも1つのIOUを保有する必要があります。そうでないと2つのパラメータの組み合わせが同じトランザクションを構築します。
+        if (lenders > iouGroups) {
+            throw new IllegalArgumentException("There must be at least as many IOUs as lenders.");
+        }
+        List<KeyPair> keys = new ArrayList<>();
+        keys.add(DUMMY.getKeyPair());
+        for (int i = 0; i < lenders; i++) {
+            TestIdentity lender = new TestIdentity(new CordaX500Name("Lender" + i, "London", "GB"));
+            lenderIdentities.add(lender);
+            keys.add(lender.getKeyPair());
+        }
+        services = new MockServices(
+                Arrays.asList("net.corda.training", "net.corda.finance.contracts"),
+                BOB,
+                makeTestIdentityService(),
+                keys.toArray(new KeyPair[0]));
+
+        signers.add(borrower.getOwningKey());
+        for (TestIdentity lender: lenderIdentities) {
+            signers.add(lender.getPublicKey());
+        }
+
+        // Every IOU is for the same amount, and lender i holds the IOUs i, i + lenders, i + 2 * lenders, ...
+        //すべてのIOUは同額で、貸し手iはIOU i、i + lenders、i + 2 * lenders、...を保有します。
+        List<IOUState> ious = new ArrayList<>();
+        for (int i = 0; i < iouGroups; i++) {
+            ious.add(new IOUState(pounds(1000), lenderIdentities.get(i % lenders).getParty(), borrower));
+        }
+
+        // Issue: all of the IOUs as outputs.
+        //発行：すべてのIOUを出力とします。
+        TransactionBuilder issueBuilder = new TransactionBuilder(notary);
+        for (IOUState iou: ious) {
+            issueBuilder.addOutputState(iou, IOUContract.IOU_CONTRACT_ID);
+        }
+        issueBuilder.addCommand(new IOUContract.Commands.Issue(), signers);
+        issuance = services.signInitialTransaction(issueBuilder);
+        services.recordTransactions(issuance);
+        issueTx = toLedgerTransaction(services, issueBuilder);
+
+        // Transfer: every IOU moves to a new lender, so the transaction is signed by all of the old lenders.
+        //譲渡：すべてのIOUを新しい貸し手に移すため、トランザクションはすべての元の貸し手が署名します。
+        Party newLender = CHARLIE.getParty();
+        TransactionBuilder transferBuilder = new TransactionBuilder(notary);
+        for (int i = 0; i < iouGroups; i++) {
+            StateAndRef<IOUState> iou = issuance.getTx().outRef(i);
+            transferBuilder.addInputState(iou);
+            transferBuilder.addOutputState(iou.getState().getData().withNewLender(newLender), IOUContract.IOU_CONTRACT_ID);
+        }
+        List<PublicKey> transferSigners = new ArrayList<>(signers);
+        transferSigners.add(newLender.getOwningKey());
+        transferBuilder.addCommand(new IOUContract.Commands.Transfer(), transferSigners);
+        transferTx = toLedgerTransaction(services, transferBuilder);
+
+        // Fail fast if a fixture does not verify, rather than benchmarking the exception path.
+        //例外パスをベンチマークしないように、フィクスチャが検証に通らない場合はすぐに失敗させます。
+        contract.verify(issueTx);
+        contract.verify(transferTx);
+    }
+
+    /**
+     * Settle: every IOU is fully settled, and each lender is paid in [cashOutputs] cash states.
+     * 決済：すべてのIOUを完全に決済し、各貸し手には[cashOutputs]個の現金状態で支払います。
+     */
+    private LedgerTransaction settlement(int cashOutputs) {
+        TransactionBuilder settleBuilder = new TransactionBuilder(notary);
+        for (int i = 0; i < iouGroups; i++) {
+            settleBuilder.addInputState(issuance.getTx().outRef(i));
+        }
+        OpaqueBytes issuerRef = OpaqueBytes.of((byte) 1);
+        for (int l = 0; l < lenders; l++) {
+            Party lender = lenderIdentities.get(l).getParty();
+            int lenderIOUs = (iouGroups - l + lenders - 1) / lenders;
+            long owed = lenderIOUs * 1000L * 100;
+            long piece = owed / cashOutputs;
+            for (int c = 0; c < cashOutputs; c++) {
+                long quantity = c == cashOutputs - 1 ? owed - piece * (cashOutputs - 1) : piece;
+                Cash.State cash = new Cash.State(new PartyAndReference(borrower, issuerRef),
+                        new Amount<>(quantity, Currency.getInstance("GBP")), lender);
+                settleBuilder.addOutputState(cash, Cash.class.getName());
+            }
+        }
+        settleBuilder.addCommand(new IOUContract.Commands.Settle(), signers);
+        LedgerTransaction settleTx = toLedgerTransaction(services, settleBuilder);
+        contract.verify(settleTx);
+        return settleTx;
+    }
+
+    @Benchmark
+    public void verifyIssue() {
+        contract.verify(issueTx);
+    }
+
+    @Benchmark
+    public void verifyTransfer() {
+        contract.verify(transferTx);
+    }
+
+    @Benchmark
+    public void verifySettle(Settlement settlement) {
+        contract.verify(settlement.settleTx);
+    }
+
+    private static LedgerTransaction toLedgerTransaction(MockServices services, TransactionBuilder builder) {
+        try {
+            return builder.toWireTransaction(services).toLedgerTransaction(services);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not build the benchmark fixture.", e);
+        }
+    }
+
+    private static Amount<Currency> pounds(long amount) {
+        return new Amount<>(amount * 100, Currency.getInstance("GBP"));
+    }
+}
@@ -0,0 +1,207 @@
+package net.corda.training.flow;
+
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.finance.Currencies;
+import net.corda.testing.node.*;
+import net.corda.training.state.IOUState;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.function.IntFunction;
+
+/**
+ * Measures how many issue, transfer and settle flows per second the CorDapp completes on the [MockNetwork] used by the
+ * flow tests, and how many vault states each flow adds. Everything runs in process, so it is a quick regression check
+ * for flow changes rather than a measure of what real nodes sustain (see [LoadDriver] for that).
+ * フローテストで使用する[MockNetwork]上で、CorDappが1秒あたりに完了する発行、譲渡、決済フローの数と、各フローが
+ * 追加するボールト状態の数を計測します。すべてプロセス内で実行されるため、実ノードの処理能力の計測ではなく
+ * （それには[LoadDriver]を使用します）、フロー変更の簡易的な回帰チェックです。
+ *
+ * Each phase starts all of its flows before the network is run, so they proceed concurrently:
+ * 各フェーズはネットワークを実行する前にすべてのフローを開始するため、フローは並行して進みます。
+ * - issue: [flows] IOUs between random nodes, issued by their lenders.
+ *-issue：ランダムなノード間の[flows]個のIOUを、その貸し手が発行します。
+ * - transfer: every issued IOU moves to a random new lender.
+ *-transfer：発行されたすべてのIOUがランダムな新しい貸し手に移ります。
+ * - settle: every transferred IOU is fully settled by its borrower, from cash issued before the phase is timed.
+ *-settle：譲渡されたすべてのIOUを、フェーズの計測前に発行された現金で借り手が完全に決済します。
+ *
+ * Run with `./gradlew java-source:flowBenchmark`, passing options such as `-PflowBenchmarkArgs='flows=5000 seed=7'`.
+ * The same [seed] gives the same IOUs, parties and amounts. The results are printed and written to `results.csv`.
+ * `./gradlew java-source:flowBenchmark`で実行し、`-PflowBenchmarkArgs='flows=5000 seed=7'`のようにオプションを渡します。
+ * 同じ[seed]で同じIOU、当事者、金額になります。結果は出力され、`results.csv`に書き込まれます。
+ */
+public class IOUFlowThroughputBenchmark {
+
+    private final MockNetwork mockNetwork;
+    private final List<StartedMockNode> nodes = new ArrayList<>();
+    private final List<Party> parties = new ArrayList<>();
+    private final Random random;
+    private final int flows;
+
+    private IOUFlowThroughputBenchmark(int nodeCount, int flows, long seed) {
+        MockNetworkParameters mockNetworkParameters = new MockNetworkParameters().withCordappsForAllNodes(
+                Arrays.asList(
+                        TestCordapp.findCordapp("net.corda.training"),
+                        TestCordapp.findCordapp("net.corda.finance.schemas")
+                )
+        ).withNotarySpecs(Arrays.asList(new MockNetworkNotarySpec(new CordaX500Name("Notary", "London", "GB"))));
+        this.mockNetwork = new MockNetwork(mockNetworkParameters);
+        for (int i = 0; i < nodeCount; i++) {
+            StartedMockNode node = mockNetwork.createNode(new MockNodeParameters());
+            node.registerInitiatedFlow(IOUIssueFlow.ResponderFlow.class);
+            node.registerInitiatedFlow(IOUTransferFlow.Responder.class);
+            node.registerInitiatedFlow(IOUSettleFlow.Responder.class);
+            nodes.add(node);
+            parties.add(node.getInfo().getLegalIdentities().get(0));
+        }
+        mockNetwork.runNetwork();
+        this.random = new Random(seed);
+        this.flows = flows;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg: args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("Options must be given as key=value, not " + arg + ".");
+            }
+            options.put(option[0], option[1]);
+        }
+        int nodeCount = Integer.parseInt(options.getOrDefault("nodes", "3"));
+        if (nodeCount < 3) {
+            throw new IllegalArgumentException("Transfers need at least three nodes.");
+        }
+        IOUFlowThroughputBenchmark benchmark = new IOUFlowThroughputBenchmark(
+                nodeCount,
+                Integer.parseInt(options.getOrDefault("flows", "1000")),
+                Long.parseLong(options.getOrDefault("seed", "1")));
+        File outputDirectory = new File(options.getOrDefault("out", "build/flow-benchmark"));
+        try {
+            benchmark.run(outputDirectory);
+        } finally {
+            benchmark.mockNetwork.stopNodes();
+        }
+    }
+
+    private void run(File outputDirectory) throws IOException {
+        List<String> results = new ArrayList<>();
+
+        // Issue: each IOU is issued by its lender to a random other node.
+        // 発行：各IOUは、その貸し手がランダムな他のノードに対して発行します。
+        List<IOUState> issued = new ArrayList<>();
+        for (int i = 0; i < flows; i++) {
+            int lender = random.nextInt(nodes.size());
+            int borrower = otherNode(lender, lender);
+            IOUState iou = new IOUState(Currencies.POUNDS(1 + random.nextInt(100)), parties.get(lender), parties.get(borrower));
+            issued.add(iou);
+        }
+        results.add(phase("issue", issued.size(), i -> nodeOf(issued.get(i).lender).startFlow(new IOUIssueFlow.InitiatorFlow(issued.get(i)))));
+
+        // Transfer: each issued IOU moves to a random node that is neither its lender nor its borrower.
+        // 譲渡：発行された各IOUは、その貸し手でも借り手でもないランダムなノードに移ります。
+        List<IOUState> transferred = new ArrayList<>();
+        for (IOUState iou: issued) {
+            int newLender = otherNode(parties.indexOf(iou.lender), parties.indexOf(iou.borrower));
+            transferred.add(iou.withNewLender(parties.get(newLender)));
+        }
+        results.add(phase("transfer", transferred.size(), i -> nodeOf(issued.get(i).lender)
+                .startFlow(new IOUTransferFlow.InitiatorFlow(issued.get(i).getLinearId(), transferred.get(i).lender))));
+
+        // Settle: give each borrower one cash state per IOU, so that concurrent settlements never compete for cash.
+        // 決済：各借り手にIOUごとに1つの現金状態を与え、並行する決済が現金を奪い合わないようにします。
+        List<CordaFuture<?>> funding = new ArrayList<>();
+        for (IOUState iou: transferred) {
+            funding.add(nodeOf(iou.borrower).startFlow(new SelfIssueCashFlow(Currencies.POUNDS(100))));
+        }
+        mockNetwork.runNetwork();
+        await(funding);
+        results.add(phase("settle", transferred.size(), i -> nodeOf(transferred.get(i).borrower)
+                .startFlow(new IOUSettleFlow.InitiatorFlow(transferred.get(i).getLinearId(), transferred.get(i).amount))));
+
+        outputDirectory.mkdirs();
+        try (PrintWriter csv = new PrintWriter(new File(outputDirectory, "results.csv"), "UTF-8")) {
+            String header = "flow,flows,failed,seconds,flows_per_sec,vault_states_per_flow";
+            csv.println(header);
+            System.out.println(header);
+            for (String result: results) {
+                csv.println(result);
+                System.out.println(result);
+            }
+        }
+        System.out.println("Results written to " + outputDirectory.getAbsolutePath());
+    }
+
+    /**
+     * Starts [count] flows, runs the network until they have all finished and returns a line of results.
+     * [count]個のフローを開始し、すべて完了するまでネットワークを実行して、結果の行を返します。
+     */
+    private String phase(String name, int count, IntFunction<CordaFuture<?>> start) {
+        long statesBefore = vaultStates();
+        long started = System.nanoTime();
+        List<CordaFuture<?>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            futures.add(start.apply(i));
+        }
+        mockNetwork.runNetwork();
+        int failed = await(futures);
+        double seconds = (System.nanoTime() - started) / 1e9;
+        long statesAdded = vaultStates() - statesBefore;
+        int succeeded = count - failed;
+        return String.format(Locale.ROOT, "%s,%d,%d,%.3f,%.1f,%.2f", name, count, failed, seconds,
+                succeeded / seconds, succeeded == 0 ? 0.0 : statesAdded / (double) succeeded);
+    }
+
+    /**
+     * Returns the number of flows that failed.
+     * 失敗したフローの数を返します。
+     */
+    private static int await(List<CordaFuture<?>> futures) {
+        int failed = 0;
+        for (CordaFuture<?> future: futures) {
+            try {
+                future.get();
+            } catch (Exception e) {
+                if (failed++ == 0) {
+                    System.err.println("First failure: " + e.getMessage());
+                }
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Counts the consumed and unconsumed states in every node's vault.
+     * すべてのノードのボールト内の消費済みおよび未消費の状態を数えます。
+     */
+    private long vaultStates() {
+        QueryCriteria all = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL);
+        long states = 0;
+        for (StartedMockNode node: nodes) {
+            states += node.transaction(() -> node.getServices().getVaultService()
+                    .queryBy(ContractState.class, all, new PageSpecification(1, 1)).getTotalStatesAvailable());
+        }
+        return states;
+    }
+
+    private StartedMockNode nodeOf(Party party) {
+        return nodes.get(parties.indexOf(party));
+    }
+
+    private int otherNode(int first, int second) {
+        int node;
+        do {
+            node = random.nextInt(nodes.size());
+        } while (node == first || node == second);
+        return node;
+    }
+}
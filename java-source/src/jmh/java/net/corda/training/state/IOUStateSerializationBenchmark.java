@@ -0,0 +1,115 @@
+package net.corda.training.state;
+
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.SerializationContext;
+import net.corda.core.serialization.SerializedBytes;
+import net.corda.finance.Currencies;
+import net.corda.serialization.internal.AllWhitelist;
+import net.corda.serialization.internal.SharedContexts;
+import net.corda.serialization.internal.amqp.CorDappCustomSerializer;
+import net.corda.serialization.internal.amqp.DeserializationInput;
+import net.corda.serialization.internal.amqp.SerializationOutput;
+import net.corda.serialization.internal.amqp.SerializerFactory;
+import net.corda.serialization.internal.amqp.SerializerFactoryBuilder;
+import net.corda.serialization.internal.amqp.custom.CurrencySerializer;
+import net.corda.serialization.internal.amqp.custom.DurationSerializer;
+import net.corda.serialization.internal.amqp.custom.InstantSerializer;
+import net.corda.serialization.internal.amqp.custom.PublicKeySerializer;
+import net.corda.serialization.internal.carpenter.ClassCarpenterImpl;
+import net.corda.testing.core.TestIdentity;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static net.corda.training.TestUtils.BOB;
+
+/**
+ * Benchmarks an AMQP round trip of IOUs through the [IOUStateSerializer] proxy against Corda's reflective serializer.
+ * [IOUStateSerializer]プロキシを通したIOUのAMQPラウンドトリップを、Cordaのリフレクションによるシリアライザーと比較して
+ * ベンチマークします。
+ *
+ * - [serializer] "reflective" or "proxy".
+ *-[serializer] "reflective"または"proxy"。
+ * - [ious] The number of IOUs serialized together, as in a batch issuance. They are owed by one borrower to four
+ *   lenders, so that repeated parties are written as back-references.
+ *-[ious] 一括発行のように一緒にシリアライズされるIOUの数。1人の借り手が4人の貸し手に負うため、繰り返される当事者は
+ *   後方参照として書き込まれます。
+ *
+ * The serialized size of each combination is printed during setup.
+ * 各組み合わせのシリアライズされたサイズは、セットアップ中に出力されます。
+ * Run with `./gradlew java-source:jmh -PjmhArgs='IOUStateSerializationBenchmark -prof gc'`.
+ * `./gradlew java-source:jmh -PjmhArgs='IOUStateSerializationBenchmark -prof gc'`で実行します。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IOUStateSerializationBenchmark {
+
+    @Param({"reflective", "proxy"})
+    public String serializer;
+
+    @Param({"1", "100"})
+    public int ious;
+
+    private final SerializationContext context = SharedContexts.getAMQP_STORAGE_CONTEXT();
+
+    private SerializationOutput output;
+    private DeserializationInput input;
+    private ArrayList<IOUState> states;
+    private SerializedBytes<ArrayList<IOUState>> serialized;
+
+    @Setup
+    public void setup() throws Exception {
+        SerializerFactory factory = factory(serializer.equals("proxy"));
+        output = new SerializationOutput(factory);
+        input = new DeserializationInput(factory);
+
+        List<Party> lenders = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            lenders.add(new TestIdentity(new CordaX500Name("Lender" + i, "London", "GB")).getParty());
+        }
+        states = new ArrayList<>();
+        for (int i = 0; i < ious; i++) {
+            states.add(new IOUState(Currencies.POUNDS(1 + i), lenders.get(i % lenders.size()), BOB.getParty()).pay(Currencies.POUNDS(i % 2)));
+        }
+        serialized = output.serialize(states, context);
+        System.out.println();
+        System.out.println(serializer + " serializer, " + ious + " IOUs: " + serialized.getSize() + " bytes");
+    }
+
+    // A serializer factory with the serializers the node registers for IOUs, and optionally the [IOUStateSerializer].
+    // ノードがIOU用に登録するシリアライザーと、必要に応じて[IOUStateSerializer]を持つシリアライザーファクトリ。
+    private static SerializerFactory factory(boolean withProxy) {
+        SerializerFactory factory = SerializerFactoryBuilder.build(AllWhitelist.INSTANCE,
+                new ClassCarpenterImpl(AllWhitelist.INSTANCE, IOUState.class.getClassLoader()));
+        factory.register(PublicKeySerializer.INSTANCE);
+        factory.register(CurrencySerializer.INSTANCE);
+        factory.register(new InstantSerializer(factory));
+        factory.register(new DurationSerializer(factory));
+        if (withProxy) {
+            factory.registerExternal(new CorDappCustomSerializer(new IOUStateSerializer(), factory));
+        }
+        return factory;
+    }
+
+    @Benchmark
+    public SerializedBytes<ArrayList<IOUState>> serialize() throws Exception {
+        return output.serialize(states, context);
+    }
+
+    @Benchmark
+    public Object deserialize() throws Exception {
+        return input.deserialize(serialized, ArrayList.class, context);
+    }
+
+    @Benchmark
+    public Object roundTrip() throws Exception {
+        return input.deserialize(output.serialize(states, context), ArrayList.class, context);
+    }
+}
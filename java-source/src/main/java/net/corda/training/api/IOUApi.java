@@ -1,34 +1,69 @@
 package net.corda.training.api;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import net.corda.client.jackson.JacksonSupport;
 import net.corda.core.contracts.*;
 import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
 import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.messaging.FlowProgressHandle;
+import net.corda.core.flows.StateMachineRunId;
 import net.corda.core.node.NodeInfo;
+import net.corda.core.node.services.NetworkMapCache;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.*;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.internal.InternalUtils;
 import net.corda.core.internal.FetchDataFlow.Result;
 import net.corda.finance.contracts.asset.Cash;
 import net.corda.finance.flows.CashIssueFlow;
 
+import net.corda.training.flow.IOUBatchIssueFlow;
 import net.corda.training.flow.IOUIssueFlow;
 import net.corda.training.flow.IOUSettleFlow;
 import net.corda.training.flow.IOUTransferFlow;
 import net.corda.training.flow.SelfIssueCashFlow;
+import net.corda.training.plugin.CompactJsonModule;
+import net.corda.training.schema.IOUSchemaV1;
+import net.corda.training.service.CashBalances;
+import net.corda.training.service.IssuanceDeduplicationService;
 import net.corda.training.state.IOUState;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.security.PublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.OutboundEvent;
+import org.glassfish.jersey.media.sse.SseBroadcaster;
+import org.glassfish.jersey.media.sse.SseFeature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.Providers;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
-
-import static net.corda.finance.workflows.GetBalances.getCashBalances;
 
 /**
  * This API is accessible from /api/iou. The endpoint paths specified below are relative to it.
@@ -38,12 +73,54 @@ import static net.corda.finance.workflows.GetBalances.getCashBalances;
 public class IOUApi {
     private final CordaRPCOps rpcOps;
     private final CordaX500Name me;
+    private final Set<PublicKey> notaryKeys;
+    // The mapper for ?view=compact responses: Corda's default mapper with the [CompactJsonModule] serializers added.
+    private final ObjectMapper compactMapper;
+    // The names of the nodes listed by /peers, kept up to date from the network map feed.
+    private final Map<CordaX500Name, String> peers = new ConcurrentHashMap<>();
 
     private static final Logger logger = LoggerFactory.getLogger(IOUApi.class);
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_TRACKED_FLOWS = 10000;
+    private static final String NDJSON = "application/x-ndjson";
+    private static final String CSV = "text/csv";
+    // Limits for /issue-batch: IOUs per request, IOUs per transaction and flows running at once.
+    private static final int MAX_BATCH_ROWS = 100000;
+    private static final int BATCH_ISSUE_CHUNK = 500;
+    private static final int MAX_BATCH_WINDOW = 64;
+    private static final Duration BATCH_TIMEOUT = Duration.ofMinutes(5);
+    // Oldest first, with ties broken by state ref so that the pages of an export never overlap.
+    private static final Sort EXPORT_SORT = new Sort(Arrays.asList(
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME), Sort.Direction.ASC),
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_TXN_ID), Sort.Direction.ASC),
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_INDEX), Sort.Direction.ASC)));
+
+    // Shared by every /stream client, and only started once the first client connects.
+    private SseBroadcaster broadcaster;
+    // Seeded from a vault feed's snapshot on first use, then kept current from the same feed's cash updates.
+    private final CashBalances cashBalances = new CashBalances();
+    private boolean trackingCash = false;
+
+    // The most recent asynchronously started flows, oldest evicted first.
+    private final Map<StateMachineRunId, FlowStatus> flowStatuses = Collections.synchronizedMap(
+            new LinkedHashMap<StateMachineRunId, FlowStatus>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<StateMachineRunId, FlowStatus> eldest) {
+                    return size() > MAX_TRACKED_FLOWS;
+                }
+            });
 
     public IOUApi(CordaRPCOps rpcOps) {
         this.rpcOps = rpcOps;
+        this.compactMapper = JacksonSupport.createDefaultMapper(rpcOps).registerModule(new CompactJsonModule());
         this.me = rpcOps.nodeInfo().getLegalIdentities().get(0).getName();
+        this.notaryKeys = rpcOps.notaryIdentities().stream()
+                .map(Party::getOwningKey)
+                .collect(Collectors.toSet());
+
+        DataFeed<List<NodeInfo>, NetworkMapCache.MapChange> networkMapFeed = rpcOps.networkMapFeed();
+        networkMapFeed.getSnapshot().forEach(this::addPeer);
+        networkMapFeed.getUpdates().subscribe(this::applyMapChange, error -> logger.error("Network map feed failed.", error));
     }
 
     /** Helpers for filtering the network map cache. */
@@ -52,9 +129,7 @@ public class IOUApi {
     }
 
     private boolean isNotary(NodeInfo nodeInfo) {
-        return !rpcOps.notaryIdentities()
-                .stream().filter(el -> nodeInfo.isLegalIdentity(el))
-                .collect(Collectors.toList()).isEmpty();
+        return nodeInfo.getLegalIdentities().stream().anyMatch(el -> notaryKeys.contains(el.getOwningKey()));
     }
 
     private boolean isMe(NodeInfo nodeInfo){
@@ -65,6 +140,30 @@ public class IOUApi {
         return nodeInfo.getLegalIdentities().get(0).getName().getOrganisation().equals("Network Map Service");
     }
 
+    /** Helpers for keeping the peer cache in step with the network map. */
+    private void addPeer(NodeInfo nodeInfo) {
+        // Find all nodes that are not notaries, ourself, or the network map.
+        if (!isNotary(nodeInfo) && !isMe(nodeInfo) && !isNetworkMap(nodeInfo)) {
+            CordaX500Name name = nodeInfo.getLegalIdentities().get(0).getName();
+            peers.put(name, name.toString());
+        }
+    }
+
+    private void removePeer(NodeInfo nodeInfo) {
+        peers.remove(nodeInfo.getLegalIdentities().get(0).getName());
+    }
+
+    private void applyMapChange(NetworkMapCache.MapChange change) {
+        if (change instanceof NetworkMapCache.MapChange.Removed) {
+            removePeer(change.getNode());
+        } else if (change instanceof NetworkMapCache.MapChange.Modified) {
+            removePeer(((NetworkMapCache.MapChange.Modified) change).getPreviousNode());
+            addPeer(change.getNode());
+        } else {
+            addPeer(change.getNode());
+        }
+    }
+
     /**
      * Returns the node's name.
      */
@@ -80,36 +179,246 @@ public class IOUApi {
     /**
      * Returns all parties registered with the [NetworkMapService]. These names can be used to look up identities
      * using the [IdentityService].
+     * The list is served from memory: it is read from the network map once and then kept current from its updates.
      */
     @GET
     @Path("peers")
     @Produces(MediaType.APPLICATION_JSON)
     public HashMap<String, List<String>> getPeers() {
         HashMap<String, List<String>> myMap = new HashMap<>();
-
-        // Find all nodes that are not notaries, ourself, or the network map.
-        Stream<NodeInfo> filteredNodes = rpcOps.networkMapSnapshot().stream()
-                .filter(el -> !isNotary(el) && !isMe(el) && !isNetworkMap(el));
-        // Get their names as strings
-        List<String> nodeNames = filteredNodes.map(el -> el.getLegalIdentities().get(0).getName().toString())
-                .collect(Collectors.toList());
-
-        myMap.put("peers", nodeNames);
+        myMap.put("peers", new ArrayList<>(peers.values()));
         return myMap;
     }
 
     /**
      * Task 1
-     * Displays all IOU states that exist in the node's vault.
-     * TODO: Return a list of IOUStates on ledger
-     * Hint - Use [rpcOps] to query the vault all unconsumed [IOUState]s
+     * Displays one page of the IOU states that exist in the node's vault.
+     * The IOUs can be filtered on [lender], [borrower] and [currency], which are indexed columns of [IOUSchemaV1], and on
+     * their vault [status] (unconsumed, consumed or all). [sort] takes a column name, optionally followed by ",desc".
+     * With view=compact each state is written as its ref and IOU data only, with parties as X.500 names and amounts as
+     * strings (see [CompactJsonModule]).
+     * Example request:
+     * curl 'http://localhost:10009/api/iou/ious?page=2&pageSize=50&currency=GBP&sort=outstanding,desc&view=compact'
      */
     @GET
     @Path("ious")
     @Produces(MediaType.APPLICATION_JSON)
-    public List<StateAndRef<IOUState>> getIOUs() {
-        // Filter by state type: IOU.
-        return rpcOps.vaultQuery(IOUState.class).getStates();
+    public Response getIOUs(@DefaultValue("1") @QueryParam(value = "page") int page,
+                            @DefaultValue("200") @QueryParam(value = "pageSize") int pageSize,
+                            @QueryParam(value = "sort") String sort,
+                            @QueryParam(value = "lender") String lender,
+                            @QueryParam(value = "borrower") String borrower,
+                            @QueryParam(value = "currency") String currency,
+                            @DefaultValue("unconsumed") @QueryParam(value = "status") String status,
+                            @QueryParam(value = "view") String view) {
+        if (page < 1 || pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            return Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .entity("page must be at least 1 and pageSize between 1 and " + MAX_PAGE_SIZE + ".")
+                    .build();
+        }
+        try {
+            boolean compact = isCompactView(view);
+            QueryCriteria criteria = iouCriteria(lender, borrower, currency, status);
+            Vault.Page<IOUState> results = rpcOps.vaultQueryBy(criteria, new PageSpecification(page, pageSize), iouSort(sort), IOUState.class);
+
+            Map<String, Object> myMap = new LinkedHashMap<>();
+            myMap.put("states", results.getStates());
+            myMap.put("totalStatesAvailable", results.getTotalStatesAvailable());
+            myMap.put("page", page);
+            myMap.put("pageSize", pageSize);
+            if (compact) {
+                ObjectMapper mapper = compactMapper;
+                return Response.ok((StreamingOutput) output -> mapper.writeValue(output, myMap), MediaType.APPLICATION_JSON_TYPE).build();
+            }
+            return Response.ok(myMap).build();
+        } catch (IllegalArgumentException e) {
+            return Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .entity(e.getMessage())
+                    .build();
+        }
+    }
+
+    /** Helpers for building IOU vault queries against [IOUSchemaV1]. */
+    private static QueryCriteria iouCriteria(String lender, String borrower, String currency, String status) {
+        Vault.StateStatus stateStatus = Vault.StateStatus.valueOf(status.toUpperCase());
+        QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(stateStatus);
+        if (lender != null) {
+            criteria = criteria.and(iouColumnEquals("lender", CordaX500Name.parse(lender).toString(), stateStatus));
+        }
+        if (borrower != null) {
+            criteria = criteria.and(iouColumnEquals("borrower", CordaX500Name.parse(borrower).toString(), stateStatus));
+        }
+        if (currency != null) {
+            criteria = criteria.and(iouColumnEquals("currency", Currency.getInstance(currency).getCurrencyCode(), stateStatus));
+        }
+        return criteria;
+    }
+
+    private static QueryCriteria iouColumnEquals(String column, String value, Vault.StateStatus stateStatus) {
+        return new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(iouColumn(column), value), stateStatus);
+    }
+
+    private static Field iouColumn(String column) {
+        try {
+            return IOUSchemaV1.PersistentIOU.class.getDeclaredField(column);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalArgumentException("Unknown IOU column " + column + ".");
+        }
+    }
+
+    /** Helpers for the opt-in compact view. */
+    private static boolean isCompactView(String view) {
+        if (view == null || view.equals("full")) {
+            return false;
+        } else if (view.equals("compact")) {
+            return true;
+        }
+        throw new IllegalArgumentException("view must be full or compact.");
+    }
+
+    private static Sort iouSort(String sort) {
+        if (sort == null) {
+            return new Sort(Collections.emptySet());
+        }
+        String[] parts = sort.split(",");
+        Sort.Direction direction = parts.length > 1 && parts[1].equalsIgnoreCase("desc") ? Sort.Direction.DESC : Sort.Direction.ASC;
+        // Check the column exists before handing it to the vault.
+        iouColumn(parts[0]);
+        SortAttribute attribute = new SortAttribute.Custom(IOUSchemaV1.PersistentIOU.class, parts[0]);
+        return new Sort(Collections.singleton(new Sort.SortColumn(attribute, direction)));
+    }
+
+    /**
+     * Streams every IOU state matching the filters as newline-delimited JSON, one state per line with its vault
+     * metadata, for bulk exports such as reconciliations.
+     * The vault is read a page at a time and each page is written out before the next is fetched, so memory use stays
+     * bounded however large the vault is. The filters are those of [getIOUs], plus [since], an ISO-8601 instant that
+     * limits the export to states recorded or consumed at or after it, for incremental exports, and view=compact.
+     * The states are ordered by recorded time, then state ref, and each page is fetched from after the last state
+     * written rather than by page number, so states consumed or recorded during the export never shift a page: a state
+     * is neither skipped nor written twice.
+     * If the vault cannot be read at all, the request fails with 503. If it fails part way through, a last line of the
+     * form {"error": "..."} is written, so a client can tell a cut-short export from a complete one.
+     * Example request:
+     * curl 'http://localhost:10009/api/iou/export?status=all&since=2019-06-01T00:00:00Z'
+     */
+    @GET
+    @Path("export")
+    @Produces(NDJSON)
+    public Response exportIOUs(@QueryParam(value = "lender") String lender,
+                               @QueryParam(value = "borrower") String borrower,
+                               @QueryParam(value = "currency") String currency,
+                               @DefaultValue("unconsumed") @QueryParam(value = "status") String status,
+                               @QueryParam(value = "since") String since,
+                               @QueryParam(value = "view") String view,
+                               @Context Providers providers) {
+        QueryCriteria criteria;
+        boolean compact;
+        try {
+            compact = isCompactView(view);
+            criteria = iouCriteria(lender, borrower, currency, status);
+            if (since != null) {
+                Instant sinceInstant = Instant.parse(since);
+                criteria = criteria.and(timeCriteria(status, QueryCriteria.TimeInstantType.RECORDED, sinceInstant)
+                        .or(timeCriteria(status, QueryCriteria.TimeInstantType.CONSUMED, sinceInstant)));
+            }
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .entity(e.getMessage())
+                    .build();
+        }
+        ObjectMapper mapper = compact ? compactMapper : objectMapper(providers);
+        QueryCriteria exportCriteria = criteria;
+
+        // Read the first page before answering, so that a vault that cannot be read fails the request outright.
+        Vault.Page<IOUState> firstPage;
+        try {
+            firstPage = rpcOps.vaultQueryBy(exportCriteria, new PageSpecification(1, MAX_PAGE_SIZE), EXPORT_SORT, IOUState.class);
+        } catch (RuntimeException e) {
+            logger.warn("Could not start the IOU export.", e);
+            return Response
+                    .status(Response.Status.SERVICE_UNAVAILABLE)
+                    .entity("Could not read the vault: " + e.getMessage())
+                    .build();
+        }
+
+        StreamingOutput export = output -> {
+            OutputStream out = new BufferedOutputStream(output);
+            Vault.Page<IOUState> results = firstPage;
+            // The last state written, and the recorded time the current page was fetched from.
+            Instant lastTime = null;
+            StateRef lastRef = null;
+            Instant pageFrom = null;
+            int page = 1;
+            try {
+                while (true) {
+                    for (int i = 0; i < results.getStates().size(); i++) {
+                        StateAndRef<IOUState> stateAndRef = results.getStates().get(i);
+                        Vault.StateMetadata metadata = results.getStatesMetadata().get(i);
+                        if (lastTime != null && !isAfter(metadata.getRecordedTime(), stateAndRef.getRef(), lastTime, lastRef)) {
+                            continue;
+                        }
+                        Map<String, Object> line = new LinkedHashMap<>();
+                        line.put("ref", stateAndRef.getRef().toString());
+                        line.put("status", metadata.getStatus().name());
+                        line.put("recordedTime", metadata.getRecordedTime().toString());
+                        line.put("consumedTime", metadata.getConsumedTime() == null ? null : metadata.getConsumedTime().toString());
+                        line.put("state", stateAndRef.getState().getData());
+                        out.write(mapper.writeValueAsBytes(line));
+                        out.write('\n');
+                        lastTime = metadata.getRecordedTime();
+                        lastRef = stateAndRef.getRef();
+                    }
+                    out.flush();
+                    if (results.getStates().size() < MAX_PAGE_SIZE) {
+                        break;
+                    }
+                    // Fetch from the recorded time of the last state written. Only when a whole page shares that time
+                    // is the next page of it needed, as the states before the last one written are skipped anyway.
+                    if (lastTime.equals(pageFrom)) {
+                        page++;
+                    } else {
+                        pageFrom = lastTime;
+                        page = 1;
+                    }
+                    QueryCriteria fromLast = exportCriteria.and(timeCriteria(status, QueryCriteria.TimeInstantType.RECORDED, pageFrom));
+                    results = rpcOps.vaultQueryBy(fromLast, new PageSpecification(page, MAX_PAGE_SIZE), EXPORT_SORT, IOUState.class);
+                }
+            } catch (RuntimeException e) {
+                logger.warn("The IOU export was cut short.", e);
+                out.write(mapper.writeValueAsBytes(Collections.singletonMap("error", "The export was cut short: " + e.getMessage())));
+                out.write('\n');
+                out.flush();
+            }
+        };
+        return Response.ok(export).build();
+    }
+
+    /** Selects the states with [status] whose [type] time is at or after [from]. */
+    private static QueryCriteria timeCriteria(String status, QueryCriteria.TimeInstantType type, Instant from) {
+        ColumnPredicate<Instant> atOrAfter = new ColumnPredicate.BinaryComparison<>(BinaryComparisonOperator.GREATER_THAN_OR_EQUAL, from);
+        return new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.valueOf(status.toUpperCase()),
+                null, null, null, null, new QueryCriteria.TimeCondition(type, atOrAfter));
+    }
+
+    /** Whether a state comes after the last one exported, in the [EXPORT_SORT] order. */
+    private static boolean isAfter(Instant recordedTime, StateRef ref, Instant lastTime, StateRef lastRef) {
+        int byTime = recordedTime.compareTo(lastTime);
+        if (byTime != 0) {
+            return byTime > 0;
+        }
+        int byTx = ref.getTxhash().toString().compareTo(lastRef.getTxhash().toString());
+        return byTx != 0 ? byTx > 0 : ref.getIndex() > lastRef.getIndex();
+    }
+
+    /** The webserver's JSON mapper, so that exported states look the same as in the other endpoints. */
+    private ObjectMapper objectMapper(Providers providers) {
+        ContextResolver<ObjectMapper> resolver = providers == null ? null : providers.getContextResolver(ObjectMapper.class, MediaType.APPLICATION_JSON_TYPE);
+        ObjectMapper mapper = resolver == null ? null : resolver.getContext(ObjectMapper.class);
+        return mapper != null ? mapper : JacksonSupport.createDefaultMapper(rpcOps);
     }
 
     /**
@@ -131,30 +440,145 @@ public class IOUApi {
     @Produces(MediaType.APPLICATION_JSON)
     // Display cash balances.
     public Map<Currency,Amount<Currency>> cashBalances(){
-        return getCashBalances(rpcOps);
+        return trackCashBalances().snapshot();
+    }
+
+    /**
+     * Starts tracking the node's cash the first time the balances are needed, seeding the balances from the feed's own
+     * snapshot so that no update is missed or counted twice. If the feed fails, the next request starts a new one.
+     */
+    private synchronized CashBalances trackCashBalances() {
+        if (!trackingCash) {
+            DataFeed<Vault.Page<Cash.State>, Vault.Update<Cash.State>> cashFeed = rpcOps.vaultTrackBy(
+                    new QueryCriteria.VaultQueryCriteria(), new PageSpecification(QueryCriteriaUtils.DEFAULT_PAGE_NUM, QueryCriteriaUtils.MAX_PAGE_SIZE - 1),
+                    new Sort(Collections.emptySet()), Cash.State.class);
+            cashBalances.seed(cashFeed.getSnapshot().getStates());
+            cashFeed.getUpdates().subscribe(update -> {
+                cashBalances.apply(update);
+                broadcastCashBalances();
+            }, this::stopTrackingCashBalances);
+            trackingCash = true;
+        }
+        return cashBalances;
+    }
+
+    private synchronized void stopTrackingCashBalances(Throwable error) {
+        logger.error("Cash vault feed failed, the cash balances will be seeded again.", error);
+        trackingCash = false;
+    }
+
+    /**
+     * Streams changes to the node's IOUs and cash balances as Server-Sent Events, so that clients can apply deltas
+     * instead of reloading the whole vault.
+     * - "iou" events carry the IOU states produced and the linear ids of the IOU states consumed by a transaction.
+     * - "cash-balances" events carry the node's cash balances after a change to its cash.
+     * A single pair of vault tracking subscriptions is shared by all clients. If the IOU feed fails, every client's stream
+     * is closed with an "error" event, and the next client to connect starts a new subscription.
+     * Clients should open the stream before loading the IOUs, as only the changes made after it opens are sent.
+     */
+    @GET
+    @Path("stream")
+    @Produces(SseFeature.SERVER_SENT_EVENTS)
+    public EventOutput stream() {
+        EventOutput eventOutput = new EventOutput();
+        startStreaming().add(eventOutput);
+        return eventOutput;
+    }
+
+    private synchronized SseBroadcaster startStreaming() {
+        if (broadcaster == null) {
+            broadcaster = new SseBroadcaster();
+
+            // Only the updates are needed, so the snapshot is limited to a single state.
+            DataFeed<Vault.Page<IOUState>, Vault.Update<IOUState>> iouFeed = rpcOps.vaultTrackBy(
+                    new QueryCriteria.VaultQueryCriteria(), new PageSpecification(1, 1), new Sort(Collections.emptySet()), IOUState.class);
+            iouFeed.getUpdates().subscribe(update -> broadcast("iou", iouDelta(update)), this::stopStreaming);
+
+            trackCashBalances();
+        }
+        return broadcaster;
+    }
+
+    private synchronized void stopStreaming(Throwable error) {
+        logger.error("IOU vault feed failed, closing the event streams.", error);
+        if (broadcaster != null) {
+            broadcast("error", Collections.singletonMap("message", "The node's IOU feed failed: " + error.getMessage()));
+            broadcaster.closeAll();
+            broadcaster = null;
+        }
+    }
+
+    private synchronized void broadcastCashBalances() {
+        if (broadcaster != null) {
+            broadcast("cash-balances", cashBalances.snapshot());
+        }
+    }
+
+    private void broadcast(String name, Map<?, ?> data) {
+        broadcaster.broadcast(new OutboundEvent.Builder()
+                .name(name)
+                .mediaType(MediaType.APPLICATION_JSON_TYPE)
+                .data(Map.class, data)
+                .build());
+    }
+
+    private static Map<String, Object> iouDelta(Vault.Update<IOUState> update) {
+        Map<String, Object> delta = new HashMap<>();
+        delta.put("produced", update.getProduced().stream()
+                .map(stateAndRef -> stateAndRef.getState().getData())
+                .collect(Collectors.toList()));
+        delta.put("consumed", update.getConsumed().stream()
+                .map(stateAndRef -> stateAndRef.getState().getData().getLinearId().getId().toString())
+                .collect(Collectors.toList()));
+        return delta;
     }
 
     /**
      * Initiates a flow to agree an IOU between two parties.
+     * By default the request blocks until the transaction is committed. With async=true it returns 202 Accepted as soon
+     * as the flow has started, with the flow id and a status URL that can be polled (see [flowStatus]).
+     * An optional externalId makes the request safe to retry: it becomes the IOU's external id, prefixed with our X.500
+     * name and a colon so that it can't collide with the counterparty's, and a repeated request with the same
+     * externalId returns 200 OK with the transaction that first issued the IOU instead of issuing another.
+     * An optional dueDate (an ISO-8601 instant) makes our node settle the IOU automatically when it falls due, in full
+     * or, with an instalment in major units, one instalment every instalmentDays days.
      * Example request:
-     * curl -X PUT 'http://localhost:10007/api/iou/issue-iou?amount=99&currency=GBP&party=O=ParticipantC,L=New%20York,C=US
+     * curl -X PUT 'http://localhost:10007/api/iou/issue-iou?amount=99&currency=GBP&party=O=ParticipantC,L=New%20York,C=US&externalId=invoice-42
+     * curl -X PUT 'http://localhost:10007/api/iou/issue-iou?amount=99&currency=GBP&party=O=ParticipantC,L=New%20York,C=US&dueDate=2027-01-01T00:00:00Z&instalment=33&instalmentDays=30
      */
     @PUT
     @Path("issue-iou")
     public Response issueIOU(@QueryParam(value = "amount") int amount,
                              @QueryParam(value = "currency") String currency,
-                             @QueryParam(value = "party") String party) throws IllegalArgumentException {
+                             @QueryParam(value = "party") String party,
+                             @QueryParam(value = "externalId") String externalId,
+                             @QueryParam(value = "dueDate") String dueDate,
+                             @QueryParam(value = "instalment") Integer instalment,
+                             @QueryParam(value = "instalmentDays") Integer instalmentDays,
+                             @QueryParam(value = "async") boolean async) throws IllegalArgumentException {
         // Get party objects for myself and the counterparty.
         Party me = rpcOps.nodeInfo().getLegalIdentities().get(0);
         Party lender = Optional.ofNullable(rpcOps.wellKnownPartyFromX500Name(CordaX500Name.parse(party))).orElseThrow(() -> new IllegalArgumentException("Unknown party name."));
         // Create a new IOU state using the parameters given.
         try {
-            IOUState state = new IOUState(new Amount<>((long) amount * 100, Currency.getInstance(currency)), lender, me);
-            // Start the IOUIssueFlow. We block and waits for the flow to return.
-            SignedTransaction result = rpcOps.startTrackedFlowDynamic(IOUIssueFlow.InitiatorFlow.class, state).getReturnValue().get();
+            IOUState state = new IOUState(new Amount<>((long) amount * 100, Currency.getInstance(currency)), lender, me, externalId);
+            if (dueDate != null) {
+                state = state.withSchedule(Instant.parse(dueDate),
+                        instalment == null ? null : new Amount<>((long) instalment * 100, Currency.getInstance(currency)),
+                        instalmentDays == null ? null : Duration.ofDays(instalmentDays));
+            }
+            // Start the IOUIssueFlow.
+            FlowProgressHandle<SignedTransaction> handle = rpcOps.startTrackedFlowDynamic(IOUIssueFlow.InitiatorFlow.class, state);
+            if (async) {
+                return accepted(handle);
+            }
+            // We block and waits for the flow to return.
+            SignedTransaction result = handle.getReturnValue().get();
+            // A replay returns the IOU that was issued first, which has a different linearId from the one we built.
+            boolean replayed = !result.getTx().outputsOfType(IOUState.class).get(0).getLinearId().equals(state.getLinearId());
             // Return the response.
             return Response
-                    .status(Response.Status.CREATED)
+                    .status(replayed ? Response.Status.OK : Response.Status.CREATED)
                     .entity(String.format("Transaction id %h committed to ledger.\n%h", result.getId(), result.getTx().getOutputs().get(0)))
                     .build();
             // For the purposes of this demo app, we do not differentiate by exception type.
@@ -166,33 +590,369 @@ public class IOUApi {
         }
     }
 
+    /**
+     * Issues a batch of IOUs owed by us in as few transactions as possible.
+     * The body is either a JSON array of {"amount": ..., "currency": ..., "party": ...} objects, or CSV with an
+     * amount,currency,party header line, where amount is in major units (e.g. 10.50) and party is the lender's X.500
+     * name (quoted in CSV, as it contains commas).
+     * An optional externalId field or column makes a row safe to retry, as in [issueIOU]: a row whose externalId we
+     * already issued is reported as ISSUED with the original IOU and transaction, and replayed set to true.
+     * Each distinct party is resolved once, and the rows are grouped by party into [IOUBatchIssueFlow] transactions of
+     * up to [BATCH_ISSUE_CHUNK] IOUs, with at most [window] flows running at once. The response reports every row as
+     * ISSUED with its linear id and transaction id, INVALID if it could not be read, or FAILED if its transaction failed.
+     * The request waits at most [BATCH_TIMEOUT] for the flows. Rows whose transaction had not finished by then are
+     * reported as FAILED, but a flow that had already started may still issue them, so check the vault before retrying.
+     * Example request:
+     * curl -X POST -H 'Content-Type: text/csv' --data-binary @ious.csv 'http://localhost:10007/api/iou/issue-batch?window=8'
+     */
+    @POST
+    @Path("issue-batch")
+    @Consumes({MediaType.APPLICATION_JSON, CSV})
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response issueBatch(String body,
+                               @HeaderParam("Content-Type") String contentType,
+                               @DefaultValue("8") @QueryParam(value = "window") int window,
+                               @Context Providers providers) {
+        List<Map<String, String>> rows;
+        try {
+            if (window < 1 || window > MAX_BATCH_WINDOW) {
+                throw new IllegalArgumentException("window must be between 1 and " + MAX_BATCH_WINDOW + ".");
+            }
+            rows = contentType != null && contentType.startsWith(CSV) ? csvRows(body) : jsonRows(body, objectMapper(providers));
+            if (rows.size() > MAX_BATCH_ROWS) {
+                throw new IllegalArgumentException("A batch can hold at most " + MAX_BATCH_ROWS + " IOUs.");
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        }
+
+        // Build an IOU for every valid row, resolving ourselves and each counterparty only once.
+        Party me = rpcOps.nodeInfo().getLegalIdentities().get(0);
+        Map<CordaX500Name, Party> parties = new HashMap<>();
+        List<IOUState> states = new ArrayList<>(Collections.nCopies(rows.size(), null));
+        List<Map<String, String>> results = new ArrayList<>(rows.size());
+        Map<Party, List<Integer>> rowsByLender = new LinkedHashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            Map<String, String> result = new LinkedHashMap<>();
+            result.put("row", String.valueOf(i + 1));
+            results.add(result);
+            try {
+                IOUState state = batchIOU(rows.get(i), me, parties);
+                states.set(i, state);
+                rowsByLender.computeIfAbsent(state.lender, lender -> new ArrayList<>()).add(i);
+            } catch (IllegalArgumentException e) {
+                result.put("status", "INVALID");
+                result.put("error", e.getMessage());
+            }
+        }
+
+        // A batch transaction has a single lender, so each lender's rows are issued in chunks of their own. The flows
+        // report back on RPC threads, so the results are only touched while holding their lock, and not at all once
+        // the response has been put together.
+        Semaphore inFlight = new Semaphore(window);
+        long deadline = System.nanoTime() + BATCH_TIMEOUT.toNanos();
+        AtomicBoolean answered = new AtomicBoolean(false);
+        try {
+            issuing:
+            for (List<Integer> lenderRows: rowsByLender.values()) {
+                for (int from = 0; from < lenderRows.size(); from += BATCH_ISSUE_CHUNK) {
+                    List<Integer> chunk = lenderRows.subList(from, Math.min(from + BATCH_ISSUE_CHUNK, lenderRows.size()));
+                    List<IOUState> chunkStates = chunk.stream().map(states::get).collect(Collectors.toList());
+                    if (!inFlight.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                        break issuing;
+                    }
+                    try {
+                        rpcOps.startFlowDynamic(IOUBatchIssueFlow.InitiatorFlow.class, chunkStates).getReturnValue().then(future -> {
+                            try {
+                                List<SignedTransaction> issuances = future.get();
+                                synchronized (results) {
+                                    if (!answered.get()) {
+                                        for (int i = 0; i < chunk.size(); i++) {
+                                            int row = chunk.get(i);
+                                            // A replayed row was issued earlier, under another linear id.
+                                            UniqueIdentifier linearId = issuedLinearId(issuances.get(i), states.get(row), me);
+                                            results.get(row).put("status", "ISSUED");
+                                            results.get(row).put("linearId", linearId.toString());
+                                            results.get(row).put("transactionId", issuances.get(i).getId().toString());
+                                            if (!linearId.equals(states.get(row).getLinearId())) {
+                                                results.get(row).put("replayed", "true");
+                                            }
+                                        }
+                                    }
+                                }
+                            } catch (Exception e) {
+                                batchFailed(results, chunk, e.getCause() != null ? e.getCause() : e, answered);
+                            } finally {
+                                inFlight.release();
+                            }
+                            return null;
+                        });
+                    } catch (RuntimeException e) {
+                        batchFailed(results, chunk, e, answered);
+                        inFlight.release();
+                    }
+                }
+            }
+            // Every flow releases its permit once it has finished, so holding them all means the batch is done.
+            inFlight.tryAcquire(window, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (results) {
+            answered.set(true);
+            for (Map<String, String> result: results) {
+                if (!result.containsKey("status")) {
+                    result.put("status", "FAILED");
+                    result.put("error", "The batch timed out before this row was issued. It may still be issued, so check the vault before retrying it.");
+                }
+            }
+        }
+
+        Map<String, Long> counts = results.stream().collect(Collectors.groupingBy(result -> result.get("status"), Collectors.counting()));
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("issued", counts.getOrDefault("ISSUED", 0L));
+        response.put("invalid", counts.getOrDefault("INVALID", 0L));
+        response.put("failed", counts.getOrDefault("FAILED", 0L));
+        response.put("results", results);
+        return Response.ok(response).build();
+    }
+
+    /** Turns a row of a batch into an IOU owed by [me], remembering in [parties] how each name resolved, even to nobody. */
+    private IOUState batchIOU(Map<String, String> row, Party me, Map<CordaX500Name, Party> parties) {
+        CordaX500Name name = CordaX500Name.parse(batchField(row, "party"));
+        if (!parties.containsKey(name)) {
+            parties.put(name, rpcOps.wellKnownPartyFromX500Name(name));
+        }
+        Party lender = parties.get(name);
+        if (lender == null) {
+            throw new IllegalArgumentException("Unknown party name.");
+        }
+        if (lender.equals(me)) {
+            throw new IllegalArgumentException("The lender and borrower cannot be the same.");
+        }
+        Currency currency = Currency.getInstance(batchField(row, "currency"));
+        BigDecimal quantity = new BigDecimal(batchField(row, "amount"));
+        if (quantity.signum() <= 0 || quantity.scale() > currency.getDefaultFractionDigits()) {
+            throw new IllegalArgumentException("amount must be positive, with at most " + currency.getDefaultFractionDigits() + " decimal places.");
+        }
+        String externalId = row.containsKey("externalId") ? row.get("externalId") : row.get("externalid");
+        if (externalId == null || externalId.trim().isEmpty()) {
+            return new IOUState(Amount.fromDecimal(quantity, currency), lender, me);
+        }
+        return new IOUState(Amount.fromDecimal(quantity, currency), lender, me, externalId.trim());
+    }
+
+    /** Returns the linear id of the IOU [issuance] issued for [state], which [me] issued under its external id if it has one. */
+    private static UniqueIdentifier issuedLinearId(SignedTransaction issuance, IOUState state, Party me) {
+        String key = state.getLinearId().getExternalId();
+        if (key == null) {
+            return state.getLinearId();
+        }
+        String externalId = IssuanceDeduplicationService.scopedExternalId(me, key);
+        return issuance.getTx().outputsOfType(IOUState.class).stream()
+                .map(IOUState::getLinearId)
+                .filter(linearId -> externalId.equals(linearId.getExternalId()))
+                .findFirst().orElse(state.getLinearId());
+    }
+
+    private static String batchField(Map<String, String> row, String name) {
+        String value = row.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException(name + " is missing.");
+        }
+        return value.trim();
+    }
+
+    private static void batchFailed(List<Map<String, String>> results, List<Integer> chunk, Throwable error, AtomicBoolean answered) {
+        synchronized (results) {
+            if (!answered.get()) {
+                for (int row: chunk) {
+                    results.get(row).put("status", "FAILED");
+                    results.get(row).put("error", error.getMessage());
+                }
+            }
+        }
+    }
+
+    private static List<Map<String, String>> jsonRows(String body, ObjectMapper mapper) throws IOException {
+        List<Map<String, Object>> values = mapper.readValue(body, new TypeReference<List<Map<String, Object>>>() {});
+        if (values == null) {
+            throw new IllegalArgumentException("The body must be a JSON array of IOUs.");
+        }
+        List<Map<String, String>> rows = new ArrayList<>(values.size());
+        for (Map<String, Object> value: values) {
+            Map<String, String> row = new HashMap<>();
+            if (value != null) {
+                value.forEach((key, field) -> row.put(key, field == null ? null : field.toString()));
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Reads CSV with a header line, following RFC 4180: fields may be double-quoted, and a quoted field may hold commas,
+     * line breaks and "" for a quote. Blank lines are skipped.
+     */
+    private static List<Map<String, String>> csvRows(String body) throws IOException {
+        CsvSchema schema = CsvSchema.emptySchema().withHeader();
+        List<Map<String, String>> rows = new ArrayList<>();
+        try (MappingIterator<Map<String, String>> lines = new CsvMapper().readerFor(Map.class).with(schema).readValues(body)) {
+            while (lines.hasNextValue()) {
+                Map<String, String> row = new HashMap<>();
+                lines.nextValue().forEach((name, field) -> row.put(name.trim().toLowerCase(Locale.ROOT), field));
+                if (row.values().stream().anyMatch(field -> field != null && !field.trim().isEmpty())) {
+                    rows.add(row);
+                }
+            }
+        }
+        return rows;
+    }
+
     /**
      * Transfers an IOU specified by [linearId] to a new party.
+     * Supports async=true in the same way as [issueIOU].
      */
     @GET
     @Path("transfer-iou")
     public Response transferIOU(@QueryParam(value = "id") String id,
-                                @QueryParam(value = "party") String party) {
-        return Response
-                .status(Response.Status.NOT_IMPLEMENTED)
-                .entity("Not implemented")
-                .build();
+                                @QueryParam(value = "party") String party,
+                                @QueryParam(value = "async") boolean async) {
+        try {
+            UniqueIdentifier linearId = UniqueIdentifier.Companion.fromString(id);
+            Party newLender = Optional.ofNullable(rpcOps.wellKnownPartyFromX500Name(CordaX500Name.parse(party))).orElseThrow(() -> new IllegalArgumentException("Unknown party name."));
+            FlowProgressHandle<SignedTransaction> handle = rpcOps.startTrackedFlowDynamic(IOUTransferFlow.InitiatorFlow.class, linearId, newLender);
+            if (async) {
+                return accepted(handle);
+            }
+            SignedTransaction result = handle.getReturnValue().get();
+            return Response
+                    .status(Response.Status.OK)
+                    .entity(String.format("IOU %s transferred to %s in transaction %s.", id, party, result.getId()))
+                    .build();
+        } catch (Exception e) {
+            return Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .entity(e.getMessage())
+                    .build();
+        }
     }
 
     /**
      * Settles an IOU. Requires cash in the right currency to be able to settle.
+     * Supports async=true in the same way as [issueIOU].
      */
     @GET
     @Path("settle-iou")
     public Response settleIOU(@QueryParam(value = "id") String id,
                               @QueryParam(value = "amount") int amount,
-                              @QueryParam(value = "currency") String currency) {
+                              @QueryParam(value = "currency") String currency,
+                              @QueryParam(value = "async") boolean async) {
+        try {
+            UniqueIdentifier linearId = UniqueIdentifier.Companion.fromString(id);
+            Amount<Currency> settleAmount = new Amount<>((long) amount * 100, Currency.getInstance(currency));
+            FlowProgressHandle<SignedTransaction> handle = rpcOps.startTrackedFlowDynamic(IOUSettleFlow.InitiatorFlow.class, linearId, settleAmount);
+            if (async) {
+                return accepted(handle);
+            }
+            SignedTransaction result = handle.getReturnValue().get();
+            return Response
+                    .status(Response.Status.OK)
+                    .entity(String.format("%d %s paid off on IOU id %s in transaction %s.", amount, currency, id, result.getId()))
+                    .build();
+        } catch (Exception e) {
+            return Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .entity(e.getMessage())
+                    .build();
+        }
+    }
+
+    /**
+     * Returns the status of a flow started with async=true: RUNNING, COMPLETED or FAILED, the latest step reported by
+     * the flow's progress tracker, and the transaction id or error once the flow has finished. A flow whose progress
+     * could no longer be followed is reported as FAILED, with the reason as its error.
+     */
+    @GET
+    @Path("flows/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response flowStatus(@PathParam("id") String id) {
+        FlowStatus status;
+        try {
+            status = flowStatuses.get(new StateMachineRunId(UUID.fromString(id)));
+        } catch (IllegalArgumentException e) {
+            status = null;
+        }
+        if (status == null) {
+            return Response
+                    .status(Response.Status.NOT_FOUND)
+                    .entity("Unknown flow id " + id + ".")
+                    .build();
+        }
+        return Response.ok(status.toMap()).build();
+    }
+
+    /** Records the progress of an asynchronously started flow, and returns 202 Accepted pointing at its status. */
+    private Response accepted(FlowProgressHandle<SignedTransaction> handle) {
+        StateMachineRunId runId = handle.getId();
+        FlowStatus status = new FlowStatus(runId);
+        flowStatuses.put(runId, status);
+        // If the progress feed fails, for example because the RPC connection dropped, the return value may never arrive,
+        // so the flow is reported as failed rather than left RUNNING for ever.
+        handle.getProgress().subscribe(step -> status.progress = step, error -> {
+            logger.warn("Lost the progress of flow " + runId.getUuid() + ".", error);
+            if (status.state.equals("RUNNING")) {
+                status.error = "Lost track of the flow: " + error.getMessage();
+                status.state = "FAILED";
+            }
+            handle.close();
+        });
+        handle.getReturnValue().then(future -> {
+            try {
+                status.transactionId = future.get().getId().toString();
+                status.error = null;
+                status.state = "COMPLETED";
+            } catch (Exception e) {
+                status.error = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+                status.state = "FAILED";
+            }
+            handle.close();
+            return null;
+        });
+
+        Map<String, String> myMap = new LinkedHashMap<>();
+        myMap.put("flowId", runId.getUuid().toString());
+        myMap.put("status", "flows/" + runId.getUuid());
         return Response
-                .status(Response.Status.NOT_IMPLEMENTED)
-                .entity("Not implemented")
+                .status(Response.Status.ACCEPTED)
+                .header("Location", "flows/" + runId.getUuid())
+                .entity(myMap)
                 .build();
     }
 
+    /** The last known status of an asynchronously started flow. */
+    private static class FlowStatus {
+        private final StateMachineRunId runId;
+        private volatile String state = "RUNNING";
+        private volatile String progress;
+        private volatile String transactionId;
+        private volatile String error;
+
+        private FlowStatus(StateMachineRunId runId) {
+            this.runId = runId;
+        }
+
+        private Map<String, String> toMap() {
+            Map<String, String> myMap = new LinkedHashMap<>();
+            myMap.put("flowId", runId.getUuid().toString());
+            myMap.put("status", state);
+            myMap.put("progress", progress);
+            myMap.put("transactionId", transactionId);
+            myMap.put("error", error);
+            return myMap;
+        }
+    }
+
     /**
      * Helper end-point to issue some cash to ourselves.
      */
@@ -0,0 +1,147 @@
+package net.corda.training.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.Issued;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.CryptoUtils;
+import net.corda.core.flows.*;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.*;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.NonEmptySet;
+import net.corda.finance.contracts.asset.Cash;
+import net.corda.finance.schemas.CashSchemaV1;
+
+import java.lang.reflect.Field;
+import java.security.PublicKey;
+import java.util.*;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+
+/**
+ * Merges the node's cash of one currency and issuer into a small number of larger states.
+ * ノードの1つの通貨と発行者の現金を、少数のより大きな状態に統合します。
+ * Many small cash states make every later spend, such as an IOU settlement, carry dozens of inputs. The flow looks at
+ * up to [MAX_INPUTS] of the smallest unlocked states at each notary, and if there are more than [threshold] of them,
+ * spends them to ourselves as [targetStates] states in a transaction with no counterparty.
+ * 多数の小さな現金状態は、IOU決済などの後続の支出に数十の入力を持たせます。このフローは、各公証人で最も小さい
+ * ロックされていない状態を最大[MAX_INPUTS]個調べ、[threshold]個を超える場合は、取引相手のないトランザクションで
+ * [targetStates]個の状態として自分自身に支払います。
+ * The flow returns the consolidation transactions, one per notary, which is empty if no consolidation was needed.
+ * フローは公証人ごとに1つの統合トランザクションを返します。統合が不要な場合は空です。
+ */
+@StartableByRPC
+@StartableByService
+public class CashConsolidationFlow extends FlowLogic<List<SignedTransaction>> {
+
+    public static final int DEFAULT_THRESHOLD = 10;
+    public static final int MAX_INPUTS = 200;
+
+    private final Currency currency;
+    private final AbstractParty issuer;
+    private final int threshold;
+    private final int targetStates;
+
+    public CashConsolidationFlow(Currency currency, AbstractParty issuer) {
+        this(currency, issuer, DEFAULT_THRESHOLD, 1);
+    }
+
+    public CashConsolidationFlow(Currency currency, AbstractParty issuer, int threshold, int targetStates) {
+        if (targetStates < 1 || threshold < targetStates) {
+            throw new IllegalArgumentException("targetStates must be at least 1 and no more than the threshold.");
+        }
+        // The flow looks at no more than [MAX_INPUTS] states, so a higher threshold could never be exceeded.
+        // フローは[MAX_INPUTS]個を超える状態を調べないため、それ以上のしきい値を超えることはありません。
+        if (threshold >= MAX_INPUTS) {
+            throw new IllegalArgumentException("The threshold must be less than " + MAX_INPUTS + ".");
+        }
+        this.currency = currency;
+        this.issuer = issuer;
+        this.threshold = threshold;
+        this.targetStates = targetStates;
+    }
+
+    @Suspendable
+    @Override
+    public List<SignedTransaction> call() throws FlowException {
+        // 1. Get the smallest unlocked cash states from our issuer in the currency, by notary. The cash schema keeps
+        //    the hash of the issuer's key, which is what Corda's own cash selection queries by.
+        // 1.通貨で発行者からの最も小さいロックされていない現金状態を公証人ごとに取得します。現金スキーマは発行者の鍵の
+        //    ハッシュを保持しており、Corda自身の現金選択もそれでクエリします。
+        QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED, null, null, null,
+                new QueryCriteria.SoftLockingCondition(QueryCriteria.SoftLockingType.UNLOCKED_ONLY, Collections.emptyList()))
+                .and(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(cashColumn("currency"), currency.getCurrencyCode())))
+                .and(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(cashColumn("issuerPartyHash"),
+                        CryptoUtils.toStringShort(issuer.getOwningKey()))));
+        Sort smallestFirst = new Sort(Collections.singleton(new Sort.SortColumn(
+                new SortAttribute.Custom(CashSchemaV1.PersistentCashState.class, "pennies"), Sort.Direction.ASC)));
+        List<StateAndRef<Cash.State>> states = getServiceHub().getVaultService().queryBy(Cash.State.class, criteria,
+                new PageSpecification(DEFAULT_PAGE_NUM, MAX_INPUTS), smallestFirst).getStates();
+
+        Map<Party, List<StateAndRef<Cash.State>>> statesByNotary = new LinkedHashMap<>();
+        for (StateAndRef<Cash.State> stateAndRef: states) {
+            statesByNotary.computeIfAbsent(stateAndRef.getState().getNotary(), notary -> new ArrayList<>()).add(stateAndRef);
+        }
+
+        // 2. Consolidate each notary's states if there are too many of them.
+        // 2.状態が多すぎる場合は、各公証人の状態を統合します。
+        List<SignedTransaction> consolidations = new ArrayList<>();
+        for (Map.Entry<Party, List<StateAndRef<Cash.State>>> entry: statesByNotary.entrySet()) {
+            if (entry.getValue().size() > threshold) {
+                consolidations.add(consolidate(entry.getKey(), entry.getValue()));
+            }
+        }
+        return consolidations;
+    }
+
+    @Suspendable
+    private SignedTransaction consolidate(Party notary, List<StateAndRef<Cash.State>> inputs) throws FlowException {
+        // Reserve the inputs so that a concurrent spend can't select them while we consolidate.
+        // 統合中に並行する支出がそれらを選択できないように、入力を予約します。
+        Set<StateRef> refs = new LinkedHashSet<>();
+        for (StateAndRef<Cash.State> input: inputs) {
+            refs.add(input.getRef());
+        }
+        getServiceHub().getVaultService().softLockReserve(getRunId().getUuid(), NonEmptySet.copyOf(refs));
+
+        // The inputs may have different issuer references, so each reference is consolidated separately.
+        // 入力の発行者参照が異なる場合があるため、参照ごとに個別に統合されます。
+        TransactionBuilder tb = new TransactionBuilder(notary);
+        Map<Issued<Currency>, Long> totals = new LinkedHashMap<>();
+        Set<PublicKey> owners = new LinkedHashSet<>();
+        for (StateAndRef<Cash.State> input: inputs) {
+            Cash.State cash = input.getState().getData();
+            tb.addInputState(input);
+            totals.merge(cash.getAmount().getToken(), cash.getAmount().getQuantity(), Long::sum);
+            owners.add(cash.getOwner().getOwningKey());
+        }
+        for (Map.Entry<Issued<Currency>, Long> total: totals.entrySet()) {
+            long remaining = total.getValue();
+            for (int i = targetStates; i > 0; i--) {
+                long quantity = remaining / i;
+                if (quantity > 0) {
+                    tb.addOutputState(new Cash.State(new Amount<>(quantity, total.getKey()), getOurIdentity()), Cash.PROGRAM_ID);
+                    remaining -= quantity;
+                }
+            }
+        }
+        tb.addCommand(new Cash.Commands.Move(), new ArrayList<>(owners));
+
+        tb.verify(getServiceHub());
+        SignedTransaction stx = getServiceHub().signInitialTransaction(tb, owners);
+        return subFlow(new FinalityFlow(stx, Collections.emptyList()));
+    }
+
+    private static Field cashColumn(String column) {
+        try {
+            return CashSchemaV1.PersistentCashState.class.getDeclaredField(column);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalArgumentException("Unknown cash column " + column + ".");
+        }
+    }
+}
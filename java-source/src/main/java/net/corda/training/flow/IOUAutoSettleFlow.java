@@ -0,0 +1,149 @@
+package net.corda.training.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.StatesNotAvailableException;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.*;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.utilities.NonEmptySet;
+import net.corda.training.schema.IOUSchemaV1;
+import net.corda.training.service.AutoSettleCoordinationService;
+import net.corda.training.state.IOUState;
+
+import java.lang.reflect.Field;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+
+/**
+ * Settles the payments that have fallen due on IOUs we owe, in as few transactions as possible.
+ * 自分が負うIOUで期日となった支払いを、できるだけ少ないトランザクションで決済します。
+ * The node's scheduler starts this flow at the [due] instant of every IOU with a due date (see
+ * [IOUState.nextScheduledActivity]), on the nodes of both the lender and the borrower. Only the [borrower] pays, so the
+ * run on the lender's node returns at once. On the borrower's node, only the first run for a [due] instant does any work
+ * (see [AutoSettleCoordinationService]) and the others return at once: that run settles every unlocked IOU we borrowed
+ * whose next payment is due by [due], soft-locking each of them. The IOUs are read a page of [MAX_IOUS_PER_TRANSACTION]
+ * at a time until none are left, and an IOU another flow has locked is skipped.
+ * ノードのスケジューラーは、期日を持つすべてのIOUの[due]時刻に、貸し手と借り手の両方のノードでこのフローを開始します
+ * （[IOUState.nextScheduledActivity]を参照）。支払うのは[borrower]だけなので、貸し手のノードでの実行はすぐに戻ります。
+ * 借り手のノードでは、[due]時刻の最初の実行だけが処理を行い（[AutoSettleCoordinationService]を参照）、他の実行はすぐに
+ * 戻ります。その実行は、自分が借りたロックされていないIOUのうち、次の支払いが[due]までに期日となるものをすべて
+ * ソフトロックして決済します。IOUは残りがなくなるまで一度に[MAX_IOUS_PER_TRANSACTION]個ずつ読み込まれ、別のフローが
+ * ロックしているIOUはスキップされます。
+ * The IOUs are settled with the [IOUMultiSettleFlow], in one transaction per notary and currency. If a transaction
+ * fails, for example for lack of cash, the flow lets go of everything it reserved and tries again every
+ * [RETRY_INTERVAL], up to [MAX_RETRIES] times. The wait is checkpointed, so it carries on across a restart of the node.
+ * IOUは[IOUMultiSettleFlow]で公証人と通貨ごとに1つのトランザクションで決済されます。例えば現金不足でトランザクションが
+ * 失敗した場合、フローは予約したものをすべて解放し、[RETRY_INTERVAL]ごとに最大[MAX_RETRIES]回再試行します。待機は
+ * チェックポイントされるため、ノードが再起動しても継続されます。
+ * The flow returns the settlement transactions, which is empty if there was nothing to settle.
+ * フローは決済トランザクションを返します。決済するものがなかった場合は空です。
+ */
+@SchedulableFlow
+public class IOUAutoSettleFlow extends FlowLogic<List<SignedTransaction>> {
+
+    public static final int MAX_IOUS_PER_TRANSACTION = 100;
+    public static final int MAX_RETRIES = 12;
+    public static final Duration RETRY_INTERVAL = Duration.ofMinutes(5);
+
+    private final Instant due;
+    private final Party borrower;
+
+    public IOUAutoSettleFlow(Instant due, Party borrower) {
+        this.due = due;
+        this.borrower = borrower;
+    }
+
+    @Suspendable
+    @Override
+    public List<SignedTransaction> call() throws FlowException {
+        List<SignedTransaction> settlements = new ArrayList<>();
+        if (!borrower.equals(getOurIdentity())
+                || !getServiceHub().cordaService(AutoSettleCoordinationService.class).claim(due)) {
+            return settlements;
+        }
+        for (int retry = 0; ; retry++) {
+            int failed = settleDue(settlements);
+            if (failed == 0) {
+                return settlements;
+            } else if (retry == MAX_RETRIES) {
+                getLogger().error("Gave up settling {} IOUs due at {} after {} retries.", failed, due, MAX_RETRIES);
+                return settlements;
+            }
+            // Let go of the IOUs and cash while waiting, so that they can still be settled or spent by hand.
+            // 待機中はIOUと現金を解放し、手動で決済または使用できるようにします。
+            getServiceHub().getVaultService().softLockRelease(getRunId().getUuid(), null);
+            getLogger().warn("Could not settle {} IOUs due at {}, retrying in {} minutes.", failed, due, RETRY_INTERVAL.toMinutes());
+            sleep(RETRY_INTERVAL);
+        }
+    }
+
+    // Settles every IOU due that we can reserve, adding the transactions to [settlements], and returns how many could
+    // not be settled. Those stay reserved, so the next page does not return them again.
+    // 予約できる期日となったすべてのIOUを決済してトランザクションを[settlements]に追加し、決済できなかった数を返します。
+    // それらは予約されたままなので、次のページで再び返されることはありません。
+    @Suspendable
+    private int settleDue(List<SignedTransaction> settlements) throws FlowException {
+        int failed = 0;
+        while (true) {
+            // 1. Find the unlocked IOUs we borrowed whose next payment is due.
+            // 1.自分が借りたロックされていないIOUのうち、次の支払いが期日となったものを見つけます。
+            QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED, null, null, null,
+                    new QueryCriteria.SoftLockingCondition(QueryCriteria.SoftLockingType.UNLOCKED_ONLY, Collections.emptyList()))
+                    .and(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(iouColumn("borrower"), getOurIdentity().getName().toString())))
+                    .and(new QueryCriteria.VaultCustomQueryCriteria(Builder.lessThanOrEqual(iouColumn("nextDue"), due)));
+            List<StateAndRef<IOUState>> dueIOUs = getServiceHub().getVaultService().queryBy(IOUState.class, criteria,
+                    new PageSpecification(DEFAULT_PAGE_NUM, MAX_IOUS_PER_TRANSACTION)).getStates();
+            if (dueIOUs.isEmpty()) {
+                return failed;
+            }
+
+            // 2. Reserve each IOU on its own, skipping those another flow has locked since the query, and group them
+            //    by notary and currency, as the IOUs settled together must share a notary and each lender is paid in
+            //    one currency.
+            // 2.各IOUを個別に予約し、クエリ後に別のフローがロックしたものはスキップして、公証人と通貨ごとにまとめます。
+            //    一緒に決済されるIOUは公証人を共有する必要があり、各貸し手には1つの通貨で支払われるためです。
+            Map<Party, Map<Currency, Map<UniqueIdentifier, Amount<Currency>>>> amountsByNotary = new LinkedHashMap<>();
+            for (StateAndRef<IOUState> stateAndRef: dueIOUs) {
+                try {
+                    getServiceHub().getVaultService().softLockReserve(getRunId().getUuid(), NonEmptySet.of(stateAndRef.getRef()));
+                } catch (StatesNotAvailableException e) {
+                    continue;
+                }
+                IOUState iou = stateAndRef.getState().getData();
+                amountsByNotary.computeIfAbsent(stateAndRef.getState().getNotary(), notary -> new LinkedHashMap<>())
+                        .computeIfAbsent(iou.amount.getToken(), currency -> new LinkedHashMap<>())
+                        .put(iou.getLinearId(), iou.getAmountDue());
+            }
+
+            // 3. Settle what is due on each group of IOUs in one transaction.
+            // 3.IOUの各グループで期日となった金額を1つのトランザクションで決済します。
+            for (Map<Currency, Map<UniqueIdentifier, Amount<Currency>>> byCurrency: amountsByNotary.values()) {
+                for (Map<UniqueIdentifier, Amount<Currency>> amounts: byCurrency.values()) {
+                    try {
+                        settlements.add(subFlow(new IOUMultiSettleFlow.InitiatorFlow(amounts)));
+                    } catch (FlowException | IllegalArgumentException e) {
+                        getLogger().warn("Could not settle {} IOUs due at {}: {}", amounts.size(), due, e.getMessage());
+                        failed += amounts.size();
+                    }
+                }
+            }
+        }
+    }
+
+    private static Field iouColumn(String column) {
+        try {
+            return IOUSchemaV1.PersistentIOU.class.getDeclaredField(column);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalArgumentException("Unknown IOU column " + column + ".");
+        }
+    }
+}
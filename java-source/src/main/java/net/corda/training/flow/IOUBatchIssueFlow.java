@@ -0,0 +1,215 @@
+package net.corda.training.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.*;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import static net.corda.core.contracts.ContractsDSL.requireThat;
+import net.corda.core.utilities.ProgressTracker;
+
+import net.corda.training.contract.IOUContract;
+import net.corda.training.service.IssuanceDeduplicationService;
+import net.corda.training.service.NotarySelectionService;
+import net.corda.training.state.IOUState;
+import static net.corda.training.contract.IOUContract.Commands.*;
+
+/**
+ * This is the flow which handles issuance of many new IOUs on the ledger in a single transaction.
+ *これは、単一のトランザクションでレジャーに多数の新しいIOUを発行するフローです。
+ * All of the IOUs must be between the same lender and borrower, so the transaction needs one signature round with the
+ * counterparty and one notarisation, however many IOUs are issued.
+ *すべてのIOUは同じ貸し手と借り手の間のものである必要があるため、発行するIOUの数に関係なく、
+ *トランザクションに必要なのは取引相手との1回の署名ラウンドと1回の公証だけです。
+ * IOUs with an external id are deduplicated as in the [IOUIssueFlow]: an IOU we already issued under its external id
+ * is not issued again, and the transaction that first issued it is returned for it instead.
+ *外部IDを持つIOUは[IOUIssueFlow]と同様に重複排除されます。その外部IDで既に発行したIOUは再発行されず、代わりに
+ *最初に発行したトランザクションが返されます。
+ * The flow returns, for each IOU in order, the [SignedTransaction] that issued it.
+ *フローは、各IOUについて順番に、それを発行した[SignedTransaction]を返します。
+ */
+public class IOUBatchIssueFlow {
+
+    @InitiatingFlow
+    @StartableByRPC
+    public static class InitiatorFlow extends FlowLogic<List<SignedTransaction>> {
+        private final List<IOUState> states;
+        public InitiatorFlow(List<IOUState> states) {
+            this.states = states;
+        }
+
+        @Suspendable
+        @Override
+        public List<SignedTransaction> call() throws FlowException {
+            if (states.isEmpty()) {
+                throw new IllegalArgumentException("At least one IOU must be issued.");
+            }
+
+            // Step 1. Check every IOU is between the same two parties.
+            //ステップ1.すべてのIOUが同じ2者間のものであることを確認します。
+            final IOUState first = states.get(0);
+            for (IOUState state: states) {
+                if (!state.lender.equals(first.lender) || !state.borrower.equals(first.borrower)) {
+                    throw new IllegalArgumentException("All IOUs in a batch must have the same lender and borrower.");
+                }
+            }
+
+            // Step 2. Scope each external id to us, and look for an earlier issuance of it. The IOUs already issued are
+            // left out of the transaction, and the others' external ids are reserved until it has finished.
+            //ステップ2.各外部IDを自分の範囲に限定し、以前の発行を探します。既に発行されたIOUはトランザクションから除外され、
+            //それ以外の外部IDはトランザクションが終わるまで予約されます。
+            final IssuanceDeduplicationService deduplication = getServiceHub().cordaService(IssuanceDeduplicationService.class);
+            final List<SignedTransaction> issuances = new ArrayList<>(Collections.nCopies(states.size(), null));
+            final List<IOUState> toIssue = new ArrayList<>();
+            final Set<String> reserved = new LinkedHashSet<>();
+            try {
+                for (int i = 0; i < states.size(); i++) {
+                    final String key = states.get(i).getLinearId().getExternalId();
+                    if (key == null) {
+                        toIssue.add(states.get(i));
+                        continue;
+                    }
+                    final String externalId = IssuanceDeduplicationService.scopedExternalId(getOurIdentity(), key);
+                    final IOUState state = states.get(i).withExternalId(externalId);
+                    if (reserved.contains(externalId)) {
+                        throw new IllegalArgumentException("External id " + key + " appears more than once in the batch.");
+                    }
+                    final SignedTransaction existing = deduplication.findIssuance(getOurIdentity(), externalId);
+                    if (existing != null) {
+                        if (!IOUIssueFlow.issuedSameIOU(existing, state)) {
+                            throw new FlowException("External id " + key + " was already used for a different IOU.");
+                        }
+                        issuances.set(i, existing);
+                        continue;
+                    }
+                    if (!deduplication.reserve(externalId)) {
+                        throw new FlowException("An IOU with external id " + key + " is already being issued.");
+                    }
+                    reserved.add(externalId);
+                    toIssue.add(state);
+                }
+                if (!toIssue.isEmpty()) {
+                    final SignedTransaction issuance = issue(first, toIssue);
+                    for (int i = 0; i < issuances.size(); i++) {
+                        if (issuances.get(i) == null) {
+                            issuances.set(i, issuance);
+                        }
+                    }
+                }
+                return issuances;
+            } finally {
+                for (String externalId: reserved) {
+                    deduplication.release(externalId);
+                }
+            }
+        }
+
+        @Suspendable
+        private SignedTransaction issue(IOUState first, List<IOUState> states) throws FlowException {
+            // Step 3. Get a reference to the notary service on our network, chosen by the [NotarySelectionService].
+            //ステップ3.[NotarySelectionService]が選んだ、ネットワーク上のノータリーサービスへの参照を取得します。
+            final NotarySelectionService notarySelection = getServiceHub().cordaService(NotarySelectionService.class);
+            final Party counterparty = first.lender.equals(getOurIdentity()) ? first.borrower : first.lender;
+            final Party notary = notarySelection.selectNotary(counterparty);
+
+            // Step 4. Create one issue command signed by both parties, and add every IOU as an output.
+            //ステップ4.両当事者が署名する1つのissueコマンドを作成し、すべてのIOUを出力として追加します。
+            final List<PublicKey> requiredSigners = new ArrayList<>();
+            for (AbstractParty participant: first.getParticipants()) {
+                requiredSigners.add(participant.getOwningKey());
+            }
+            final TransactionBuilder builder = new TransactionBuilder(notary);
+            builder.addCommand(new Command<>(new Issue(), requiredSigners));
+            for (IOUState state: states) {
+                builder.addOutputState(state, IOUContract.IOU_CONTRACT_ID);
+            }
+
+            // Step 5. Verify and sign it with our KeyPair.
+            //ステップ5. KeyPairで確認して署名します。
+            builder.verify(getServiceHub());
+            final SignedTransaction ptx = getServiceHub().signInitialTransaction(builder);
+
+            // Step 6. Collect the counterparty's signature, opening one session per counterparty.
+            //ステップ6.取引相手ごとに1つのセッションを開いて、取引相手の署名を収集します。
+            final Set<Party> otherParties = new LinkedHashSet<>();
+            for (AbstractParty participant: first.getParticipants()) {
+                otherParties.add((Party) participant);
+            }
+            otherParties.remove(getOurIdentity());
+
+            final List<FlowSession> sessions = new ArrayList<>();
+            for (Party otherParty: otherParties) {
+                sessions.add(initiateFlow(otherParty));
+            }
+
+            SignedTransaction stx = subFlow(new CollectSignaturesFlow(ptx, sessions));
+
+            // Step 7. Assuming no exceptions, we can now finalise the transaction
+            //ステップ7.例外を想定せずに、トランザクションを終了できるようになりました
+            return subFlow(new TimedFinalityFlow(stx, sessions));
+        }
+    }
+
+    /**
+     * This is the flow which signs batched IOU issuances.
+     *これは、一括IOU発行に署名するフローです。
+     * The signing is handled by the [SignTransactionFlow].
+     *署名は[SignTransactionFlow]によって処理されます。
+     */
+    @InitiatedBy(IOUBatchIssueFlow.InitiatorFlow.class)
+    public static class ResponderFlow extends FlowLogic<SignedTransaction> {
+
+        private final FlowSession flowSession;
+        private SecureHash txWeJustSigned;
+
+        public ResponderFlow(FlowSession flowSession){
+            this.flowSession = flowSession;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+
+            class SignTxFlow extends SignTransactionFlow {
+
+                private SignTxFlow(FlowSession flowSession, ProgressTracker progressTracker) {
+                    super(flowSession, progressTracker);
+                }
+
+                @Override
+                protected void checkTransaction(SignedTransaction stx) {
+                    requireThat(req -> {
+                        for (TransactionState<ContractState> output: stx.getTx().getOutputs()) {
+                            req.using("This must be an IOU transaction", output.getData() instanceof IOUState);
+                        }
+                        req.using("External ids must be scoped to the issuer", IOUIssueFlow.externalIdsScopedTo(stx, flowSession.getCounterparty()));
+                        return null;
+                    });
+                    // Once the transaction has verified, initialize txWeJustSignedID variable.
+                    //トランザクションが検証されたら、txWeJustSignedID変数を初期化します。
+                    txWeJustSigned = stx.getId();
+                }
+            }
+
+            // Create and run a sign transaction flow to sign the transaction
+            //署名トランザクションフローを作成して実行し、トランザクションに署名します
+            subFlow(new SignTxFlow(flowSession, SignTransactionFlow.Companion.tracker()));
+
+            // Run the ReceiveFinalityFlow to finalize the transaction and persist it to the vault.
+            // ReceiveFinalityFlowを実行してトランザクションを終了し、ボールトに永続化します。
+            return subFlow(new ReceiveFinalityFlow(flowSession, txWeJustSigned));
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package net.corda.training.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.contracts.*;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.*;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.finance.contracts.asset.PartyAndAmount;
+import net.corda.finance.workflows.asset.CashUtils;
+import net.corda.training.contract.IOUContract;
+import net.corda.training.service.CashBalanceService;
+import net.corda.training.state.IOUState;
+
+import java.security.PublicKey;
+import java.util.*;
+
+import static net.corda.core.contracts.ContractsDSL.requireThat;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+
+public class IOUMultiSettleFlow {
+
+    /**
+     * This is the flow which settles (partially or completely) many existing IOUs on the ledger in a single transaction.
+     *これは、元帳上の既存の多数のIOUを単一のトランザクションで決済（部分的または完全）するフローです。
+     * The IOUs may be owed to the same or to different lenders. Cash is selected once for all of the payments, and each
+     * lender is asked to sign once however many of their IOUs are being settled.
+     *IOUは同じ貸し手に対するものでも、異なる貸し手に対するものでも構いません。現金はすべての支払いに対して一度だけ選択され、
+     *各貸し手は決済されるIOUの数に関係なく一度だけ署名を求められます。
+     * The flow returns the [SignedTransaction] that was committed to the ledger.
+     *フローは、レジャーにコミットされた[SignedTransaction]を返します。
+     */
+    @InitiatingFlow
+    @StartableByRPC
+    public static class InitiatorFlow extends FlowLogic<SignedTransaction> {
+
+        private final Map<UniqueIdentifier, Amount<Currency>> amounts;
+
+        public InitiatorFlow(Map<UniqueIdentifier, Amount<Currency>> amounts) {
+            this.amounts = amounts;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            if (amounts.isEmpty()) {
+                throw new IllegalArgumentException("At least one IOU must be settled.");
+            }
+
+            // 1. Retrieve all of the IOU States from the vault in a single query.
+            // 1. 1回のクエリでボールトからすべてのIOU状態を取得します。
+            List<UUID> listOfLinearIds = new ArrayList<>();
+            for (UniqueIdentifier linearId: amounts.keySet()) {
+                listOfLinearIds.add(linearId.getId());
+            }
+            QueryCriteria queryCriteria = new QueryCriteria.LinearStateQueryCriteria(null, listOfLinearIds);
+            Vault.Page<IOUState> results = getServiceHub().getVaultService().queryBy(IOUState.class, queryCriteria,
+                    new PageSpecification(DEFAULT_PAGE_NUM, listOfLinearIds.size()));
+            List<StateAndRef<IOUState>> inputStateAndRefs = results.getStates();
+            if (inputStateAndRefs.size() != amounts.size()) {
+                throw new IllegalArgumentException("Not all of the IOUs to settle could be found in the vault.");
+            }
+
+            // 2. Check the party running this flow is the borrower of every IOU, and that each amount can be settled.
+            // 2.このフローを実行しているパーティがすべてのIOUの借り手であり、各金額が決済可能であることを確認します。
+            //    The contract pays each lender in one currency, so the IOUs owed to a lender must share one too.
+            //    契約は各貸し手に1つの通貨で支払うため、貸し手に対するIOUも1つの通貨を共有する必要があります。
+            Map<Currency, Long> totalsByCurrency = new HashMap<>();
+            Map<Party, Currency> currencyByLender = new HashMap<>();
+            for (StateAndRef<IOUState> stateAndRef: inputStateAndRefs) {
+                IOUState inputState = stateAndRef.getState().getData();
+                Amount<Currency> amount = amounts.get(inputState.getLinearId());
+                if (!inputState.borrower.getOwningKey().equals(getOurIdentity().getOwningKey())) {
+                    throw new IllegalArgumentException("The borrower must issue the flow");
+                } else if (!amount.getToken().equals(inputState.amount.getToken())) {
+                    throw new IllegalArgumentException("Each IOU must be settled in its own currency.");
+                } else if (amount.getQuantity() > (inputState.amount.getQuantity() - inputState.paid.getQuantity())) {
+                    throw new IllegalArgumentException("Borrow tried to settle with more than was required for the obligation.");
+                } else if (!currencyByLender.computeIfAbsent(inputState.lender, lender -> amount.getToken()).equals(amount.getToken())) {
+                    throw new IllegalArgumentException("The IOUs owed to " + inputState.lender.getName()
+                            + " are in more than one currency and must be settled in separate transactions.");
+                }
+                totalsByCurrency.merge(amount.getToken(), amount.getQuantity(), Long::sum);
+            }
+
+            // 3. Check we have enough cash in each currency to settle the requested amounts.
+            // 3.要求された金額を決済するのに十分な現金が各通貨にあることを確認します。
+            CashBalanceService cashBalances = getServiceHub().cordaService(CashBalanceService.class);
+            for (Map.Entry<Currency, Long> total: totalsByCurrency.entrySet()) {
+                if (cashBalances.getCashBalance(total.getKey()).getQuantity() < total.getValue()) {
+                    throw new IllegalArgumentException("Borrower doesn't have enough cash to settle with the amount specified.");
+                }
+            }
+
+            // 4. Build the transaction: one cash payment per lender and currency, and an IOU input (plus an output if
+            //    it is only partially settled) per IOU.
+            // 4.トランザクションを構築します：貸し手と通貨ごとに1回の現金支払い、IOUごとにIOU入力（部分的に決済される場合は出力も）。
+            //    The IOUs' notary must notarise their spending, so they must all share one.
+            //    IOUの公証人がその使用を公証しなければならないため、すべてのIOUは1つの公証人を共有する必要があります。
+            Party notary = inputStateAndRefs.get(0).getState().getNotary();
+            for (StateAndRef<IOUState> stateAndRef: inputStateAndRefs) {
+                if (!stateAndRef.getState().getNotary().equals(notary)) {
+                    throw new IllegalArgumentException("All IOUs settled together must have the same notary.");
+                }
+            }
+            //    The cash can only be spent at that notary too, so move any of it held at other notaries there first.
+            //    現金もその公証人でしか使用できないため、他の公証人で保有されている現金を最初にそこへ移します。
+            for (Map.Entry<Currency, Long> total: totalsByCurrency.entrySet()) {
+                subFlow(new MoveCashToNotaryFlow(new Amount<>(total.getValue(), total.getKey()), notary));
+            }
+            TransactionBuilder tb = new TransactionBuilder(notary);
+
+            Map<Party, Map<Currency, Long>> paymentsByLender = new LinkedHashMap<>();
+            Set<PublicKey> requiredSigners = new LinkedHashSet<>();
+            for (StateAndRef<IOUState> stateAndRef: inputStateAndRefs) {
+                IOUState inputState = stateAndRef.getState().getData();
+                Amount<Currency> amount = amounts.get(inputState.getLinearId());
+
+                tb.addInputState(stateAndRef);
+                if (amount.getQuantity() < inputState.amount.getQuantity() - inputState.paid.getQuantity()) {
+                    tb.addOutputState(inputState.pay(amount), IOUContract.IOU_CONTRACT_ID);
+                }
+
+                paymentsByLender.computeIfAbsent(inputState.lender, lender -> new LinkedHashMap<>())
+                        .merge(amount.getToken(), amount.getQuantity(), Long::sum);
+                for (AbstractParty participant: inputState.getParticipants()) {
+                    requiredSigners.add(participant.getOwningKey());
+                }
+            }
+
+            List<PartyAndAmount<Currency>> payments = new ArrayList<>();
+            for (Map.Entry<Party, Map<Currency, Long>> lenderPayments: paymentsByLender.entrySet()) {
+                for (Map.Entry<Currency, Long> payment: lenderPayments.getValue().entrySet()) {
+                    payments.add(new PartyAndAmount<>(lenderPayments.getKey(), new Amount<>(payment.getValue(), payment.getKey())));
+                }
+            }
+            CashUtils.generateSpend(getServiceHub(), tb, payments, getOurIdentityAndCert(), ImmutableSet.of());
+
+            tb.addCommand(new Command<>(new IOUContract.Commands.Settle(), new ArrayList<>(requiredSigners)));
+
+            // 5. Verify and sign the transaction
+            // 5.トランザクションを確認して署名する
+            tb.verify(getServiceHub());
+            SignedTransaction stx = getServiceHub().signInitialTransaction(tb, getOurIdentity().getOwningKey());
+
+            // 6. Collect the signature of every lender, opening one session per lender.
+            // 6.貸し手ごとに1つのセッションを開いて、すべての貸し手の署名を収集します。
+            List<FlowSession> sessions = new ArrayList<>();
+            for (Party lender: paymentsByLender.keySet()) {
+                if (!lender.getOwningKey().equals(getOurIdentity().getOwningKey())) {
+                    sessions.add(initiateFlow(lender));
+                }
+            }
+            SignedTransaction fullySignedTransaction = subFlow(new CollectSignaturesFlow(stx, sessions));
+
+            // 7. Notarise and record the transaction in the vaults of all the parties.
+            // 7.公証し、すべての当事者のボールトにトランザクションを記録します。
+            return subFlow(new TimedFinalityFlow(fullySignedTransaction, sessions));
+        }
+
+    }
+
+    /**
+     * This is the flow which signs multi-IOU settlements.
+     *これは、複数IOU決済に署名するフローです。
+     * The signing is handled by the [SignTransactionFlow].
+     *署名は[SignTransactionFlow]によって処理されます。
+     */
+    @InitiatedBy(IOUMultiSettleFlow.InitiatorFlow.class)
+    public static class Responder extends FlowLogic<SignedTransaction> {
+
+        private final FlowSession otherPartyFlow;
+        private SecureHash txWeJustSignedId;
+
+        public Responder(FlowSession otherPartyFlow) {
+            this.otherPartyFlow = otherPartyFlow;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            class SignTxFlow extends SignTransactionFlow {
+                private SignTxFlow(FlowSession otherPartyFlow, ProgressTracker progressTracker) {
+                    super(otherPartyFlow, progressTracker);
+                }
+
+                @Override
+                protected void checkTransaction(SignedTransaction stx) {
+                    requireThat(require -> {
+                        boolean isSettlement = stx.getTx().getCommands().stream()
+                                .anyMatch(command -> command.getValue() instanceof IOUContract.Commands.Settle);
+                        require.using("This must be an IOU settlement transaction", isSettlement);
+                        return null;
+                    });
+                    // Once the transaction has verified, initialize txWeJustSignedID variable.
+                    //トランザクションが検証されたら、txWeJustSignedID変数を初期化します。
+                    txWeJustSignedId = stx.getId();
+                }
+            }
+
+            // Create and run a sign transaction flow to sign the transaction
+            //署名トランザクションフローを作成して実行し、トランザクションに署名します
+            subFlow(new SignTxFlow(otherPartyFlow, SignTransactionFlow.Companion.tracker()));
+
+            // Run the ReceiveFinalityFlow to finalize the transaction and persist it to the vault.
+            // ReceiveFinalityFlowを実行してトランザクションを終了し、ボールトに永続化します。
+            return subFlow(new ReceiveFinalityFlow(otherPartyFlow, txWeJustSignedId));
+
+        }
+    }
+
+}
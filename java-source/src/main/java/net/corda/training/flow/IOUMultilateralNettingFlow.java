@@ -0,0 +1,558 @@
+package net.corda.training.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.*;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.identity.Party;
+import net.corda.core.node.ServiceHub;
+import net.corda.core.node.services.StatesNotAvailableException;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.core.transactions.LedgerTransaction;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.NonEmptySet;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.training.contract.IOUContract;
+import net.corda.training.schema.IOUSchemaV1;
+import net.corda.training.service.MultilateralNettingEngine;
+import net.corda.training.state.IOUState;
+
+import java.security.PublicKey;
+import java.security.SignatureException;
+import java.util.*;
+
+import static net.corda.core.contracts.ContractsDSL.requireThat;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+
+public class IOUMultilateralNettingFlow {
+
+    /**
+     * This is the flow which nets the IOUs owed between a group of parties in one currency, cancelling cyclic debts
+     * such as A owes B owes C owes A without any cash.
+     *これは、1つの通貨で当事者グループ間に負うIOUをネッティングし、AがBに、BがCに、CがAに負うような循環債務を
+     *現金なしで相殺するフローです。
+     * The coordinator asks every other party for the IOUs it lends to the group. Each party describes them as [LentIOU]s,
+     * in chunks of at most [MAX_IOUS_PER_TRANSACTION], and only these descriptions are kept while the transactions are
+     * planned. The IOUs are split by notary, which must notarise their spending, and into the connected components of
+     * the parties they link, as IOUs in different components can never cancel out. Each component is replaced by the net
+     * IOUs the [MultilateralNettingEngine] computes for it, in rounds of at most [MAX_IOUS_PER_TRANSACTION] IOUs: the
+     * residual IOUs of each round are carried into the next, so the cycles that span rounds are still cancelled, and a
+     * round that netting would not shrink is skipped.
+     *調整役は他のすべての当事者に、グループに貸し付けているIOUを求めます。各当事者はそれらを最大[MAX_IOUS_PER_TRANSACTION]個
+     *ずつ[LentIOU]として記述し、トランザクションの計画中はこの記述だけが保持されます。IOUは、使用を公証しなければならない
+     *公証人ごとに、さらにIOUがつなぐ当事者の連結成分ごとに分けられます。異なる成分のIOUが相殺されることはないためです。
+     *各成分は、[MultilateralNettingEngine]が計算した純額のIOUで、最大[MAX_IOUS_PER_TRANSACTION]個のIOUずつの回に分けて
+     *置き換えられます。各回の残余IOUは次の回に引き継がれるため、回をまたぐサイクルも相殺され、ネッティングしても
+     *減らない回はスキップされます。
+     * Only once a round is planned are its IOUs, and their histories, sent by their lenders with the
+     * [SendStateAndRefFlow], and checked against their descriptions.
+     *回が計画されて初めて、そのIOUとその履歴が貸し手から[SendStateAndRefFlow]で送られ、記述と照合されます。
+     * IOUs with a due date are left out, as the residual IOUs could not keep their schedules; they are settled when due.
+     *期日を持つIOUは、残余IOUがその支払予定を引き継げないため除外され、期日に決済されます。
+     * The flow returns the netting transactions that were committed to the ledger.
+     *フローは、レジャーにコミットされたネッティングトランザクションを返します。
+     */
+    @InitiatingFlow
+    @StartableByRPC
+    public static class InitiatorFlow extends FlowLogic<List<SignedTransaction>> {
+
+        public static final int MAX_IOUS_PER_TRANSACTION = 1000;
+
+        private final List<Party> parties;
+        private final Currency currency;
+
+        public InitiatorFlow(List<Party> parties, Currency currency) {
+            this.parties = parties;
+            this.currency = currency;
+        }
+
+        @Suspendable
+        @Override
+        public List<SignedTransaction> call() throws FlowException {
+            Party me = getOurIdentity();
+            List<Party> group = new ArrayList<>(new LinkedHashSet<>(parties));
+            if (!group.contains(me)) {
+                throw new IllegalArgumentException("The party running this flow must be one of the parties being netted.");
+            }
+
+            // 1. Gather the descriptions of the IOUs lent within the group: ours from the vault, and every other
+            //    party's from them, a chunk at a time. The parties each IOU links are joined into one component.
+            // 1.グループ内で貸し付けられたIOUの記述を集めます。自分のものはボールトから、他の当事者のものは各当事者から
+            //    一度に1チャンクずつ取得します。各IOUがつなぐ当事者は1つの成分にまとめられます。
+            Map<Party, Map<StateRef, LentIOU>> iousByNotary = new LinkedHashMap<>();
+            Map<Party, Party> components = new HashMap<>();
+            for (int page = 1; ; page++) {
+                Vault.Page<IOUState> results = lentPage(getServiceHub(), me, currency, page);
+                for (LentIOU iou: describe(results, me, group)) {
+                    gather(iou, iousByNotary, components);
+                }
+                if ((long) page * MAX_IOUS_PER_TRANSACTION >= results.getTotalStatesAvailable()) {
+                    break;
+                }
+            }
+            Map<Party, FlowSession> sessions = new LinkedHashMap<>();
+            for (Party party: group) {
+                if (!party.equals(me)) {
+                    FlowSession session = initiateFlow(party);
+                    sessions.put(party, session);
+                    session.send(currency);
+                    session.send(group);
+                    for (List<LentIOU> chunk = receiveChunk(session, group); !chunk.isEmpty(); chunk = receiveChunk(session, group)) {
+                        for (LentIOU iou: chunk) {
+                            gather(iou, iousByNotary, components);
+                        }
+                    }
+                }
+            }
+
+            // 2. Net the IOUs of each component at each notary.
+            // 2.各公証人で、各成分のIOUをネッティングします。
+            List<SignedTransaction> results = new ArrayList<>();
+            for (Map.Entry<Party, Map<StateRef, LentIOU>> notaryIOUs: iousByNotary.entrySet()) {
+                Map<Party, List<StateRef>> byComponent = new LinkedHashMap<>();
+                for (LentIOU iou: notaryIOUs.getValue().values()) {
+                    byComponent.computeIfAbsent(find(components, iou.lender), root -> new ArrayList<>()).add(iou.ref);
+                }
+                for (List<StateRef> component: byComponent.values()) {
+                    results.addAll(netComponent(notaryIOUs.getKey(), component, notaryIOUs.getValue(), sessions));
+                }
+            }
+
+            // 3. Tell every party that there are no more transactions to sign.
+            // 3.署名するトランザクションがもうないことを各当事者に伝えます。
+            for (FlowSession session: sessions.values()) {
+                session.send(false);
+            }
+            return results;
+        }
+
+        // Receives the next chunk of the IOUs a party lends within the group, which is empty once it has sent them all.
+        // 当事者がグループ内で貸し付けているIOUの次のチャンクを受け取ります。すべて送り終えると空になります。
+        @Suspendable
+        private List<LentIOU> receiveChunk(FlowSession session, List<Party> group) throws FlowException {
+            return session.receive(List.class).unwrap(chunk -> {
+                if (chunk.size() > MAX_IOUS_PER_TRANSACTION) {
+                    throw new FlowException(session.getCounterparty() + " sent more than " + MAX_IOUS_PER_TRANSACTION + " IOUs at once.");
+                }
+                List<LentIOU> ious = new ArrayList<>();
+                for (Object item: chunk) {
+                    if (!(item instanceof LentIOU)
+                            || !((LentIOU) item).lender.equals(session.getCounterparty())
+                            || !group.contains(((LentIOU) item).borrower)
+                            || ((LentIOU) item).outstanding < 0) {
+                        throw new FlowException(session.getCounterparty() + " sent something that is not one of its IOUs within the group.");
+                    }
+                    ious.add((LentIOU) item);
+                }
+                return ious;
+            });
+        }
+
+        // Nets one component's IOUs at a notary, a round of at most MAX_IOUS_PER_TRANSACTION IOUs at a time. A round is
+        // planned from the descriptions of its IOUs, skipped if netting would not reduce its IOUs, and only then are its
+        // IOUs resolved.
+        // 公証人で1つの成分のIOUを、一度に最大MAX_IOUS_PER_TRANSACTIONのIOUずつネッティングします。各回はIOUの記述から
+        // 計画され、ネッティングしてもIOUが減らない場合はスキップされ、その後で初めてIOUが解決されます。
+        @Suspendable
+        private List<SignedTransaction> netComponent(Party notary, List<StateRef> component, Map<StateRef, LentIOU> described,
+                                                     Map<Party, FlowSession> sessions) throws FlowException {
+            Party me = getOurIdentity();
+            List<SignedTransaction> results = new ArrayList<>();
+            Set<StateRef> residualRefs = new HashSet<>();
+            LinkedList<StateRef> remaining = new LinkedList<>(component);
+            while (remaining.size() >= 2) {
+                List<StateRef> round = new ArrayList<>();
+                while (round.size() < MAX_IOUS_PER_TRANSACTION && !remaining.isEmpty()) {
+                    round.add(remaining.removeFirst());
+                }
+                List<IOUState> planned = new ArrayList<>();
+                for (StateRef ref: round) {
+                    planned.add(described.get(ref).toIOU(currency));
+                }
+                if (MultilateralNettingEngine.net(planned).size() >= planned.size()) {
+                    continue;
+                }
+
+                // Ask every party in the round for the IOUs it lends in it, unless we hold them ourselves, and check
+                // that they are what was described.
+                // 回の各当事者に、自分で保有していない限り、その回で貸し付けているIOUを求め、記述どおりであることを
+                // 確認します。
+                Set<Party> roundParties = new LinkedHashSet<>();
+                roundParties.add(me);
+                Map<Party, List<StateRef>> requested = new LinkedHashMap<>();
+                Map<StateRef, StateAndRef<IOUState>> resolved = new HashMap<>();
+                for (StateRef ref: round) {
+                    LentIOU iou = described.get(ref);
+                    roundParties.add(iou.lender);
+                    roundParties.add(iou.borrower);
+                    if (iou.lender.equals(me) || iou.borrower.equals(me) || residualRefs.contains(ref)) {
+                        resolved.put(ref, getServiceHub().toStateAndRef(ref));
+                    } else {
+                        requested.computeIfAbsent(iou.lender, lender -> new ArrayList<>()).add(ref);
+                    }
+                }
+                List<FlowSession> txSessions = new ArrayList<>();
+                for (Party party: roundParties) {
+                    if (!party.equals(me)) {
+                        FlowSession session = sessions.get(party);
+                        txSessions.add(session);
+                        session.send(true);
+                        session.send(requested.getOrDefault(party, Collections.emptyList()));
+                    }
+                }
+                for (FlowSession session: txSessions) {
+                    Set<StateRef> asked = new HashSet<>(requested.getOrDefault(session.getCounterparty(), Collections.emptyList()));
+                    for (StateAndRef<ContractState> stateAndRef: subFlow(new ReceiveStateAndRefFlow<ContractState>(session))) {
+                        if (!(stateAndRef.getState().getData() instanceof IOUState) || !asked.contains(stateAndRef.getRef())) {
+                            throw new FlowException(session.getCounterparty() + " sent a state that was not requested.");
+                        }
+                        resolved.put(stateAndRef.getRef(), asIOU(stateAndRef));
+                    }
+                }
+                List<StateAndRef<IOUState>> inputs = new ArrayList<>();
+                List<IOUState> gross = new ArrayList<>();
+                for (StateRef ref: round) {
+                    StateAndRef<IOUState> stateAndRef = resolved.get(ref);
+                    if (stateAndRef == null || !described.get(ref).describes(stateAndRef, currency)) {
+                        throw new FlowException("IOU " + ref + " is not the one its lender described.");
+                    }
+                    inputs.add(stateAndRef);
+                    gross.add(stateAndRef.getState().getData());
+                }
+                List<IOUState> net = MultilateralNettingEngine.net(gross);
+
+                // Reserve the IOUs we hold, so that a settlement or transfer running at the same time can't spend them.
+                // Each other party reserves its own before signing.
+                // 同時に実行される決済や譲渡がそれらを使用できないように、自分が保有するIOUを予約します。
+                // 他の当事者はそれぞれ署名の前に自分のものを予約します。
+                reserveOurs(getServiceHub(), getRunId().getUuid(), inputs);
+                TransactionBuilder tb = new TransactionBuilder(notary);
+                for (StateAndRef<IOUState> stateAndRef: inputs) {
+                    tb.addInputState(stateAndRef);
+                }
+                for (IOUState residual: net) {
+                    tb.addOutputState(residual, IOUContract.IOU_CONTRACT_ID);
+                }
+                List<PublicKey> requiredSigners = new ArrayList<>();
+                for (Party party: roundParties) {
+                    requiredSigners.add(party.getOwningKey());
+                }
+                tb.addCommand(new Command<>(new IOUContract.Commands.MultilateralNet(), requiredSigners));
+
+                // Verify, sign, collect the signatures for and finalise the transaction.
+                // トランザクションを検証、署名し、署名を収集して確定します。
+                tb.verify(getServiceHub());
+                SignedTransaction stx = getServiceHub().signInitialTransaction(tb);
+                SignedTransaction fullySignedTransaction = subFlow(new CollectSignaturesFlow(stx, txSessions));
+                SignedTransaction result = subFlow(new TimedFinalityFlow(fullySignedTransaction, txSessions));
+                results.add(result);
+
+                // The residual IOUs join the next round, so cycles that span rounds are still cancelled.
+                // 残余IOUは次の回に加わるため、回をまたぐサイクルも相殺されます。
+                for (StateRef ref: round) {
+                    described.remove(ref);
+                }
+                for (int i = net.size() - 1; i >= 0; i--) {
+                    StateRef ref = new StateRef(result.getId(), i);
+                    described.put(ref, new LentIOU(ref, notary, net.get(i).lender, net.get(i).borrower, net.get(i).amount.getQuantity()));
+                    residualRefs.add(ref);
+                    remaining.addFirst(ref);
+                }
+                if (remaining.size() == net.size()) {
+                    break;
+                }
+            }
+            return results;
+        }
+    }
+
+    /**
+     * An IOU as its lender first describes it to the netting coordinator: enough to plan the netting, without the IOU's
+     * transaction history.
+     * 貸し手がネッティングの調整役に最初に記述するIOU。IOUのトランザクション履歴なしで、ネッティングを計画するのに
+     * 十分な情報です。
+     */
+    @CordaSerializable
+    public static class LentIOU {
+        public final StateRef ref;
+        public final Party notary;
+        public final Party lender;
+        public final Party borrower;
+        public final long outstanding;
+
+        public LentIOU(StateRef ref, Party notary, Party lender, Party borrower, long outstanding) {
+            this.ref = ref;
+            this.notary = notary;
+            this.lender = lender;
+            this.borrower = borrower;
+            this.outstanding = outstanding;
+        }
+
+        public StateRef getRef() {
+            return ref;
+        }
+
+        public Party getNotary() {
+            return notary;
+        }
+
+        public Party getLender() {
+            return lender;
+        }
+
+        public Party getBorrower() {
+            return borrower;
+        }
+
+        public long getOutstanding() {
+            return outstanding;
+        }
+
+        // Returns an IOU with the same position, for planning the netting.
+        // ネッティングを計画するための、同じポジションを持つIOUを返します。
+        IOUState toIOU(Currency currency) {
+            return new IOUState(new Amount<>(outstanding, currency), lender, borrower);
+        }
+
+        // Returns whether [stateAndRef] is the IOU this describes.
+        // [stateAndRef]がこれが記述するIOUであるかどうかを返します。
+        boolean describes(StateAndRef<IOUState> stateAndRef, Currency currency) {
+            IOUState iou = stateAndRef.getState().getData();
+            return stateAndRef.getRef().equals(ref) && stateAndRef.getState().getNotary().equals(notary)
+                    && iou.lender.equals(lender) && iou.borrower.equals(borrower)
+                    && iou.amount.getToken().equals(currency) && iou.dueDate == null
+                    && iou.amount.getQuantity() - iou.paid.getQuantity() == outstanding;
+        }
+    }
+
+    // Keeps the description of an IOU, and joins its lender's and borrower's components.
+    // IOUの記述を保持し、貸し手と借り手の成分を結合します。
+    private static void gather(LentIOU iou, Map<Party, Map<StateRef, LentIOU>> iousByNotary, Map<Party, Party> components) {
+        iousByNotary.computeIfAbsent(iou.notary, notary -> new LinkedHashMap<>()).put(iou.ref, iou);
+        Party lenderRoot = find(components, iou.lender);
+        Party borrowerRoot = find(components, iou.borrower);
+        if (!lenderRoot.equals(borrowerRoot)) {
+            components.put(borrowerRoot, lenderRoot);
+        }
+    }
+
+    // Returns the party that stands for [party]'s component.
+    // [party]の成分を代表する当事者を返します。
+    private static Party find(Map<Party, Party> components, Party party) {
+        Party root = party;
+        while (components.containsKey(root)) {
+            root = components.get(root);
+        }
+        return root;
+    }
+
+    /**
+     * This is the flow which describes a party's IOUs to the netting coordinator, then sends the IOUs each netting
+     * transaction spends and signs it.
+     *これは、当事者のIOUをネッティングの調整役に記述し、その後各ネッティングトランザクションが使用するIOUを送って
+     *それに署名するフローです。
+     * The signing is handled by the [SignTransactionFlow]. Before signing, the party checks that every IOU is in the
+     * currency being netted, and that its own net position is the same after the transaction as before it.
+     *署名は[SignTransactionFlow]によって処理されます。署名する前に、パーティはすべてのIOUがネッティング対象の通貨で
+     *あること、および自身の純ポジションがトランザクションの前後で同じであることを確認します。
+     */
+    @InitiatedBy(IOUMultilateralNettingFlow.InitiatorFlow.class)
+    public static class Responder extends FlowLogic<Void> {
+
+        private final FlowSession otherPartyFlow;
+        private SecureHash txWeJustSignedId;
+
+        public Responder(FlowSession otherPartyFlow) {
+            this.otherPartyFlow = otherPartyFlow;
+        }
+
+        @Suspendable
+        @Override
+        public Void call() throws FlowException {
+            Currency currency = otherPartyFlow.receive(Currency.class).unwrap(it -> it);
+            @SuppressWarnings("unchecked")
+            List<Party> group = otherPartyFlow.receive(List.class).unwrap(it -> (List<Party>) it);
+
+            // Describe the IOUs we lend within the group, a page at a time, then send an empty page.
+            // グループ内で貸し付けているIOUを一度に1ページずつ記述し、最後に空のページを送ります。
+            for (int page = 1; ; page++) {
+                Vault.Page<IOUState> results = lentPage(getServiceHub(), getOurIdentity(), currency, page);
+                List<LentIOU> chunk = describe(results, getOurIdentity(), group);
+                if (!chunk.isEmpty()) {
+                    otherPartyFlow.send(chunk);
+                }
+                if ((long) page * InitiatorFlow.MAX_IOUS_PER_TRANSACTION >= results.getTotalStatesAvailable()) {
+                    break;
+                }
+            }
+            otherPartyFlow.send(Collections.emptyList());
+
+            class SignTxFlow extends SignTransactionFlow {
+                private SignTxFlow(FlowSession otherPartyFlow, ProgressTracker progressTracker) {
+                    super(otherPartyFlow, progressTracker);
+                }
+
+                @Override
+                protected void checkTransaction(SignedTransaction stx) throws FlowException {
+                    LedgerTransaction ltx;
+                    try {
+                        ltx = stx.toLedgerTransaction(getServiceHub(), false);
+                    } catch (SignatureException e) {
+                        throw new FlowException("The netting transaction could not be resolved.", e);
+                    }
+                    Party us = getOurIdentity();
+                    // Reserve our IOUs being netted, so that we don't spend them in another flow while this one runs.
+                    // このフローの実行中に別のフローでそれらを使用しないように、ネッティングされる自分のIOUを予約します。
+                    reserveOurs(getServiceHub(), getRunId().getUuid(), ltx.getInputs());
+                    List<IOUState> inputs = ltx.inputsOfType(IOUState.class);
+                    List<IOUState> outputs = ltx.outputsOfType(IOUState.class);
+                    requireThat(require -> {
+                        boolean isNetting = stx.getTx().getCommands().stream()
+                                .anyMatch(command -> command.getValue() instanceof IOUContract.Commands.MultilateralNet);
+                        require.using("This must be an IOU multilateral netting transaction", isNetting);
+                        boolean inCurrency = inputs.stream().allMatch(iou -> iou.amount.getToken().equals(currency))
+                                && outputs.stream().allMatch(iou -> iou.amount.getToken().equals(currency));
+                        require.using("Every IOU must be in the currency being netted", inCurrency);
+                        require.using("Netting must leave our net position unchanged",
+                                position(inputs, us) == position(outputs, us));
+                        require.using("Residual IOUs must have no due date or instalments", outputs.stream()
+                                .allMatch(iou -> iou.dueDate == null && iou.instalment == null && iou.instalmentInterval == null));
+                        return null;
+                    });
+                    // Once the transaction has verified, initialize txWeJustSignedID variable.
+                    //トランザクションが検証されたら、txWeJustSignedID変数を初期化します。
+                    txWeJustSignedId = stx.getId();
+                }
+            }
+
+            // For each of the netting transactions we are a party to, until told there are no more, send the IOUs we
+            // lend that it spends, along with their transaction histories, then sign and record it.
+            // これ以上ないと伝えられるまで、自分が当事者である各ネッティングトランザクションについて、それが使用する
+            // 自分の貸し付けたIOUをそのトランザクション履歴とともに送り、その後それに署名して記録します。
+            while (otherPartyFlow.receive(Boolean.class).unwrap(it -> it)) {
+                @SuppressWarnings("unchecked")
+                List<StateRef> requested = otherPartyFlow.receive(List.class).unwrap(it -> (List<StateRef>) it);
+                subFlow(new SendStateAndRefFlow(otherPartyFlow, lentRequested(requested, group, currency)));
+                subFlow(new SignTxFlow(otherPartyFlow, SignTransactionFlow.Companion.tracker()));
+                subFlow(new ReceiveFinalityFlow(otherPartyFlow, txWeJustSignedId));
+            }
+            return null;
+        }
+
+        // Returns the [requested] IOUs, which must be unconsumed IOUs in [currency] without a due date that we lend to
+        // the other parties of [group].
+        // [requested]のIOUを返します。それらは、自分が[group]の他の当事者に貸し付けている、期日のない[currency]建ての
+        // 未消費のIOUでなければなりません。
+        private List<StateAndRef<IOUState>> lentRequested(List<StateRef> requested, List<Party> group, Currency currency) throws FlowException {
+            if (requested.isEmpty()) {
+                return Collections.emptyList();
+            }
+            if (requested.size() > InitiatorFlow.MAX_IOUS_PER_TRANSACTION) {
+                throw new FlowException("More than " + InitiatorFlow.MAX_IOUS_PER_TRANSACTION + " IOUs were requested at once.");
+            }
+            QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED, null, requested);
+            List<StateAndRef<IOUState>> found = getServiceHub().getVaultService().queryBy(IOUState.class, criteria,
+                    new PageSpecification(DEFAULT_PAGE_NUM, InitiatorFlow.MAX_IOUS_PER_TRANSACTION)).getStates();
+            Set<StateRef> lent = new HashSet<>();
+            for (LentIOU iou: describe(found, getOurIdentity(), group)) {
+                lent.add(iou.ref);
+            }
+            if (!lent.containsAll(requested)) {
+                throw new FlowException("The IOUs requested are not all unconsumed IOUs we lend within the group.");
+            }
+            Map<StateRef, StateAndRef<IOUState>> byRef = new HashMap<>();
+            for (StateAndRef<IOUState> stateAndRef: found) {
+                byRef.put(stateAndRef.getRef(), stateAndRef);
+            }
+            List<StateAndRef<IOUState>> ious = new ArrayList<>();
+            for (StateRef ref: requested) {
+                ious.add(byRef.get(ref));
+            }
+            return ious;
+        }
+    }
+
+    /**
+     * Returns the net position of [party] on [ious]: what it is owed less what it owes.
+     * [ious]における[party]の純ポジション、つまり債権から債務を差し引いた額を返します。
+     */
+    static long position(List<IOUState> ious, Party party) {
+        long position = 0;
+        for (IOUState iou: ious) {
+            long outstanding = iou.amount.getQuantity() - iou.paid.getQuantity();
+            if (iou.lender.equals(party)) {
+                position = Math.addExact(position, outstanding);
+            } else if (iou.borrower.equals(party)) {
+                position = Math.subtractExact(position, outstanding);
+            }
+        }
+        return position;
+    }
+
+    // Soft-locks the [inputs] our node is a party to; the others are not in our vault.
+    // 自分のノードが当事者である[inputs]をソフトロックします。それ以外はボールトにありません。
+    private static void reserveOurs(ServiceHub serviceHub, UUID lockId, List<? extends StateAndRef<?>> inputs) throws StatesNotAvailableException {
+        Set<StateRef> ours = new LinkedHashSet<>();
+        for (StateAndRef<?> input: inputs) {
+            for (AbstractParty participant: input.getState().getData().getParticipants()) {
+                if (serviceHub.getMyInfo().getLegalIdentities().contains(participant)) {
+                    ours.add(input.getRef());
+                }
+            }
+        }
+        if (!ours.isEmpty()) {
+            serviceHub.getVaultService().softLockReserve(lockId, NonEmptySet.copyOf(ours));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static StateAndRef<IOUState> asIOU(StateAndRef<ContractState> stateAndRef) {
+        return (StateAndRef<IOUState>) (StateAndRef<?>) stateAndRef;
+    }
+
+    /**
+     * Returns the [page]th page of the unconsumed IOUs in [currency] that [lender] lends.
+     * [lender]が貸し付けている[currency]建ての未消費のIOUの[page]番目のページを返します。
+     */
+    private static Vault.Page<IOUState> lentPage(ServiceHub serviceHub, Party lender, Currency currency, int page) {
+        QueryCriteria criteria;
+        try {
+            criteria = new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(IOUSchemaV1.PersistentIOU.class.getDeclaredField("lender"), lender.getName().toString()))
+                    .and(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(IOUSchemaV1.PersistentIOU.class.getDeclaredField("currency"), currency.getCurrencyCode())));
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        }
+        return serviceHub.getVaultService().queryBy(IOUState.class, criteria, new PageSpecification(page, InitiatorFlow.MAX_IOUS_PER_TRANSACTION));
+    }
+
+    /**
+     * Describes the IOUs of [page] without a due date that [lender] lends to the other parties of [group].
+     * [page]のIOUのうち、[lender]が[group]の他の当事者に貸し付けている期日のないものを記述します。
+     */
+    private static List<LentIOU> describe(Vault.Page<IOUState> page, Party lender, List<Party> group) {
+        return describe(page.getStates(), lender, group);
+    }
+
+    private static List<LentIOU> describe(List<StateAndRef<IOUState>> states, Party lender, List<Party> group) {
+        List<LentIOU> ious = new ArrayList<>();
+        for (StateAndRef<IOUState> stateAndRef: states) {
+            IOUState iou = stateAndRef.getState().getData();
+            if (iou.lender.equals(lender) && group.contains(iou.borrower) && !iou.borrower.equals(lender) && iou.dueDate == null) {
+                ious.add(new LentIOU(stateAndRef.getRef(), stateAndRef.getState().getNotary(), iou.lender, iou.borrower,
+                        iou.amount.getQuantity() - iou.paid.getQuantity()));
+            }
+        }
+        return ious;
+    }
+
+}
@@ -0,0 +1,266 @@
+package net.corda.training.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.transactions.LedgerTransaction;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.NonEmptySet;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.training.contract.IOUContract;
+import net.corda.training.schema.IOUSchemaV1;
+import net.corda.training.state.IOUState;
+
+import java.lang.reflect.Field;
+import java.security.SignatureException;
+import java.util.*;
+
+import static net.corda.core.contracts.ContractsDSL.requireThat;
+
+public class IOUNettingFlow {
+
+    /**
+     * This is the flow which nets the IOUs we and a counterparty owe each other in one currency.
+     *これは、自分と取引相手が1つの通貨で互いに負うIOUをネッティングするフローです。
+     * Every unconsumed IOU between the two parties in the currency is consumed, and at most one residual IOU for the net
+     * amount is created, owed to the party that was owed more. No cash moves.
+     *その通貨での2者間のすべての未消費のIOUが消費され、より多くの債権を持つ当事者に対する純額の残余IOUが最大1つ作成されます。
+     *現金は移動しません。
+     * A transaction can only spend IOUs held at its own notary, so the IOUs are netted in one transaction per notary.
+     * The IOUs at a notary where they do not offset each other are left as they are.
+     *トランザクションは自身の公証人で保有されているIOUしか使用できないため、IOUは公証人ごとに1つのトランザクションで
+     *ネッティングされます。互いに相殺されない公証人のIOUはそのまま残されます。
+     * IOUs with a due date are left out, as the residual IOU could not keep their schedules; they are settled when due.
+     *期日を持つIOUは、残余IOUがその支払予定を引き継げないため除外され、期日に決済されます。
+     * The flow returns the [SignedTransaction]s that were committed to the ledger, one per notary.
+     *フローは、レジャーにコミットされた[SignedTransaction]を公証人ごとに1つずつ返します。
+     */
+    @InitiatingFlow
+    @StartableByRPC
+    public static class InitiatorFlow extends FlowLogic<List<SignedTransaction>> {
+
+        private static final int PAGE_SIZE = 1000;
+
+        private final Party counterparty;
+        private final Currency currency;
+
+        public InitiatorFlow(Party counterparty, Currency currency) {
+            this.counterparty = counterparty;
+            this.currency = currency;
+        }
+
+        @Suspendable
+        @Override
+        public List<SignedTransaction> call() throws FlowException {
+            Party me = getOurIdentity();
+
+            // 1. Retrieve the unconsumed IOUs in the currency between us and the counterparty from the vault, and keep
+            //    those without a due date, grouped by notary.
+            // 1.ボールトから自分と取引相手の間のその通貨の未消費のIOUを取得し、期日のないものを公証人ごとに保持します。
+            String us = me.getName().toString();
+            String them = counterparty.getName().toString();
+            QueryCriteria criteria = new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(iouColumn("currency"), currency.getCurrencyCode()))
+                    .and(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(iouColumn("lender"), us))
+                            .and(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(iouColumn("borrower"), them)))
+                            .or(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(iouColumn("lender"), them))
+                                    .and(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(iouColumn("borrower"), us)))));
+            Map<Party, List<StateAndRef<IOUState>>> iousByNotary = new LinkedHashMap<>();
+            for (int page = 1; ; page++) {
+                Vault.Page<IOUState> results = getServiceHub().getVaultService().queryBy(IOUState.class, criteria, new PageSpecification(page, PAGE_SIZE));
+                for (StateAndRef<IOUState> stateAndRef: results.getStates()) {
+                    if (stateAndRef.getState().getData().dueDate == null) {
+                        iousByNotary.computeIfAbsent(stateAndRef.getState().getNotary(), notary -> new ArrayList<>()).add(stateAndRef);
+                    }
+                }
+                if ((long) page * PAGE_SIZE >= results.getTotalStatesAvailable()) {
+                    break;
+                }
+            }
+
+            // 2. Net the IOUs at each notary where they offset each other.
+            // 2.IOUが互いに相殺される各公証人で、それらをネッティングします。
+            List<SignedTransaction> nettings = new ArrayList<>();
+            for (Map.Entry<Party, List<StateAndRef<IOUState>>> notaryIOUs: iousByNotary.entrySet()) {
+                List<IOUState> ious = new ArrayList<>();
+                for (StateAndRef<IOUState> stateAndRef: notaryIOUs.getValue()) {
+                    ious.add(stateAndRef.getState().getData());
+                }
+                if (owed(ious, me, counterparty) > 0 && owed(ious, counterparty, me) > 0) {
+                    nettings.add(net(notaryIOUs.getKey(), notaryIOUs.getValue(), residual(ious, me, counterparty, currency)));
+                }
+            }
+            if (nettings.isEmpty()) {
+                throw new IllegalArgumentException("There are no offsetting IOUs to net with the counterparty.");
+            }
+            return nettings;
+        }
+
+        // Consumes every IOU and adds the residual IOU, if any, then has the transaction signed and finalised.
+        // すべてのIOUを消費し、残余IOUがあれば追加してから、トランザクションに署名させて確定します。
+        @Suspendable
+        private SignedTransaction net(Party notary, List<StateAndRef<IOUState>> inputStateAndRefs, IOUState residual) throws FlowException {
+            Party me = getOurIdentity();
+
+            // 3. Reserve the IOUs, so that a settlement or transfer running at the same time can't spend them, then
+            //    consume every IOU and add a residual IOU for the net amount, unless they net to zero.
+            // 3.同時に実行される決済や譲渡がそれらを使用できないようにIOUを予約してから、すべてのIOUを消費し、
+            //    ゼロにならない限り純額の残余IOUを追加します。
+            Set<StateRef> refs = new LinkedHashSet<>();
+            for (StateAndRef<IOUState> stateAndRef: inputStateAndRefs) {
+                refs.add(stateAndRef.getRef());
+            }
+            getServiceHub().getVaultService().softLockReserve(getRunId().getUuid(), NonEmptySet.copyOf(refs));
+            TransactionBuilder tb = new TransactionBuilder(notary);
+            for (StateAndRef<IOUState> stateAndRef: inputStateAndRefs) {
+                tb.addInputState(stateAndRef);
+            }
+            if (residual != null) {
+                tb.addOutputState(residual, IOUContract.IOU_CONTRACT_ID);
+            }
+            tb.addCommand(new Command<>(new IOUContract.Commands.Net(), Arrays.asList(me.getOwningKey(), counterparty.getOwningKey())));
+
+            // 4. Verify and sign the transaction, then collect the counterparty's signature.
+            // 4.トランザクションを検証して署名し、取引相手の署名を収集します。
+            tb.verify(getServiceHub());
+            SignedTransaction stx = getServiceHub().signInitialTransaction(tb);
+            List<FlowSession> sessions = Collections.singletonList(initiateFlow(counterparty));
+            SignedTransaction fullySignedTransaction = subFlow(new CollectSignaturesFlow(stx, sessions));
+
+            // 5. Notarise and record the transaction in both vaults.
+            // 5.公証し、両方のボールトにトランザクションを記録します。
+            return subFlow(new TimedFinalityFlow(fullySignedTransaction, sessions));
+        }
+
+        private static Field iouColumn(String column) {
+            try {
+                return IOUSchemaV1.PersistentIOU.class.getDeclaredField(column);
+            } catch (NoSuchFieldException e) {
+                throw new IllegalArgumentException("Unknown IOU column " + column + ".");
+            }
+        }
+    }
+
+    /**
+     * Returns the total outstanding on the [ious] that [borrower] owes [lender].
+     * [borrower]が[lender]に負う[ious]の未払い合計を返します。
+     */
+    static long owed(List<IOUState> ious, Party lender, Party borrower) {
+        long owed = 0;
+        for (IOUState iou: ious) {
+            if (iou.lender.equals(lender) && iou.borrower.equals(borrower)) {
+                owed = Math.addExact(owed, iou.amount.getQuantity() - iou.paid.getQuantity());
+            }
+        }
+        return owed;
+    }
+
+    /**
+     * Returns the IOU for the net amount [ious] leave owed between [us] and [counterparty], or null if they net to zero.
+     * [ious]によって[us]と[counterparty]の間に残る純額のIOUを返します。ゼロになる場合はnullです。
+     */
+    static IOUState residual(List<IOUState> ious, Party us, Party counterparty, Currency currency) {
+        long net = Math.subtractExact(owed(ious, us, counterparty), owed(ious, counterparty, us));
+        if (net > 0) {
+            return new IOUState(new Amount<>(net, currency), us, counterparty);
+        } else if (net < 0) {
+            return new IOUState(new Amount<>(-net, currency), counterparty, us);
+        }
+        return null;
+    }
+
+    /**
+     * This is the flow which signs IOU netting transactions.
+     *これは、IOUのネッティングトランザクションに署名するフローです。
+     * The signing is handled by the [SignTransactionFlow]. Before signing, the party works out its own net position from
+     * the IOUs being consumed, and checks that they are all between it and the initiator, in one currency, and that the
+     * residual IOU is for exactly that net position.
+     *署名は[SignTransactionFlow]によって処理されます。署名する前に、パーティは消費されるIOUから自身の純ポジションを
+     *計算し、それらがすべて自分とイニシエーターの間の1つの通貨のものであり、残余IOUがちょうどその純ポジションで
+     *あることを確認します。
+     */
+    @InitiatedBy(IOUNettingFlow.InitiatorFlow.class)
+    public static class Responder extends FlowLogic<SignedTransaction> {
+
+        private final FlowSession otherPartyFlow;
+        private SecureHash txWeJustSignedId;
+
+        public Responder(FlowSession otherPartyFlow) {
+            this.otherPartyFlow = otherPartyFlow;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            class SignTxFlow extends SignTransactionFlow {
+                private SignTxFlow(FlowSession otherPartyFlow, ProgressTracker progressTracker) {
+                    super(otherPartyFlow, progressTracker);
+                }
+
+                @Override
+                protected void checkTransaction(SignedTransaction stx) throws FlowException {
+                    LedgerTransaction ltx;
+                    try {
+                        ltx = stx.toLedgerTransaction(getServiceHub(), false);
+                    } catch (SignatureException e) {
+                        throw new FlowException("The netting transaction could not be resolved.", e);
+                    }
+                    // Reserve the IOUs being netted, so that we don't spend them in another flow while this one runs.
+                    // このフローの実行中に別のフローでそれらを使用しないように、ネッティングされるIOUを予約します。
+                    getServiceHub().getVaultService().softLockReserve(getRunId().getUuid(),
+                            NonEmptySet.copyOf(new LinkedHashSet<>(stx.getTx().getInputs())));
+                    Party us = getOurIdentity();
+                    Party initiator = otherPartyFlow.getCounterparty();
+                    List<IOUState> inputs = ltx.inputsOfType(IOUState.class);
+                    List<IOUState> outputs = ltx.outputsOfType(IOUState.class);
+                    requireThat(require -> {
+                        boolean isNetting = stx.getTx().getCommands().stream()
+                                .anyMatch(command -> command.getValue() instanceof IOUContract.Commands.Net);
+                        require.using("This must be an IOU netting transaction", isNetting);
+                        require.using("Only IOUs may be netted", inputs.size() == ltx.getInputs().size() && !inputs.isEmpty());
+                        Currency currency = inputs.get(0).amount.getToken();
+                        for (IOUState input: inputs) {
+                            require.using("Every netted IOU must be between us and the initiator",
+                                    (input.lender.equals(us) && input.borrower.equals(initiator))
+                                            || (input.lender.equals(initiator) && input.borrower.equals(us)));
+                            require.using("Every netted IOU must be in one currency", input.amount.getToken().equals(currency));
+                        }
+                        IOUState expected = residual(inputs, us, initiator, currency);
+                        if (expected == null) {
+                            require.using("IOUs that net to zero must leave no residual IOU", outputs.isEmpty());
+                        } else {
+                            require.using("There must be one residual IOU", outputs.size() == 1);
+                            IOUState output = outputs.get(0);
+                            require.using("The residual IOU must be for our net position",
+                                    output.lender.equals(expected.lender) && output.borrower.equals(expected.borrower)
+                                            && output.amount.equals(expected.amount) && output.paid.getQuantity() == 0);
+                            require.using("The residual IOU must have no due date or instalments", output.hasSameSchedule(expected));
+                        }
+                        return null;
+                    });
+                    // Once the transaction has verified, initialize txWeJustSignedID variable.
+                    //トランザクションが検証されたら、txWeJustSignedID変数を初期化します。
+                    txWeJustSignedId = stx.getId();
+                }
+            }
+
+            // Create and run a sign transaction flow to sign the transaction
+            //署名トランザクションフローを作成して実行し、トランザクションに署名します
+            subFlow(new SignTxFlow(otherPartyFlow, SignTransactionFlow.Companion.tracker()));
+
+            // Run the ReceiveFinalityFlow to finalize the transaction and persist it to the vault.
+            // ReceiveFinalityFlowを実行してトランザクションを終了し、ボールトに永続化します。
+            return subFlow(new ReceiveFinalityFlow(otherPartyFlow, txWeJustSignedId));
+        }
+    }
+
+}
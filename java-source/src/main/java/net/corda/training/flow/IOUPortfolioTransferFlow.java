@@ -0,0 +1,221 @@
+package net.corda.training.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.transactions.LedgerTransaction;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.training.contract.IOUContract;
+import net.corda.training.state.IOUState;
+
+import java.security.PublicKey;
+import java.security.SignatureException;
+import java.util.*;
+
+import static net.corda.core.contracts.ContractsDSL.requireThat;
+
+public class IOUPortfolioTransferFlow {
+
+    /**
+     * This is the flow which transfers a whole portfolio of IOUs to a new lender in a single transaction.
+     *これは、IOUのポートフォリオ全体を単一のトランザクションで新しい貸し手に譲渡するフローです。
+     * The portfolio is given either as a list of linear ids or as vault query criteria, and every IOU in it must be
+     * lent by the party running the flow. Each distinct borrower, and the new lender, is asked to sign once however many
+     * of their IOUs are being transferred.
+     *ポートフォリオはlinearIdのリストまたはボールトのクエリ条件として指定され、その中のすべてのIOUはフローを実行する
+     *パーティが貸し手である必要があります。各借り手と新しい貸し手は、譲渡されるIOUの数に関係なく一度だけ署名を求められます。
+     * The transaction is kept to a size every party can sign and the notary can accept, so a portfolio of more than
+     * [MAX_IOUS_PER_TRANSACTION] IOUs is rejected and must be transferred in parts.
+     *トランザクションはすべての当事者が署名でき、公証人が受け入れられるサイズに保たれるため、
+     *[MAX_IOUS_PER_TRANSACTION]を超えるIOUのポートフォリオは拒否され、分割して譲渡する必要があります。
+     * The flow returns the [SignedTransaction] that was committed to the ledger.
+     *フローは、レジャーにコミットされた[SignedTransaction]を返します。
+     */
+    @InitiatingFlow
+    @StartableByRPC
+    public static class InitiatorFlow extends FlowLogic<SignedTransaction> {
+
+        public static final int MAX_IOUS_PER_TRANSACTION = 500;
+
+        private final QueryCriteria criteria;
+        private final int expectedCount;
+        private final Party newLender;
+
+        public InitiatorFlow(List<UniqueIdentifier> linearIds, Party newLender) {
+            List<UUID> uuids = new ArrayList<>();
+            for (UniqueIdentifier linearId: linearIds) {
+                uuids.add(linearId.getId());
+            }
+            this.criteria = new QueryCriteria.LinearStateQueryCriteria(null, uuids);
+            this.expectedCount = uuids.size();
+            this.newLender = newLender;
+        }
+
+        /**
+         * Transfers every unconsumed IOU matching [criteria].
+         * [criteria]に一致するすべての未消費のIOUを譲渡します。
+         */
+        public InitiatorFlow(QueryCriteria criteria, Party newLender) {
+            this.criteria = criteria;
+            this.expectedCount = -1;
+            this.newLender = newLender;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+
+            // 1. Retrieve the portfolio from the vault, which must fit in one transaction.
+            // 1.ボールトからポートフォリオを取得します。ポートフォリオは1つのトランザクションに収まる必要があります。
+            Vault.Page<IOUState> results = getServiceHub().getVaultService().queryBy(IOUState.class, criteria,
+                    new PageSpecification(1, MAX_IOUS_PER_TRANSACTION));
+            if (results.getTotalStatesAvailable() > MAX_IOUS_PER_TRANSACTION) {
+                throw new IllegalArgumentException("A portfolio of more than " + MAX_IOUS_PER_TRANSACTION
+                        + " IOUs must be transferred in parts.");
+            }
+            List<StateAndRef<IOUState>> inputStateAndRefs = results.getStates();
+            if (inputStateAndRefs.isEmpty()) {
+                throw new IllegalArgumentException("There are no IOUs to transfer.");
+            } else if (expectedCount >= 0 && inputStateAndRefs.size() != expectedCount) {
+                throw new IllegalArgumentException("Not all of the IOUs to transfer could be found in the vault.");
+            }
+
+            // 2. Check we are the lender of every IOU, and that they share a notary, which must notarise their spending.
+            // 2.すべてのIOUの貸し手が自分であること、およびその使用を公証する公証人を共有していることを確認します。
+            Party notary = inputStateAndRefs.get(0).getState().getNotary();
+            Set<Party> borrowers = new LinkedHashSet<>();
+            for (StateAndRef<IOUState> stateAndRef: inputStateAndRefs) {
+                IOUState inputState = stateAndRef.getState().getData();
+                if (!inputState.lender.getOwningKey().equals(getOurIdentity().getOwningKey())) {
+                    throw new IllegalArgumentException("This flow must be run by the current lender.");
+                } else if (!stateAndRef.getState().getNotary().equals(notary)) {
+                    throw new IllegalArgumentException("All IOUs transferred together must have the same notary.");
+                }
+                borrowers.add(inputState.borrower);
+            }
+
+            // 3. Build one transaction moving every IOU to the new lender, with one Transfer command signed by all parties.
+            // 3.すべてのIOUを新しい貸し手に移す1つのトランザクションを、全当事者が署名する1つのTransferコマンドで構築します。
+            TransactionBuilder tb = new TransactionBuilder(notary);
+            for (StateAndRef<IOUState> stateAndRef: inputStateAndRefs) {
+                tb.addInputState(stateAndRef);
+                tb.addOutputState(stateAndRef.getState().getData().withNewLender(newLender), IOUContract.IOU_CONTRACT_ID);
+            }
+            Set<PublicKey> requiredSigners = new LinkedHashSet<>();
+            requiredSigners.add(getOurIdentity().getOwningKey());
+            requiredSigners.add(newLender.getOwningKey());
+            for (Party borrower: borrowers) {
+                requiredSigners.add(borrower.getOwningKey());
+            }
+            tb.addCommand(new Command<>(new IOUContract.Commands.Transfer(), new ArrayList<>(requiredSigners)));
+
+            // 4. Verify and sign the transaction
+            // 4.トランザクションを検証して署名します
+            tb.verify(getServiceHub());
+            SignedTransaction partiallySignedTransaction = getServiceHub().signInitialTransaction(tb);
+
+            // 5. Collect the signature of every distinct borrower and of the new lender, opening one session per party.
+            // 5.パーティごとに1つのセッションを開いて、各借り手と新しい貸し手の署名を収集します。
+            Set<Party> counterparties = new LinkedHashSet<>(borrowers);
+            counterparties.add(newLender);
+            List<FlowSession> sessions = new ArrayList<>();
+            for (Party counterparty: counterparties) {
+                sessions.add(initiateFlow(counterparty));
+            }
+            SignedTransaction fullySignedTransaction = subFlow(new CollectSignaturesFlow(partiallySignedTransaction, sessions));
+
+            // 6. Notarise and record the transaction in the vaults of all the parties.
+            // 6.公証し、すべての当事者のボールトにトランザクションを記録します。
+            return subFlow(new TimedFinalityFlow(fullySignedTransaction, sessions));
+        }
+    }
+
+    /**
+     * This is the flow which signs portfolio transfers, for the borrowers and the new lender.
+     *これは、借り手と新しい貸し手のためにポートフォリオの譲渡に署名するフローです。
+     * The signing is handled by the [SignTransactionFlow]. As the new lender, the party checks that it becomes the lender
+     * of every IOU, and as a borrower, that nothing but the lender of its IOUs is changed.
+     *署名は[SignTransactionFlow]によって処理されます。新しい貸し手としては、すべてのIOUの貸し手になることを確認し、
+     *借り手としては、自分のIOUの貸し手以外に何も変更されていないことを確認します。
+     */
+    @InitiatedBy(IOUPortfolioTransferFlow.InitiatorFlow.class)
+    public static class Responder extends FlowLogic<SignedTransaction> {
+
+        private final FlowSession otherPartyFlow;
+        private SecureHash txWeJustSignedId;
+
+        public Responder(FlowSession otherPartyFlow) {
+            this.otherPartyFlow = otherPartyFlow;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            class SignTxFlow extends SignTransactionFlow {
+                private SignTxFlow(FlowSession otherPartyFlow, ProgressTracker progressTracker) {
+                    super(otherPartyFlow, progressTracker);
+                }
+
+                @Override
+                protected void checkTransaction(SignedTransaction stx) throws FlowException {
+                    LedgerTransaction ltx;
+                    try {
+                        ltx = stx.toLedgerTransaction(getServiceHub(), false);
+                    } catch (SignatureException e) {
+                        throw new FlowException("The transfer transaction could not be resolved.", e);
+                    }
+                    Party us = getOurIdentity();
+                    Map<UniqueIdentifier, IOUState> inputs = new HashMap<>();
+                    for (IOUState input: ltx.inputsOfType(IOUState.class)) {
+                        inputs.put(input.getLinearId(), input);
+                    }
+                    List<IOUState> outputs = ltx.outputsOfType(IOUState.class);
+                    requireThat(require -> {
+                        boolean isTransfer = stx.getTx().getCommands().stream()
+                                .anyMatch(command -> command.getValue() instanceof IOUContract.Commands.Transfer);
+                        require.using("This must be an IOU transfer transaction", isTransfer);
+                        require.using("Every IOU must be transferred exactly once", outputs.size() == inputs.size());
+                        boolean weAreNewLender = outputs.stream().anyMatch(output -> output.lender.equals(us));
+                        for (IOUState output: outputs) {
+                            IOUState input = inputs.get(output.getLinearId());
+                            require.using("Every output must transfer one of the input IOUs", input != null);
+                            if (weAreNewLender) {
+                                // As the new lender, we must become the lender of every IOU.
+                                //新しい貸し手として、すべてのIOUの貸し手になる必要があります。
+                                require.using("We must become the lender of every IOU", output.lender.equals(us));
+                            } else if (input.borrower.equals(us)) {
+                                // As a borrower, only the lender of our IOUs may change.
+                                //借り手として、変更してよいのは自分のIOUの貸し手だけです。
+                                require.using("Only the lender of our IOUs may change",
+                                        output.borrower.equals(us) && output.amount.equals(input.amount)
+                                                && output.paid.equals(input.paid) && output.hasSameSchedule(input));
+                            }
+                        }
+                        return null;
+                    });
+                    // Once the transaction has verified, initialize txWeJustSignedID variable.
+                    //トランザクションが検証されたら、txWeJustSignedID変数を初期化します。
+                    txWeJustSignedId = stx.getId();
+                }
+            }
+
+            // Create and run a sign transaction flow to sign the transaction
+            //署名トランザクションフローを作成して実行し、トランザクションに署名します
+            subFlow(new SignTxFlow(otherPartyFlow, SignTransactionFlow.Companion.tracker()));
+
+            // Run the ReceiveFinalityFlow to finalize the transaction and persist it to the vault.
+            // ReceiveFinalityFlowを実行してトランザクションを終了し、ボールトに永続化します。
+            return subFlow(new ReceiveFinalityFlow(otherPartyFlow, txWeJustSignedId));
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+package net.corda.training.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.flows.*;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.*;
+import net.corda.core.utilities.NonEmptySet;
+import net.corda.finance.contracts.asset.Cash;
+import net.corda.finance.schemas.CashSchemaV1;
+import net.corda.training.service.CashBalanceService;
+
+import java.lang.reflect.Field;
+import java.util.*;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+
+/**
+ * Moves enough of our cash in the currency of [amount] to [notary] for a payment of [amount] to be made there.
+ * [amount]の支払いを[notary]で行えるように、[amount]の通貨の現金を十分に[notary]へ移します。
+ * A transaction can only spend states held at its own notary, and an IOU can only be settled at the IOU's notary, while
+ * our cash may be held at any of the network's notaries. If [notary] holds less than [amount], the largest unlocked cash
+ * states at the other notaries, up to [MAX_STATES_MOVED], are moved to it with the [NotaryChangeFlow] until it holds
+ * enough. The moved states are reserved for this flow first, so a concurrent spend cannot take them.
+ * トランザクションは自身の公証人で保有されている状態しか使用できず、IOUはIOUの公証人でしか決済できませんが、現金は
+ * ネットワークのどの公証人でも保有されている可能性があります。[notary]の保有額が[amount]未満の場合、他の公証人にある
+ * ロックされていない最大の現金状態を最大[MAX_STATES_MOVED]個、十分になるまで[NotaryChangeFlow]で移します。
+ * 移す状態は最初にこのフローのために予約されるため、並行する支出がそれらを取ることはできません。
+ * The flow returns the moved cash states, which is empty if [notary] already held enough.
+ * フローは移された現金状態を返します。[notary]がすでに十分に保有していた場合は空です。
+ */
+public class MoveCashToNotaryFlow extends FlowLogic<List<StateAndRef<Cash.State>>> {
+
+    public static final int MAX_STATES_MOVED = 50;
+
+    private final Amount<Currency> amount;
+    private final Party notary;
+
+    public MoveCashToNotaryFlow(Amount<Currency> amount, Party notary) {
+        this.amount = amount;
+        this.notary = notary;
+    }
+
+    @Suspendable
+    @Override
+    public List<StateAndRef<Cash.State>> call() throws FlowException {
+        Currency currency = amount.getToken();
+        long shortfall = amount.getQuantity() - getServiceHub().cordaService(CashBalanceService.class).getCashBalance(currency, notary).getQuantity();
+        if (shortfall <= 0) {
+            return Collections.emptyList();
+        }
+
+        // 1. Find the largest unlocked cash states in the currency held at the other notaries.
+        // 1.他の公証人で保有されている、その通貨で最大のロックされていない現金状態を見つけます。
+        List<AbstractParty> otherNotaries = new ArrayList<>();
+        for (Party other: getServiceHub().getNetworkMapCache().getNotaryIdentities()) {
+            if (!other.equals(notary)) {
+                otherNotaries.add(other);
+            }
+        }
+        if (otherNotaries.isEmpty()) {
+            throw new IllegalArgumentException("Borrower doesn't have enough cash to settle with the amount specified.");
+        }
+        QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED, null, null, otherNotaries,
+                new QueryCriteria.SoftLockingCondition(QueryCriteria.SoftLockingType.UNLOCKED_ONLY, Collections.emptyList()))
+                .and(new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(cashColumn("currency"), currency.getCurrencyCode())));
+        Sort largestFirst = new Sort(Collections.singleton(new Sort.SortColumn(
+                new SortAttribute.Custom(CashSchemaV1.PersistentCashState.class, "pennies"), Sort.Direction.DESC)));
+        List<StateAndRef<Cash.State>> candidates = getServiceHub().getVaultService().queryBy(Cash.State.class, criteria,
+                new PageSpecification(DEFAULT_PAGE_NUM, MAX_STATES_MOVED), largestFirst).getStates();
+
+        // 2. Take states until they cover the shortfall, and reserve them.
+        // 2.不足分をまかなうまで状態を取り、それらを予約します。
+        List<StateAndRef<Cash.State>> toMove = new ArrayList<>();
+        Set<StateRef> refs = new LinkedHashSet<>();
+        for (StateAndRef<Cash.State> candidate: candidates) {
+            if (shortfall <= 0) {
+                break;
+            }
+            toMove.add(candidate);
+            refs.add(candidate.getRef());
+            shortfall -= candidate.getState().getData().getAmount().getQuantity();
+        }
+        if (shortfall > 0) {
+            throw new IllegalArgumentException("Borrower doesn't have enough cash to settle with the amount specified.");
+        }
+        getServiceHub().getVaultService().softLockReserve(getRunId().getUuid(), NonEmptySet.copyOf(refs));
+
+        // 3. Move each state to the notary. We are the only participant, so only the old notary has to agree.
+        // 3.各状態を公証人に移します。参加者は自分だけなので、元の公証人だけが同意する必要があります。
+        List<StateAndRef<Cash.State>> moved = new ArrayList<>();
+        for (StateAndRef<Cash.State> stateAndRef: toMove) {
+            moved.add(subFlow(new NotaryChangeFlow<>(stateAndRef, notary, AbstractStateReplacementFlow.Instigator.Companion.tracker())));
+        }
+        return moved;
+    }
+
+    private static Field cashColumn(String column) {
+        try {
+            return CashSchemaV1.PersistentCashState.class.getDeclaredField(column);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalArgumentException("Unknown cash column " + column + ".");
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package net.corda.training.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.crypto.TransactionSignature;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.node.StatesToRecord;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.WireTransaction;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.training.service.FlowMetricsService;
+import net.corda.training.service.NotarySelectionService;
+
+import java.security.SignatureException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finalises a transaction the way the [FinalityFlow] does, but obtains the notary's signature as a step of its own, so
+ * that only the time the notary took is reported to the [NotarySelectionService] and to RPC clients tracking [NOTARISING].
+ * Timing the whole [FinalityFlow] would also count recording the transaction and sending it to every counterparty.
+ * [FinalityFlow]と同じ方法でトランザクションを確定しますが、公証人の署名を独自のステップで取得するため、公証人に
+ * かかった時間だけが[NotarySelectionService]と[NOTARISING]を追跡するRPCクライアントに報告されます。[FinalityFlow]全体を
+ * 計測すると、トランザクションの記録とすべての取引相手への送信も含まれてしまいます。
+ * The transaction is verified once, before it is notarised, and the notary is asked to skip verifying it again. It is
+ * then recorded and sent to the [sessions] with the [SendTransactionFlow], which the counterparties receive with the
+ * [ReceiveFinalityFlow] as they would from the [FinalityFlow].
+ * トランザクションは公証の前に一度だけ検証され、公証人フローには再検証を省略するよう指示します。その後、トランザクションは
+ * 記録され、[SendTransactionFlow]で[sessions]に送られます。取引相手は[FinalityFlow]からの場合と同様に、
+ * [ReceiveFinalityFlow]でそれを受け取ります。
+ * A transaction with no inputs, reference states or time window, such as an issuance, is not notarised, so nothing is
+ * reported for it.
+ * 発行のように入力、参照状態、時間枠のないトランザクションは公証されないため、何も報告されません。
+ */
+public class TimedFinalityFlow extends FlowLogic<SignedTransaction> {
+
+    public static final ProgressTracker.Step VERIFYING = new ProgressTracker.Step("Verifying the transaction.");
+    public static final ProgressTracker.Step NOTARISING = new ProgressTracker.Step("Requesting the notary's signature.");
+    public static final ProgressTracker.Step BROADCASTING = new ProgressTracker.Step("Recording and broadcasting the transaction.");
+
+    public static ProgressTracker tracker() {
+        return new ProgressTracker(VERIFYING, NOTARISING, BROADCASTING);
+    }
+
+    private final SignedTransaction transaction;
+    private final Collection<FlowSession> sessions;
+    private final ProgressTracker progressTracker;
+
+    public TimedFinalityFlow(SignedTransaction transaction, Collection<FlowSession> sessions) {
+        this(transaction, sessions, tracker());
+    }
+
+    public TimedFinalityFlow(SignedTransaction transaction, Collection<FlowSession> sessions, ProgressTracker progressTracker) {
+        this.transaction = transaction;
+        this.sessions = sessions;
+        this.progressTracker = progressTracker;
+    }
+
+    @Override
+    public ProgressTracker getProgressTracker() {
+        return progressTracker;
+    }
+
+    @Suspendable
+    @Override
+    public SignedTransaction call() throws FlowException {
+        progressTracker.setCurrentStep(VERIFYING);
+        Party notary = transaction.getNotary();
+        WireTransaction tx = transaction.getTx();
+        boolean needsNotarising = notary != null
+                && (!tx.getInputs().isEmpty() || !tx.getReferences().isEmpty() || tx.getTimeWindow() != null);
+        try {
+            transaction.verify(getServiceHub(), false);
+            if (needsNotarising) {
+                transaction.verifySignaturesExcept(notary.getOwningKey());
+            } else {
+                transaction.verifyRequiredSignatures();
+            }
+        } catch (SignatureException e) {
+            throw new FlowException("The transaction is not signed by every required signer.", e);
+        }
+
+        SignedTransaction notarised = transaction;
+        if (needsNotarising) {
+            progressTracker.setCurrentStep(NOTARISING);
+            final FlowMetricsService.Stopwatch notarisingStarted = FlowMetricsService.Stopwatch.start();
+            List<TransactionSignature> notarySignatures = subFlow(new NotaryFlow.Client(transaction, true));
+            getServiceHub().cordaService(NotarySelectionService.class).recordNotarisation(notary, notarisingStarted);
+            notarised = transaction.withAdditionalSignatures(notarySignatures);
+        }
+
+        progressTracker.setCurrentStep(BROADCASTING);
+        getServiceHub().recordTransactions(StatesToRecord.ONLY_RELEVANT, Collections.singletonList(notarised));
+        for (FlowSession session: sessions) {
+            subFlow(new SendTransactionFlow(session, notarised));
+        }
+        return notarised;
+    }
+}
@@ -0,0 +1,108 @@
+package net.corda.training.plugin;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.identity.Party;
+import net.corda.training.state.IOUState;
+
+import java.io.IOException;
+
+/**
+ * Jackson serializers for the compact view of the web API (?view=compact), which carries only the data clients use.
+ * クライアントが使用するデータだけを含む、Web APIのコンパクトビュー（?view=compact）用のJacksonシリアライザー。
+ * - [IOUState] is written as its linear id, amounts and parties, without participants, and when it has a due date, the
+ *   instant its next payment falls due.
+ * -[IOUState]は、参加者を除いたlinearId、金額、当事者として書き出され、期日がある場合は次の支払いの期日も書き出されます。
+ * - [Amount] is written as a string such as "10.00 GBP".
+ * -[Amount]は"10.00 GBP"のような文字列として書き出されます。
+ * - [Party] is written as its X.500 name.
+ * -[Party]はX.500名として書き出されます。
+ * - [StateRef] is written as "txhash(index)".
+ * -[StateRef]は"txhash(index)"として書き出されます。
+ * - [StateAndRef] is written as its ref and state data, without the notary, contract and constraint.
+ * -[StateAndRef]は、公証人、コントラクト、制約を除いた参照と状態データとして書き出されます。
+ */
+public class CompactJsonModule extends SimpleModule {
+
+    public CompactJsonModule() {
+        super("CompactJsonModule");
+        addSerializer(new IOUStateSerializer());
+        addSerializer(new AmountSerializer());
+        addSerializer(new PartySerializer());
+        addSerializer(new StateRefSerializer());
+        addSerializer(new StateAndRefSerializer());
+    }
+
+    private static class IOUStateSerializer extends StdSerializer<IOUState> {
+        IOUStateSerializer() {
+            super(IOUState.class);
+        }
+
+        @Override
+        public void serialize(IOUState iou, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("linearId", iou.getLinearId().getId().toString());
+            generator.writeStringField("amount", iou.amount.toString());
+            generator.writeStringField("paid", iou.paid.toString());
+            generator.writeStringField("lender", iou.lender.getName().toString());
+            generator.writeStringField("borrower", iou.borrower.getName().toString());
+            if (iou.getNextDue() != null) {
+                generator.writeStringField("nextDue", iou.getNextDue().toString());
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    private static class AmountSerializer extends StdSerializer<Amount> {
+        AmountSerializer() {
+            super(Amount.class);
+        }
+
+        @Override
+        public void serialize(Amount amount, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeString(amount.toString());
+        }
+    }
+
+    private static class PartySerializer extends StdSerializer<Party> {
+        PartySerializer() {
+            super(Party.class);
+        }
+
+        @Override
+        public void serialize(Party party, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeString(party.getName().toString());
+        }
+    }
+
+    private static class StateRefSerializer extends StdSerializer<StateRef> {
+        StateRefSerializer() {
+            super(StateRef.class);
+        }
+
+        @Override
+        public void serialize(StateRef ref, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeString(ref.toString());
+        }
+    }
+
+    private static class StateAndRefSerializer extends StdSerializer<StateAndRef> {
+        StateAndRefSerializer() {
+            super(StateAndRef.class);
+        }
+
+        @Override
+        public void serialize(StateAndRef stateAndRef, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("ref", stateAndRef.getRef().toString());
+            generator.writeFieldName("state");
+            provider.defaultSerializeValue(stateAndRef.getState().getData(), generator);
+            generator.writeEndObject();
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package net.corda.training.schema;
+
+/**
+ * The family of schemas for [IOUState].
+ * [IOUState]のスキーマファミリー。
+ */
+public class IOUSchema {}
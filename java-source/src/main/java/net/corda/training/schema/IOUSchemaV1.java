@@ -0,0 +1,108 @@
+package net.corda.training.schema;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * An [IOUState] schema.
+ * [IOUState]のスキーマ。
+ * The lender, borrower and currency columns are indexed so that vault queries such as "all open GBP IOUs where I am the
+ * borrower" can be answered by the database rather than by deserializing every state in the vault.
+ * 貸し手、借り手、通貨の列にはインデックスが付けられているため、「自分が借り手である未決済のGBP建てIOUすべて」のような
+ * ボールトクエリは、ボールト内のすべての状態をデシリアライズすることなくデータベースで処理できます。
+ * The next_due column is indexed so that the [IOUAutoSettleFlow] can find the IOUs that have fallen due.
+ * next_due列にはインデックスが付けられているため、[IOUAutoSettleFlow]は期日が来たIOUを見つけることができます。
+ */
+public class IOUSchemaV1 extends MappedSchema {
+    public IOUSchemaV1() {
+        super(IOUSchema.class, 1, ImmutableList.of(PersistentIOU.class));
+    }
+
+    @Override
+    public String getMigrationResource() {
+        return "iou.changelog-master";
+    }
+
+    @Entity
+    @Table(name = "iou_states", indexes = {
+            @Index(name = "iou_lender_idx", columnList = "lender"),
+            @Index(name = "iou_borrower_idx", columnList = "borrower"),
+            @Index(name = "iou_currency_idx", columnList = "currency"),
+            @Index(name = "iou_linear_id_idx", columnList = "linear_id"),
+            @Index(name = "iou_next_due_idx", columnList = "next_due")
+    })
+    public static class PersistentIOU extends PersistentState {
+        @Column(name = "lender") private final String lender;
+        @Column(name = "borrower") private final String borrower;
+        @Column(name = "currency") private final String currency;
+        @Column(name = "amount") private final long amount;
+        @Column(name = "paid") private final long paid;
+        @Column(name = "outstanding") private final long outstanding;
+        @Column(name = "linear_id") private final UUID linearId;
+        @Column(name = "next_due") private final Instant nextDue;
+
+        public PersistentIOU(String lender, String borrower, String currency, long amount, long paid, long outstanding, UUID linearId, Instant nextDue) {
+            this.lender = lender;
+            this.borrower = borrower;
+            this.currency = currency;
+            this.amount = amount;
+            this.paid = paid;
+            this.outstanding = outstanding;
+            this.linearId = linearId;
+            this.nextDue = nextDue;
+        }
+
+        // Default constructor required by hibernate.
+        // Hibernateが必要とするデフォルトコンストラクター。
+        public PersistentIOU() {
+            this.lender = null;
+            this.borrower = null;
+            this.currency = null;
+            this.amount = 0;
+            this.paid = 0;
+            this.outstanding = 0;
+            this.linearId = null;
+            this.nextDue = null;
+        }
+
+        public String getLender() {
+            return lender;
+        }
+
+        public String getBorrower() {
+            return borrower;
+        }
+
+        public String getCurrency() {
+            return currency;
+        }
+
+        public long getAmount() {
+            return amount;
+        }
+
+        public long getPaid() {
+            return paid;
+        }
+
+        public long getOutstanding() {
+            return outstanding;
+        }
+
+        public UUID getLinearId() {
+            return linearId;
+        }
+
+        public Instant getNextDue() {
+            return nextDue;
+        }
+    }
+}
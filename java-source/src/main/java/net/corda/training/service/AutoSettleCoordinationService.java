@@ -0,0 +1,47 @@
+package net.corda.training.service;
+
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces the [IOUAutoSettleFlow] runs that the node's scheduler starts for the IOUs falling due at the same instant.
+ * ノードのスケジューラーが同じ時刻に期日となるIOUのために開始する[IOUAutoSettleFlow]の実行をまとめます。
+ * Every IOU due at an instant schedules its own run, but a single run settles all of them, so only the first run to
+ * [claim] a due instant does any work and the others return at once, without querying the vault.
+ * ある時刻に期日となる各IOUはそれぞれ実行をスケジュールしますが、1回の実行ですべてを決済するため、期日の時刻を最初に
+ * [claim]した実行だけが処理を行い、他の実行はボールトを照会せずにすぐに戻ります。
+ * Claims are held in memory and dropped once they are older than [CLAIM_RETENTION]. After a restart of the node the
+ * first run for each instant claims it afresh; the IOUs a checkpointed run has soft-locked are still skipped.
+ * 要求はメモリに保持され、[CLAIM_RETENTION]より古くなると破棄されます。ノードの再起動後は、各時刻の最初の実行が
+ * 改めて要求します。チェックポイントされた実行がソフトロックしたIOUは引き続きスキップされます。
+ */
+@CordaService
+public class AutoSettleCoordinationService extends SingletonSerializeAsToken {
+
+    public static final Duration CLAIM_RETENTION = Duration.ofDays(1);
+
+    private final AppServiceHub serviceHub;
+    private final Set<Instant> claimed = ConcurrentHashMap.newKeySet();
+
+    public AutoSettleCoordinationService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+    }
+
+    /**
+     * Claims the payments falling due at [due] for the calling run. Returns false if another run has already claimed
+     * them, in which case that run settles them.
+     * [due]に期日となる支払いを呼び出し元の実行のために要求します。別の実行が既に要求している場合はfalseを返し、
+     * その実行が決済を行います。
+     */
+    public boolean claim(Instant due) {
+        Instant cutoff = serviceHub.getClock().instant().minus(CLAIM_RETENTION);
+        claimed.removeIf(instant -> instant.isBefore(cutoff));
+        return claimed.add(due);
+    }
+}
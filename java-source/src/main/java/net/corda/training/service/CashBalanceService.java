@@ -0,0 +1,77 @@
+package net.corda.training.service;
+
+import net.corda.core.contracts.Amount;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.finance.contracts.asset.Cash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Currency;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.MAX_PAGE_SIZE;
+
+/**
+ * Keeps the node's cash balances in memory, so that flows can check them without a vault aggregation query.
+ * フローがボールトの集計クエリなしで確認できるように、ノードの現金残高をメモリに保持します。
+ * The balances are seeded from the snapshot of a vault feed the first time they are needed, which is inside a flow's
+ * database transaction, and are then updated from the same feed, so no update is missed or counted twice. If the feed
+ * fails, the balances are seeded again from a new feed the next time they are needed.
+ * 残高は最初に必要になったとき（フローのデータベーストランザクション内）にボールトフィードのスナップショットから初期化され、
+ * その後は同じフィードから更新されるため、更新が失われたり二重に数えられたりすることはありません。フィードが失敗した場合、
+ * 次に必要になったときに新しいフィードから再び初期化されます。
+ */
+@CordaService
+public class CashBalanceService extends SingletonSerializeAsToken {
+
+    private static final Logger logger = LoggerFactory.getLogger(CashBalanceService.class);
+
+    private final AppServiceHub serviceHub;
+    private final CashBalances balances = new CashBalances();
+    private boolean tracking = false;
+
+    public CashBalanceService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+    }
+
+    /**
+     * Returns the node's balance of [currency].
+     * ノードの[currency]の残高を返します。
+     */
+    public Amount<Currency> getCashBalance(Currency currency) {
+        return track().get(currency);
+    }
+
+    /**
+     * Returns the node's balance of [currency] held at [notary], which is all that a transaction it notarises can spend.
+     * [notary]で保有されているノードの[currency]の残高を返します。これは、その公証人が公証するトランザクションが使用できるすべてです。
+     */
+    public Amount<Currency> getCashBalance(Currency currency, Party notary) {
+        return track().get(notary, currency);
+    }
+
+    private synchronized CashBalances track() {
+        if (!tracking) {
+            // The snapshot seeds the balances, so it must hold every unconsumed cash state rather than a single page.
+            // スナップショットが残高を初期化するため、1ページではなくすべての未消費の現金状態を含む必要があります。
+            DataFeed<Vault.Page<Cash.State>, Vault.Update<Cash.State>> feed = serviceHub.getVaultService().trackBy(
+                    Cash.State.class, new QueryCriteria.VaultQueryCriteria(), new PageSpecification(DEFAULT_PAGE_NUM, MAX_PAGE_SIZE - 1));
+            balances.seed(feed.getSnapshot().getStates());
+            feed.getUpdates().subscribe(balances::apply, this::stopTracking);
+            tracking = true;
+        }
+        return balances;
+    }
+
+    private synchronized void stopTracking(Throwable error) {
+        logger.error("Cash vault feed failed, the cash balances will be seeded again.", error);
+        tracking = false;
+    }
+}
@@ -0,0 +1,110 @@
+package net.corda.training.service;
+
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.finance.contracts.asset.Cash;
+
+import java.util.Collections;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cash balances by currency, in total and at each notary, seeded once from the snapshot of a vault feed and then kept
+ * current by applying the feed's cash updates.
+ * 合計および公証人ごとの、通貨ごとの現金残高。ボールトフィードのスナップショットから一度だけ初期化され、その後は
+ * フィードの現金の更新を適用して最新の状態に保たれます。
+ * The unconsumed cash states are counted by [StateRef], so a state that appears in both the snapshot and an update is
+ * only counted once, and a consumed state is only taken off if it was counted.
+ * 未消費の現金状態は[StateRef]ごとに数えられるため、スナップショットと更新の両方に現れる状態は一度だけ数えられ、
+ * 消費された状態は数えられていた場合にのみ差し引かれます。
+ * Instances are shared between threads, so every method is synchronized.
+ * インスタンスはスレッド間で共有されるため、すべてのメソッドは同期されます。
+ */
+public class CashBalances {
+
+    private final Map<StateRef, StateAndRef<Cash.State>> counted = new HashMap<>();
+    private final Map<Currency, Amount<Currency>> balances = new HashMap<>();
+    private final Map<Party, Map<Currency, Amount<Currency>>> balancesByNotary = new HashMap<>();
+
+    /**
+     * Replaces the balances with the cash states of a vault feed's snapshot.
+     * 残高をボールトフィードのスナップショットの現金状態で置き換えます。
+     */
+    public synchronized void seed(List<StateAndRef<Cash.State>> snapshot) {
+        counted.clear();
+        balances.clear();
+        balancesByNotary.clear();
+        for (StateAndRef<Cash.State> stateAndRef : snapshot) {
+            add(stateAndRef);
+        }
+    }
+
+    /**
+     * Subtracts the consumed cash and adds the produced cash of a vault update.
+     * ボールトの更新で消費された現金を差し引き、生成された現金を加算します。
+     */
+    public synchronized void apply(Vault.Update<Cash.State> update) {
+        for (StateAndRef<Cash.State> consumed : update.getConsumed()) {
+            StateAndRef<Cash.State> counter = counted.remove(consumed.getRef());
+            if (counter != null) {
+                Amount<Currency> amount = withoutIssuer(counter.getState().getData());
+                subtract(balances, amount);
+                Map<Currency, Amount<Currency>> notaryBalances = balancesByNotary.get(counter.getState().getNotary());
+                subtract(notaryBalances, amount);
+                if (notaryBalances.isEmpty()) {
+                    balancesByNotary.remove(counter.getState().getNotary());
+                }
+            }
+        }
+        for (StateAndRef<Cash.State> produced : update.getProduced()) {
+            add(produced);
+        }
+    }
+
+    /**
+     * Returns the balance of [currency], which is zero if the node holds none of it.
+     * [currency]の残高を返します。ノードがその通貨を保有していない場合はゼロです。
+     */
+    public synchronized Amount<Currency> get(Currency currency) {
+        return balances.getOrDefault(currency, new Amount<>(0, currency));
+    }
+
+    /**
+     * Returns the balance of [currency] held at [notary], which is the most a transaction notarised by it can spend.
+     * [notary]で保有されている[currency]の残高を返します。これは、その公証人が公証するトランザクションが使用できる上限です。
+     */
+    public synchronized Amount<Currency> get(Party notary, Currency currency) {
+        return balancesByNotary.getOrDefault(notary, Collections.emptyMap()).getOrDefault(currency, new Amount<>(0, currency));
+    }
+
+    /**
+     * Returns a copy of all the balances.
+     * すべての残高のコピーを返します。
+     */
+    public synchronized Map<Currency, Amount<Currency>> snapshot() {
+        return new HashMap<>(balances);
+    }
+
+    private void add(StateAndRef<Cash.State> stateAndRef) {
+        if (counted.putIfAbsent(stateAndRef.getRef(), stateAndRef) == null) {
+            Amount<Currency> amount = withoutIssuer(stateAndRef.getState().getData());
+            balances.merge(amount.getToken(), amount, Amount::plus);
+            balancesByNotary.computeIfAbsent(stateAndRef.getState().getNotary(), notary -> new HashMap<>())
+                    .merge(amount.getToken(), amount, Amount::plus);
+        }
+    }
+
+    private static void subtract(Map<Currency, Amount<Currency>> balances, Amount<Currency> amount) {
+        balances.computeIfPresent(amount.getToken(), (currency, balance) ->
+                balance.equals(amount) ? null : balance.minus(amount));
+    }
+
+    private static Amount<Currency> withoutIssuer(Cash.State cash) {
+        return new Amount<>(cash.getAmount().getQuantity(), cash.getAmount().getToken().getProduct());
+    }
+}
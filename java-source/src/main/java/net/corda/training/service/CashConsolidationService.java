@@ -0,0 +1,120 @@
+package net.corda.training.service;
+
+import kotlin.Unit;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.finance.contracts.asset.Cash;
+import net.corda.training.flow.CashConsolidationFlow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Starts a [CashConsolidationFlow] in the background whenever new cash arrives in the vault, so that the node's cash
+ * of each currency and issuer is merged once it is split into more states than the threshold.
+ * 新しい現金がボールトに届くたびにバックグラウンドで[CashConsolidationFlow]を開始し、各通貨と発行者のノードの現金が
+ * しきい値を超える数の状態に分割されたら統合されるようにします。
+ * The trigger is off unless the CorDapp config sets "cashConsolidationThreshold", which must be less than
+ * [CashConsolidationFlow.MAX_INPUTS]. "cashConsolidationTargetStates" sets how many states the cash is merged into, and
+ * defaults to 1.
+ * CorDapp設定で「cashConsolidationThreshold」が設定されていない限り、トリガーはオフです。この値は
+ * [CashConsolidationFlow.MAX_INPUTS]未満である必要があります。「cashConsolidationTargetStates」は現金を統合する状態の
+ * 数を設定し、デフォルトは1です。
+ * Only one consolidation runs at a time. Cash arriving meanwhile only marks its currency and issuer as pending, so a
+ * burst of payments leads to one consolidation per currency and issuer rather than one per payment.
+ * 統合は一度に1つだけ実行されます。その間に届いた現金はその通貨と発行者を保留中にするだけなので、支払いが集中しても
+ * 支払いごとではなく、通貨と発行者ごとに1回の統合になります。
+ */
+@CordaService
+public class CashConsolidationService extends SingletonSerializeAsToken {
+
+    private static final Logger logger = LoggerFactory.getLogger(CashConsolidationService.class);
+
+    private final AppServiceHub serviceHub;
+    // Flows must not be started from inside a vault update, so they are started from this thread instead.
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "cash-consolidation");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // The currencies and issuers waiting for a consolidation, in the order their cash arrived.
+    private final Set<List<Object>> pending = new LinkedHashSet<>();
+    private boolean inFlight = false;
+    private final int threshold;
+    private final int targetStates;
+
+    public CashConsolidationService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        CordappConfig config = serviceHub.getAppContext().getConfig();
+        this.threshold = config.exists("cashConsolidationThreshold") ? config.getInt("cashConsolidationThreshold") : 0;
+        this.targetStates = config.exists("cashConsolidationTargetStates") ? config.getInt("cashConsolidationTargetStates") : 1;
+        if (threshold >= CashConsolidationFlow.MAX_INPUTS) {
+            throw new IllegalArgumentException("cashConsolidationThreshold must be less than "
+                    + CashConsolidationFlow.MAX_INPUTS + ", or it would never be exceeded.");
+        }
+        serviceHub.registerUnloadHandler(() -> {
+            executor.shutdownNow();
+            return Unit.INSTANCE;
+        });
+        if (threshold > 0) {
+            serviceHub.getVaultService().getUpdates().subscribe(update -> {
+                for (StateAndRef<ContractState> produced: update.getProduced()) {
+                    if (produced.getState().getData() instanceof Cash.State) {
+                        Cash.State cash = (Cash.State) produced.getState().getData();
+                        consolidate(cash.getAmount().getToken().getProduct(), cash.getAmount().getToken().getIssuer().getParty());
+                    }
+                }
+            }, error -> logger.error("Stopped consolidating cash, as the vault updates failed.", error));
+        }
+    }
+
+    private synchronized void consolidate(Currency currency, AbstractParty issuer) {
+        pending.add(Arrays.asList(currency, issuer));
+        startNext();
+    }
+
+    private synchronized void finished() {
+        inFlight = false;
+        startNext();
+    }
+
+    // Starts a consolidation for the oldest pending currency and issuer, unless one is already running.
+    private void startNext() {
+        if (inFlight || pending.isEmpty() || executor.isShutdown()) {
+            return;
+        }
+        Iterator<List<Object>> next = pending.iterator();
+        List<Object> key = next.next();
+        next.remove();
+        inFlight = true;
+        Currency currency = (Currency) key.get(0);
+        AbstractParty issuer = (AbstractParty) key.get(1);
+        executor.execute(() -> {
+            try {
+                serviceHub.startFlow(new CashConsolidationFlow(currency, issuer, threshold, targetStates))
+                        .getReturnValue()
+                        .then(result -> {
+                            try {
+                                result.get();
+                            } catch (InterruptedException | ExecutionException e) {
+                                logger.warn("Cash consolidation for " + currency + " issued by " + issuer + " failed.", e);
+                            }
+                            finished();
+                            return null;
+                        });
+            } catch (RuntimeException e) {
+                logger.error("Could not start cash consolidation for " + currency + " issued by " + issuer + ".", e);
+                finished();
+            }
+        });
+    }
+}
@@ -0,0 +1,112 @@
+package net.corda.training.service;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.NotaryError;
+import net.corda.core.flows.NotaryException;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.StatesNotAvailableException;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.cordapp.CordappConfig;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether a flow that lost a race for its input states should try again, and how long it should wait first.
+ * 入力状態の競合に負けたフローが再試行すべきかどうか、また再試行までどのくらい待つべきかを決定します。
+ * A flow loses a race either when another flow on this node has soft-locked the state, which is found before anything
+ * is signed, or when the notary reports that another transaction has already spent it. Each retry waits for a random
+ * time of up to [contentionBackoffMillis] doubled for each earlier attempt (capped at [MAX_BACKOFF]), so that the
+ * flows that collided do not collide again.
+ * フローが競合に負けるのは、このノードの別のフローが状態をソフトロックしている場合（何かに署名する前に検出されます）、または
+ * 別のトランザクションが既にその状態を使用したと公証人が報告した場合です。各再試行は、以前の試行ごとに2倍にした
+ * [contentionBackoffMillis]まで（[MAX_BACKOFF]が上限）のランダムな時間待機するため、衝突したフローが再び衝突することはありません。
+ * [runWithRetries] runs each attempt as its own subflow and starts the next one from scratch, with a fresh vault query
+ * and new sessions.
+ * [runWithRetries]は各試行を独自のサブフローとして実行し、次の試行を新しいボールトクエリと新しいセッションで最初から開始します。
+ * The number of retries and the base backoff are read from the "contentionRetries" (default 3) and
+ * "contentionBackoffMillis" (default 200) keys of the CorDapp config.
+ * 再試行の回数と基本の待機時間は、CorDapp設定の「contentionRetries」（デフォルト3）と
+ * 「contentionBackoffMillis」（デフォルト200）キーから読み取られます。
+ */
+@CordaService
+public class ContentionRetryService extends SingletonSerializeAsToken {
+
+    public static final Duration MAX_BACKOFF = Duration.ofSeconds(10);
+
+    private final AppServiceHub serviceHub;
+    private final int retries;
+    private final long backoffMillis;
+
+    public ContentionRetryService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        CordappConfig config = serviceHub.getAppContext().getConfig();
+        this.retries = config.exists("contentionRetries") ? config.getInt("contentionRetries") : 3;
+        this.backoffMillis = config.exists("contentionBackoffMillis") ? config.getLong("contentionBackoffMillis") : 200;
+    }
+
+    /**
+     * Creates the subflow for one attempt at a flow's work. It is kept in the flow's checkpoint, so it is serializable.
+     * フローの処理の1回の試行のためのサブフローを作成します。フローのチェックポイントに保持されるため、シリアライズ可能です。
+     */
+    public interface Attempt<T> extends Serializable {
+        FlowLogic<T> create();
+    }
+
+    /**
+     * Runs [attempt] as a subflow of [flow], and again after a backoff each time it loses the race for its inputs, until
+     * it succeeds or [shouldRetry] gives up. Each retry is counted against [flowName] in the [FlowMetricsService].
+     * [attempt]を[flow]のサブフローとして実行し、入力の競合に負けるたびに待機後に再実行します。成功するか、[shouldRetry]が
+     * 諦めるまで続けます。各再試行は[FlowMetricsService]で[flowName]に対して数えられます。
+     * Whatever a failed attempt soft-locked is released before the next one. Corda 4.0 cannot close a session early, so
+     * the counterparties of an attempt that failed at the notary are only told when [flow] ends; the next attempt opens
+     * new sessions rather than reusing theirs, which are still waiting for the failed transaction.
+     * 失敗した試行がソフトロックしたものは、次の試行の前に解放されます。Corda 4.0ではセッションを早く閉じられないため、
+     * 公証人で失敗した試行の取引相手には[flow]の終了時にのみ通知されます。次の試行は、失敗したトランザクションをまだ
+     * 待っているそれらのセッションを再利用せず、新しいセッションを開きます。
+     */
+    @Suspendable
+    public <T> T runWithRetries(FlowLogic<?> flow, String flowName, Attempt<T> attempt) throws FlowException {
+        for (int attempts = 1; ; attempts++) {
+            FlowException contention;
+            try {
+                return flow.subFlow(attempt.create());
+            } catch (StatesNotAvailableException | NotaryException e) {
+                if (!shouldRetry(e, attempts)) {
+                    throw e;
+                }
+                contention = e;
+            }
+            // Give up whatever this attempt reserved, then back off before querying the vault again.
+            // この試行で予約したものをすべて解放し、ボールトを再度クエリする前に待機します。
+            serviceHub.cordaService(FlowMetricsService.class).recordRetry(flowName);
+            serviceHub.getVaultService().softLockRelease(flow.getRunId().getUuid(), null);
+            final Duration backoff = backoff(attempts);
+            flow.getLogger().info("Attempt {} lost the race for its inputs ({}), retrying in {} ms.", attempts, contention.getMessage(), backoff.toMillis());
+            FlowLogic.sleep(backoff);
+        }
+    }
+
+    /**
+     * Returns whether a flow should retry after failing its [attempt]th attempt, counting from 1, with [error].
+     * 1から数えて[attempt]回目の試行が[error]で失敗した後に、フローが再試行すべきかどうかを返します。
+     */
+    public boolean shouldRetry(Throwable error, int attempt) {
+        boolean contended = error instanceof StatesNotAvailableException
+                || (error instanceof NotaryException && ((NotaryException) error).getError() instanceof NotaryError.Conflict);
+        return contended && attempt <= retries;
+    }
+
+    /**
+     * Returns how long to wait before the attempt after the [attempt]th one.
+     * [attempt]回目の次の試行までの待機時間を返します。
+     */
+    public Duration backoff(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF.toMillis(), backoffMillis << Math.min(attempt - 1, 20));
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(ceiling + 1));
+    }
+}
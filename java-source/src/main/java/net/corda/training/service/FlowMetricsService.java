@@ -0,0 +1,129 @@
+package net.corda.training.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.jmx.JmxReporter;
+import kotlin.Unit;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times each stage of the IOU flows and counts how often each flow succeeds or fails, so that a slowdown can be pinned
+ * on the vault, our own contract verification, the counterparty or the notary.
+ * IOUフローの各段階の時間を計測し、各フローの成功と失敗の回数を数えることで、遅延の原因がボールト、自分の契約検証、
+ * 取引相手、公証人のどれであるかを特定できるようにします。
+ * The node does not share its own metrics registry with CorDapps, so the metrics are kept in a registry of our own
+ * and published over JMX under the `<JMX_DOMAIN>.<organisation>` domain of the node, next to the node's metrics, so
+ * that nodes sharing a JVM, as in tests, do not clash. Each stage is a timer named `<flow>.<stage>`, whose histogram
+ * gives the percentiles, and the outcomes are counters named `<flow>.Success`, `<flow>.Failure` and `<flow>.Retry`.
+ * ノードは自身のメトリクスレジストリをCorDappと共有しないため、メトリクスは独自のレジストリに保持され、ノードのメトリクスと
+ * 並んでJMXのノードの`<JMX_DOMAIN>.<organisation>`ドメインで公開されるため、テストのようにJVMを共有するノード同士が
+ * 衝突しません。各段階は`<flow>.<stage>`という名前のタイマーで、そのヒストグラムからパーセンタイルが得られます。
+ * 結果は`<flow>.Success`、`<flow>.Failure`、`<flow>.Retry`という名前のカウンターです。
+ */
+@CordaService
+public class FlowMetricsService extends SingletonSerializeAsToken {
+
+    public static final String JMX_DOMAIN = "net.corda.training";
+
+    /**
+     * The stages of a flow that are timed.
+     * 時間が計測されるフローの段階。
+     */
+    public enum Stage {
+        VAULT_QUERY("VaultQuery"),
+        BUILD("Build"),
+        VERIFY("Verify"),
+        SIGN("Sign"),
+        COLLECT_SIGNATURES("CollectSignatures"),
+        FINALITY("Finality");
+
+        private final String metricName;
+
+        Stage(String metricName) {
+            this.metricName = metricName;
+        }
+    }
+
+    /**
+     * The start of a timed stage. A flow's local variables are checkpointed, and a [System.nanoTime] reading means
+     * nothing in another JVM, so a stopwatch restored from a checkpoint after a restart reports no elapsed time.
+     * 計測される段階の開始。フローのローカル変数はチェックポイントされ、[System.nanoTime]の値は別のJVMでは意味を
+     * 持たないため、再起動後にチェックポイントから復元されたストップウォッチは経過時間を報告しません。
+     */
+    public static final class Stopwatch {
+
+        // Created anew in every JVM, and never checkpointed along with a flow.
+        // JVMごとに新しく作成され、フローとともにチェックポイントされることはありません。
+        private static final UUID JVM = UUID.randomUUID();
+
+        private final UUID jvm = JVM;
+        private final long startedNanos = System.nanoTime();
+
+        private Stopwatch() {
+        }
+
+        public static Stopwatch start() {
+            return new Stopwatch();
+        }
+
+        /**
+         * Returns the nanoseconds since the stopwatch was started, or -1 if it was started in another JVM.
+         * ストップウォッチの開始からのナノ秒を返します。別のJVMで開始された場合は-1です。
+         */
+        public long elapsedNanos() {
+            return jvm.equals(JVM) ? System.nanoTime() - startedNanos : -1;
+        }
+    }
+
+    private final MetricRegistry registry = new MetricRegistry();
+
+    public FlowMetricsService(AppServiceHub serviceHub) {
+        String organisation = serviceHub.getMyInfo().getLegalIdentities().get(0).getName().getOrganisation();
+        JmxReporter reporter = JmxReporter.forRegistry(registry)
+                .inDomain(JMX_DOMAIN + "." + organisation.replaceAll("[^A-Za-z0-9_-]", "_"))
+                .convertDurationsTo(TimeUnit.MILLISECONDS)
+                .build();
+        reporter.start();
+        serviceHub.registerUnloadHandler(() -> {
+            reporter.stop();
+            return Unit.INSTANCE;
+        });
+    }
+
+    public MetricRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Records how long [stage] of [flow] took, from when [started] was started until now.
+     * [flow]の[stage]にかかった時間を、[started]が開始されてから現在まで記録します。
+     * A stage that spanned a restart, and so a restore from a checkpoint, is not recorded (see [Stopwatch]).
+     * 再起動、つまりチェックポイントからの復元をまたいだ段階は記録されません（[Stopwatch]を参照）。
+     */
+    public void recordStage(String flow, Stage stage, Stopwatch started) {
+        long elapsed = started.elapsedNanos();
+        if (elapsed >= 0) {
+            registry.timer(MetricRegistry.name(flow, stage.metricName)).update(elapsed, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void recordSuccess(String flow) {
+        registry.counter(MetricRegistry.name(flow, "Success")).inc();
+    }
+
+    public void recordFailure(String flow) {
+        registry.counter(MetricRegistry.name(flow, "Failure")).inc();
+    }
+
+    /**
+     * Counts an attempt of [flow] that lost the race for its inputs and is being retried (see [ContentionRetryService]).
+     * 入力の競合に負けて再試行される[flow]の試行を数えます（[ContentionRetryService]を参照）。
+     */
+    public void recordRetry(String flow) {
+        registry.counter(MetricRegistry.name(flow, "Retry")).inc();
+    }
+}
@@ -0,0 +1,122 @@
+package net.corda.training.service;
+
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.training.contract.IOUContract;
+import net.corda.training.state.IOUState;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Makes IOU issuance idempotent for IOUs whose linear id carries an external id, so that a client that retries an
+ * issuance after a timeout gets the original IOU back instead of a duplicate.
+ * リニアIDに外部IDを持つIOUの発行を冪等にし、タイムアウト後に発行を再試行したクライアントが重複ではなく
+ * 元のIOUを受け取れるようにします。
+ * External ids are chosen by whoever issues the IOU, so they are scoped to the issuer: the id recorded on the IOU is
+ * "<issuer X.500 name>:<key>" (see [scopedExternalId]), as the counterparty may issue an IOU to us with a key we also
+ * use. The responders of the issue flows refuse to sign an IOU whose external id is scoped to anyone but the initiator.
+ * 外部IDはIOUを発行する側が選ぶため、発行者の範囲に限定されます。IOUに記録されるIDは「<発行者のX.500名>:<キー>」です
+ * （[scopedExternalId]を参照）。取引相手が、こちらも使うキーでIOUを発行してくる可能性があるからです。発行フローの
+ * レスポンダーは、外部IDがイニシエーター以外の範囲に限定されたIOUへの署名を拒否します。
+ * The vault indexes the external ids of linear states, so [findIssuance] is an indexed lookup. Two issuances with the
+ * same external id that run at the same time are caught by [reserve] instead, as neither is in the vault yet.
+ * ボールトはリニア状態の外部IDにインデックスを付けているため、[findIssuance]はインデックスを使った検索です。同じ外部IDで
+ * 同時に実行される2つの発行は、どちらもまだボールトにないため、代わりに[reserve]で検出されます。
+ */
+@CordaService
+public class IssuanceDeduplicationService extends SingletonSerializeAsToken {
+
+    // The first state of each IOU is the one its issuance created.
+    // 各IOUの最初の状態は、その発行によって作成されたものです。
+    private static final Sort OLDEST_FIRST = new Sort(Collections.singletonList(
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME), Sort.Direction.ASC)));
+
+    private static final int PAGE_SIZE = 50;
+
+    private final AppServiceHub serviceHub;
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    public IssuanceDeduplicationService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+    }
+
+    /**
+     * Returns the external id under which [issuer] records an IOU with [key]. A key that is already scoped to [issuer]
+     * is returned as it is.
+     * [issuer]が[key]を持つIOUを記録する外部IDを返します。既に[issuer]の範囲に限定されたキーはそのまま返されます。
+     */
+    public static String scopedExternalId(Party issuer, String key) {
+        return isScopedTo(key, issuer) ? key : issuer.getName() + ":" + key;
+    }
+
+    /**
+     * Returns whether [externalId] is scoped to [issuer].
+     * [externalId]が[issuer]の範囲に限定されているかどうかを返します。
+     */
+    public static boolean isScopedTo(String externalId, Party issuer) {
+        return externalId.startsWith(issuer.getName() + ":");
+    }
+
+    /**
+     * Returns the transaction in which [issuer] issued the IOU with the scoped [externalId], consumed or not, or null if
+     * there is none.
+     * [issuer]が範囲限定された[externalId]を持つIOUを発行したトランザクションを、消費済みかどうかにかかわらず返します。
+     * 存在しない場合はnullを返します。
+     */
+    public SignedTransaction findIssuance(Party issuer, String externalId) {
+        QueryCriteria criteria = new QueryCriteria.LinearStateQueryCriteria(
+                null, null, Collections.singletonList(externalId), Vault.StateStatus.ALL);
+        Set<UniqueIdentifier> seen = new HashSet<>();
+        for (int page = 1; ; page++) {
+            Vault.Page<IOUState> results = serviceHub.getVaultService()
+                    .queryBy(IOUState.class, criteria, new PageSpecification(page, PAGE_SIZE), OLDEST_FIRST);
+            for (StateAndRef<IOUState> stateAndRef : results.getStates()) {
+                if (!seen.add(stateAndRef.getState().getData().getLinearId())) {
+                    continue;
+                }
+                SignedTransaction issuance = serviceHub.getValidatedTransactions().getTransaction(stateAndRef.getRef().getTxhash());
+                if (issuance != null && issuedBy(issuance, issuer)) {
+                    return issuance;
+                }
+            }
+            if ((long) page * PAGE_SIZE >= results.getTotalStatesAvailable()) {
+                return null;
+            }
+        }
+    }
+
+    // The issue command of an issuance is signed by both of its parties, so this only confirms [issuer] was one of them;
+    // the scope of the external id says which of them issued it.
+    // 発行のissueコマンドには両当事者が署名するため、これは[issuer]がその一方であったことだけを確認します。どちらが
+    // 発行したかは外部IDの範囲が示します。
+    private static boolean issuedBy(SignedTransaction issuance, Party issuer) {
+        return issuance.getTx().getCommands().stream()
+                .anyMatch(command -> command.getValue() instanceof IOUContract.Commands.Issue
+                        && command.getSigners().contains(issuer.getOwningKey()));
+    }
+
+    /**
+     * Claims [externalId] for an issuance that is about to start. Returns false if another one already holds it.
+     * これから開始する発行のために[externalId]を確保します。別の発行が既に確保している場合はfalseを返します。
+     */
+    public boolean reserve(String externalId) {
+        return inFlight.add(externalId);
+    }
+
+    public void release(String externalId) {
+        inFlight.remove(externalId);
+    }
+}
@@ -0,0 +1,121 @@
+package net.corda.training.service;
+
+import net.corda.core.contracts.Amount;
+import net.corda.core.identity.Party;
+import net.corda.training.state.IOUState;
+
+import java.util.*;
+
+/**
+ * Computes the net obligations that can replace a set of gross IOUs between many parties.
+ * 多数の当事者間の総額のIOUの集合を置き換えることができる純債務を計算します。
+ * Cancelling every cycle in the graph of IOUs (A owes B owes C owes A) leaves each party with only its net position
+ * in each currency, so the engine works from the net positions directly: one pass over the IOUs sums them, and the
+ * parties that are owed money are then paired off with the parties that owe it. A creditor and a debtor with equal and
+ * opposite positions are matched first, as one IOU settles them both, where pairing them off by size could split each
+ * of them over two IOUs. The rest are paired off largest first. Each pairing settles at least one party in full, so a
+ * currency with n parties ends with at most n - 1 residual IOUs, and the work is linear in the number of IOUs plus
+ * n log n for the sort.
+ * IOUのグラフ内のすべてのサイクル（AがBに、BがCに、CがAに負う）を相殺すると、各当事者には各通貨の純ポジションだけが
+ * 残るため、エンジンは純ポジションから直接計算します。IOUを1回走査してそれらを合計し、債権を持つ当事者と債務を持つ
+ * 当事者を組み合わせます。等しく反対のポジションを持つ債権者と債務者は、1つのIOUで両方が決済されるため最初に組み合わせ
+ * られます。大きさ順に組み合わせると、それぞれが2つのIOUに分かれてしまう可能性があるためです。残りは大きい順に組み
+ * 合わせられます。各組み合わせで少なくとも1つの当事者が完全に決済されるため、n当事者の通貨は最大n - 1個の残余IOUで
+ * 終わり、計算量はIOUの数に対して線形で、ソートにn log nかかります。
+ * The result is not always the smallest possible set of IOUs: that would need splitting the parties into as many
+ * groups whose positions sum to zero as possible, which is a subset-sum problem. Only groups of two are looked for.
+ * 結果は常に可能な限り最小のIOUの集合になるとは限りません。そのためには、ポジションの合計がゼロになるグループに
+ * 当事者をできるだけ多く分ける必要があり、これは部分和問題です。2者のグループだけが探索されます。
+ */
+public final class MultilateralNettingEngine {
+
+    private MultilateralNettingEngine() {
+    }
+
+    /**
+     * Returns new, unpaid IOUs that leave every party with the same net position in every currency as [ious].
+     * すべての当事者に、すべての通貨で[ious]と同じ純ポジションを残す、新しい未払いのIOUを返します。
+     */
+    public static List<IOUState> net(Collection<IOUState> ious) {
+        // Sum each party's net position per currency: positive when owed money, negative when owing it.
+        // 通貨ごとに各当事者の純ポジションを合計します。債権がある場合は正、債務がある場合は負です。
+        Map<Currency, Map<Party, long[]>> positions = new LinkedHashMap<>();
+        for (IOUState iou: ious) {
+            long outstanding = iou.amount.getQuantity() - iou.paid.getQuantity();
+            Map<Party, long[]> currencyPositions = positions.computeIfAbsent(iou.amount.getToken(), currency -> new HashMap<>());
+            long[] lender = currencyPositions.computeIfAbsent(iou.lender, party -> new long[1]);
+            lender[0] = Math.addExact(lender[0], outstanding);
+            long[] borrower = currencyPositions.computeIfAbsent(iou.borrower, party -> new long[1]);
+            borrower[0] = Math.subtractExact(borrower[0], outstanding);
+        }
+
+        List<IOUState> residuals = new ArrayList<>();
+        for (Map.Entry<Currency, Map<Party, long[]>> entry: positions.entrySet()) {
+            residuals.addAll(pairOff(entry.getKey(), entry.getValue()));
+        }
+        return residuals;
+    }
+
+    private static List<IOUState> pairOff(Currency currency, Map<Party, long[]> positions) {
+        List<Map.Entry<Party, long[]>> creditors = new ArrayList<>();
+        List<Map.Entry<Party, long[]>> debtors = new ArrayList<>();
+        for (Map.Entry<Party, long[]> position: positions.entrySet()) {
+            if (position.getValue()[0] > 0) {
+                creditors.add(position);
+            } else if (position.getValue()[0] < 0) {
+                debtors.add(position);
+            }
+        }
+        // Largest positions first, with ties broken by name so that every node computes the same IOUs.
+        // 最大のポジションから順に並べ、同じ値の場合は名前で決めるため、すべてのノードが同じIOUを計算します。
+        Comparator<Map.Entry<Party, long[]>> byName = Comparator.comparing(position -> position.getKey().getName().toString());
+        creditors.sort(Comparator.<Map.Entry<Party, long[]>>comparingLong(position -> -position.getValue()[0]).thenComparing(byName));
+        debtors.sort(Comparator.<Map.Entry<Party, long[]>>comparingLong(position -> position.getValue()[0]).thenComparing(byName));
+
+        List<IOUState> residuals = new ArrayList<>();
+        long[] owed = new long[creditors.size()];
+        long[] owing = new long[debtors.size()];
+        for (int i = 0; i < owed.length; i++) {
+            owed[i] = creditors.get(i).getValue()[0];
+        }
+        for (int i = 0; i < owing.length; i++) {
+            owing[i] = -debtors.get(i).getValue()[0];
+        }
+        // Match equal and opposite positions first, largest first.
+        // 等しく反対のポジションを、大きい順に最初に組み合わせます。
+        Map<Long, Deque<Integer>> debtorsByAmount = new HashMap<>();
+        for (int i = 0; i < owing.length; i++) {
+            debtorsByAmount.computeIfAbsent(owing[i], amount -> new ArrayDeque<>()).add(i);
+        }
+        for (int i = 0; i < owed.length; i++) {
+            Deque<Integer> matches = debtorsByAmount.get(owed[i]);
+            if (matches != null && !matches.isEmpty()) {
+                int match = matches.removeFirst();
+                residuals.add(new IOUState(new Amount<>(owed[i], currency), creditors.get(i).getKey(), debtors.get(match).getKey()));
+                owed[i] = 0;
+                owing[match] = 0;
+            }
+        }
+
+        // Then pair off the rest, largest first.
+        // 次に残りを大きい順に組み合わせます。
+        int creditor = 0;
+        int debtor = 0;
+        while (true) {
+            while (creditor < owed.length && owed[creditor] == 0) {
+                creditor++;
+            }
+            while (debtor < owing.length && owing[debtor] == 0) {
+                debtor++;
+            }
+            if (creditor == owed.length || debtor == owing.length) {
+                break;
+            }
+            long amount = Math.min(owed[creditor], owing[debtor]);
+            residuals.add(new IOUState(new Amount<>(amount, currency), creditors.get(creditor).getKey(), debtors.get(debtor).getKey()));
+            owed[creditor] -= amount;
+            owing[debtor] -= amount;
+        }
+        return residuals;
+    }
+}
@@ -0,0 +1,189 @@
+package net.corda.training.service;
+
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Chooses the notary for transactions that create new states, so that new IOUs and cash are spread over all of the
+ * network's notaries rather than all sent to the first one.
+ * 新しい状態を作成するトランザクションの公証人を選択し、新しいIOUと現金が最初の公証人だけに送られるのではなく、
+ * ネットワークのすべての公証人に分散されるようにします。
+ * Transactions that consume states must keep using the notary of their inputs, and do not use this service.
+ * 状態を消費するトランザクションは入力の公証人を引き続き使用する必要があり、このサービスは使用しません。
+ * A settlement therefore spends cash at its IOU's notary, and first moves cash held elsewhere there with the
+ * [MoveCashToNotaryFlow].
+ * そのため決済はIOUの公証人で現金を使用し、他の場所で保有している現金を最初に[MoveCashToNotaryFlow]でそこへ移します。
+ * The strategy is read from the "notarySelection" key of the CorDapp config (round-robin, least-recent-latency or
+ * hash-by-counterparty), defaults to round-robin, and can be replaced with [setSelector].
+ * 戦略はCorDapp設定の「notarySelection」キーから読み取られ（round-robin、least-recent-latency、
+ * hash-by-counterparty）、デフォルトはround-robinで、[setSelector]で置き換えることができます。
+ */
+@CordaService
+public class NotarySelectionService extends SingletonSerializeAsToken {
+
+    /**
+     * A strategy for picking one of the network's notaries.
+     * ネットワークの公証人の1つを選ぶための戦略。
+     */
+    public interface NotarySelector {
+        /**
+         * Picks one of [notaries], which are sorted by name, for a transaction with [counterparty].
+         * [counterparty]とのトランザクションのために、名前順に並べられた[notaries]の1つを選びます。
+         */
+        Party select(List<Party> notaries, Party counterparty);
+
+        /**
+         * Called with the time a notary took to notarise a transaction.
+         * 公証人がトランザクションの公証にかかった時間とともに呼び出されます。
+         */
+        default void recordLatency(Party notary, long nanos) {
+        }
+    }
+
+    /**
+     * Hands out the notaries in turn.
+     * 公証人を順番に割り当てます。
+     */
+    public static class RoundRobin implements NotarySelector {
+        private final AtomicInteger next = new AtomicInteger();
+
+        @Override
+        public Party select(List<Party> notaries, Party counterparty) {
+            return notaries.get(Math.floorMod(next.getAndIncrement(), notaries.size()));
+        }
+    }
+
+    /**
+     * Picks among the notaries whose recent notarisations were quickest, in turn.
+     * 直近の公証が最も速かった公証人の中から、順番に選びます。
+     * Each notary's latency is a decaying average in which the latest notarisation has a weight of [WEIGHT]. A notary
+     * that has not notarised anything yet is taken to be as quick as the average of the others, so it is neither
+     * swamped nor starved. Every notary within [NEAR_TIE] of the quickest is a candidate, and the candidates are handed
+     * out in turn: issuances are not notarised and so never update the averages, and a burst of them would otherwise
+     * all go to the same notary.
+     * 各公証人の遅延は減衰平均で、最新の公証の重みは[WEIGHT]です。まだ何も公証していない公証人は他の公証人の平均と同じ
+     * 速さとみなされるため、過負荷にも放置にもなりません。最も速い公証人から[NEAR_TIE]以内のすべての公証人が候補となり、
+     * 候補は順番に割り当てられます。発行は公証されないため平均を更新することはなく、そうしなければ発行の集中がすべて
+     * 同じ公証人に送られてしまうからです。
+     */
+    public static class LeastRecentLatency implements NotarySelector {
+        public static final double WEIGHT = 0.2;
+        public static final double NEAR_TIE = 1.2;
+
+        private final Map<Party, Double> averages = new ConcurrentHashMap<>();
+        private final AtomicInteger next = new AtomicInteger();
+
+        @Override
+        public Party select(List<Party> notaries, Party counterparty) {
+            double known = 0;
+            int count = 0;
+            for (Party notary: notaries) {
+                Double average = averages.get(notary);
+                if (average != null) {
+                    known += average;
+                    count++;
+                }
+            }
+            double coldStart = count == 0 ? 0 : known / count;
+            double quickest = Double.MAX_VALUE;
+            for (Party notary: notaries) {
+                quickest = Math.min(quickest, averages.getOrDefault(notary, coldStart));
+            }
+            List<Party> candidates = new ArrayList<>();
+            for (Party notary: notaries) {
+                if (averages.getOrDefault(notary, coldStart) <= quickest * NEAR_TIE) {
+                    candidates.add(notary);
+                }
+            }
+            return candidates.get(Math.floorMod(next.getAndIncrement(), candidates.size()));
+        }
+
+        @Override
+        public void recordLatency(Party notary, long nanos) {
+            averages.merge(notary, (double) nanos, (average, latest) -> average + WEIGHT * (latest - average));
+        }
+    }
+
+    /**
+     * Always picks the same notary for the same counterparty, so that the states shared with a counterparty can be
+     * spent together.
+     * 同じ取引相手には常に同じ公証人を選ぶため、取引相手と共有する状態を一緒に使用できます。
+     */
+    public static class HashByCounterparty implements NotarySelector {
+        @Override
+        public Party select(List<Party> notaries, Party counterparty) {
+            return notaries.get(Math.floorMod(counterparty.getName().toString().hashCode(), notaries.size()));
+        }
+    }
+
+    private final AppServiceHub serviceHub;
+    private volatile NotarySelector selector;
+
+    public NotarySelectionService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        String strategy = serviceHub.getAppContext().getConfig().exists("notarySelection")
+                ? serviceHub.getAppContext().getConfig().getString("notarySelection")
+                : "round-robin";
+        this.selector = selectorFor(strategy);
+    }
+
+    /**
+     * Returns the selector for a strategy name from the CorDapp config.
+     * CorDapp設定の戦略名に対応するセレクターを返します。
+     */
+    public static NotarySelector selectorFor(String strategy) {
+        switch (strategy) {
+            case "round-robin":
+                return new RoundRobin();
+            case "least-recent-latency":
+                return new LeastRecentLatency();
+            case "hash-by-counterparty":
+                return new HashByCounterparty();
+            default:
+                throw new IllegalArgumentException("Unknown notary selection strategy " + strategy + ".");
+        }
+    }
+
+    public void setSelector(NotarySelector selector) {
+        this.selector = selector;
+    }
+
+    /**
+     * Returns the notary to use for a new transaction with [counterparty].
+     * [counterparty]との新しいトランザクションに使用する公証人を返します。
+     */
+    public Party selectNotary(Party counterparty) {
+        List<Party> notaries = serviceHub.getNetworkMapCache().getNotaryIdentities().stream()
+                .sorted(Comparator.comparing(notary -> notary.getName().toString()))
+                .collect(Collectors.toList());
+        if (notaries.isEmpty()) {
+            throw new IllegalStateException("There are no notaries on the network.");
+        }
+        return selector.select(notaries, counterparty);
+    }
+
+    /**
+     * Records how long [notary] took to notarise a transaction, from when [started] was started until now.
+     * Only the notarisation is timed (see [TimedFinalityFlow]), not the recording and distribution that follow it, and
+     * a notarisation that spanned a restart is not recorded.
+     * [started]が開始されてから現在までに、[notary]がトランザクションの公証にかかった時間を記録します。
+     * 公証だけが計測され（[TimedFinalityFlow]を参照）、その後の記録と配布は計測されません。また、再起動をまたいだ
+     * 公証は記録されません。
+     */
+    public void recordNotarisation(Party notary, FlowMetricsService.Stopwatch started) {
+        long elapsed = started.elapsedNanos();
+        if (elapsed >= 0) {
+            selector.recordLatency(notary, elapsed);
+        }
+    }
+}
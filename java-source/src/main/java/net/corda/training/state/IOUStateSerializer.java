@@ -0,0 +1,146 @@
+package net.corda.training.state;
+
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.DeprecatedConstructorForDeserialization;
+import net.corda.core.serialization.SerializationCustomSerializer;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Currency;
+import java.util.UUID;
+
+/**
+ * A compact AMQP serializer for [IOUState], picked up by the node when it scans the CorDapp.
+ * CorDappのスキャン時にノードが検出する、[IOUState]用のコンパクトなAMQPシリアライザー。
+ * The reflective serializer writes [amount] and [paid] as two full [Amount] objects, each with its own display token
+ * size and currency. The contract requires both amounts to be in the same currency, so the proxy stores them as two
+ * longs and a single currency code, along with the optional instalment. The parties are still written as [Party]
+ * objects: AMQP already writes a party that appears again in the same transaction as a back-reference, and a party
+ * cannot be rebuilt from its name alone without the identity service, which is not available during deserialization.
+ * リフレクションによるシリアライザーは、[amount]と[paid]をそれぞれ独自の表示トークンサイズと通貨を持つ2つの完全な[Amount]
+ * オブジェクトとして書き込みます。契約は両方の金額が同じ通貨であることを要求するため、プロキシはそれらを2つのlongと1つの
+ * 通貨コードとして保存し、任意の分割払い額も同様に保存します。当事者は引き続き[Party]オブジェクトとして書き込まれます。
+ * AMQPは同じトランザクション内で再び現れる当事者を既に後方参照として書き込みます。また、デシリアライズ中は利用できない
+ * IDサービスなしでは、名前だけから当事者を再構築できません。
+ */
+public class IOUStateSerializer implements SerializationCustomSerializer<IOUState, IOUStateSerializer.Proxy> {
+
+    /**
+     * The form in which an [IOUState] is written to the ledger.
+     * [IOUState]が台帳に書き込まれる形式。
+     * The proxy is read with Corda's evolution rules, so states written in an earlier form of it stay readable. Each
+     * earlier form has a constructor annotated with [DeprecatedConstructorForDeserialization] taking exactly its
+     * properties, and a property added later must get such a constructor for the form before it.
+     * プロキシはCordaの進化ルールで読み込まれるため、以前の形式で書き込まれた状態も読み込み可能なままです。以前の各形式には、
+     * そのプロパティだけを取る[DeprecatedConstructorForDeserialization]の付いたコンストラクターがあり、後から追加する
+     * プロパティには、その前の形式用のコンストラクターが必要です。
+     */
+    public static class Proxy {
+        private final String currency;
+        private final long amount;
+        private final long paid;
+        private final Party lender;
+        private final Party borrower;
+        private final String externalId;
+        private final UUID id;
+        private final Instant dueDate;
+        private final Long instalment;
+        private final Duration instalmentInterval;
+
+        public Proxy(String currency, long amount, long paid, Party lender, Party borrower, String externalId, UUID id,
+                     Instant dueDate, Long instalment, Duration instalmentInterval) {
+            this.currency = currency;
+            this.amount = amount;
+            this.paid = paid;
+            this.lender = lender;
+            this.borrower = borrower;
+            this.externalId = externalId;
+            this.id = id;
+            this.dueDate = dueDate;
+            this.instalment = instalment;
+            this.instalmentInterval = instalmentInterval;
+        }
+
+        // Version 1, written before IOUs had a due date and instalments.
+        // バージョン1。IOUに期日と分割払いがなかった頃に書き込まれた形式です。
+        @DeprecatedConstructorForDeserialization(version = 1)
+        public Proxy(String currency, long amount, long paid, Party lender, Party borrower, String externalId, UUID id) {
+            this(currency, amount, paid, lender, borrower, externalId, id, null, null, null);
+        }
+
+        public String getCurrency() {
+            return currency;
+        }
+
+        public long getAmount() {
+            return amount;
+        }
+
+        public long getPaid() {
+            return paid;
+        }
+
+        public Party getLender() {
+            return lender;
+        }
+
+        public Party getBorrower() {
+            return borrower;
+        }
+
+        public String getExternalId() {
+            return externalId;
+        }
+
+        public UUID getId() {
+            return id;
+        }
+
+        public Instant getDueDate() {
+            return dueDate;
+        }
+
+        public Long getInstalment() {
+            return instalment;
+        }
+
+        public Duration getInstalmentInterval() {
+            return instalmentInterval;
+        }
+    }
+
+    @Override
+    public Proxy toProxy(IOUState obj) {
+        if (!obj.paid.getToken().equals(obj.amount.getToken())
+                || (obj.instalment != null && !obj.instalment.getToken().equals(obj.amount.getToken()))) {
+            throw new IllegalArgumentException("The paid amount and instalment of an IOU must be in the currency of the IOU.");
+        }
+        return new Proxy(
+                obj.amount.getToken().getCurrencyCode(),
+                obj.amount.getQuantity(),
+                obj.paid.getQuantity(),
+                obj.lender,
+                obj.borrower,
+                obj.getLinearId().getExternalId(),
+                obj.getLinearId().getId(),
+                obj.dueDate,
+                obj.instalment == null ? null : obj.instalment.getQuantity(),
+                obj.instalmentInterval);
+    }
+
+    @Override
+    public IOUState fromProxy(Proxy proxy) {
+        Currency currency = Currency.getInstance(proxy.currency);
+        return IOUState.fromSerializedFields(
+                new Amount<>(proxy.amount, currency),
+                proxy.lender,
+                proxy.borrower,
+                new Amount<>(proxy.paid, currency),
+                new UniqueIdentifier(proxy.externalId, proxy.id),
+                proxy.dueDate,
+                proxy.instalment == null ? null : new Amount<>(proxy.instalment, currency),
+                proxy.instalmentInterval);
+    }
+}
@@ -1,7 +1,7 @@
 "use strict";
 
 // Define your backend here.
-angular.module('demoAppModule', ['ui.bootstrap']).controller('DemoAppCtrl', function($http, $location, $uibModal) {
+angular.module('demoAppModule', ['ui.bootstrap']).controller('DemoAppCtrl', function($http, $location, $uibModal, $scope) {
     const demoApp = this;
 
     const apiBaseURL = "/api/iou/";
@@ -72,18 +72,58 @@ angular.module('demoAppModule', ['ui.bootstrap']).controller('DemoAppCtrl', func
         settleModal.result.then(() => {}, () => {});
     };
 
+    /** Loads the IOUs page by page, from [page] on, until all of them have been loaded. */
+    const iouPageSize = 1000;
+    const loadIOUs = (page, loaded) => $http.get(apiBaseURL + "ious", {params: {page: page, pageSize: iouPageSize}}).then((response) => {
+        const ious = loaded.concat(response.data.states.map((stateAndRef) => stateAndRef.state.data));
+        if (response.data.states.length === iouPageSize && page * iouPageSize < response.data.totalStatesAvailable) {
+            return loadIOUs(page + 1, ious);
+        }
+        return ious;
+    });
+
+    /** Replaces the IOUs a vault update consumed or produced with the ones it produced. */
+    const applyDelta = (ious, delta) => {
+        const changed = delta.consumed.concat(delta.produced.map((iou) => iou.linearId.id));
+        return ious.filter((iou) => changed.indexOf(iou.linearId.id) === -1).concat(delta.produced);
+    };
+
+    // The IOU deltas received while each refresh is loading, replayed in order over the IOUs it loads.
+    const loading = [];
+    // Counts the cash balance events, so that a balance response older than the latest event is dropped.
+    let cashEvents = 0;
+
     /** Refreshes the front-end. */
     demoApp.refresh = () => {
         // Update the list of IOUs.
-        $http.get(apiBaseURL + "ious").then((response) => demoApp.ious =
-            Object.keys(response.data).map((key) => response.data[key].state.data));
+        const deltas = [];
+        loading.push(deltas);
+        loadIOUs(1, [])
+            .then((ious) => demoApp.ious = deltas.reduce(applyDelta, ious))
+            .finally(() => loading.splice(loading.indexOf(deltas), 1));
 
         // Update the cash balances.
-        $http.get(apiBaseURL + "cash-balances").then((response) => demoApp.cashBalances =
-            response.data);
-    }
+        const cashEventsBefore = cashEvents;
+        $http.get(apiBaseURL + "cash-balances").then((response) => {
+            if (cashEvents === cashEventsBefore) {
+                demoApp.cashBalances = response.data;
+            }
+        });
+    };
 
-    demoApp.refresh();
+    // Applies IOU and cash balance changes pushed by the node instead of reloading everything. The stream is opened
+    // before anything is loaded, and everything is reloaded whenever it (re)connects, so that no change is missed.
+    const stream = new EventSource(apiBaseURL + "stream");
+    stream.addEventListener("open", () => demoApp.refresh());
+    stream.addEventListener("iou", (event) => $scope.$apply(() => {
+        const delta = JSON.parse(event.data);
+        loading.forEach((deltas) => deltas.push(delta));
+        demoApp.ious = applyDelta(demoApp.ious || [], delta);
+    }));
+    stream.addEventListener("cash-balances", (event) => $scope.$apply(() => {
+        cashEvents++;
+        demoApp.cashBalances = JSON.parse(event.data);
+    }));
 });
 
 // Causes the webapp to ignore unhandled modal dismissals.
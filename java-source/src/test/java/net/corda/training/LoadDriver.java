@@ -0,0 +1,413 @@
+package net.corda.training;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.FlowProgressHandle;
+import net.corda.finance.Currencies;
+import net.corda.testing.driver.DriverParameters;
+import net.corda.testing.driver.NodeHandle;
+import net.corda.testing.driver.NodeParameters;
+import net.corda.testing.driver.VerifierType;
+import net.corda.testing.node.NotarySpec;
+import net.corda.testing.node.TestCordapp;
+import net.corda.testing.node.User;
+import net.corda.training.flow.IOUIssueFlow;
+import net.corda.training.flow.IOUSettleFlow;
+import net.corda.training.flow.IOUTransferFlow;
+import net.corda.training.flow.SelfIssueCashFlow;
+import net.corda.training.flow.TimedFinalityFlow;
+import net.corda.training.state.IOUState;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static net.corda.testing.driver.Driver.driver;
+
+/**
+ * This file starts nodes through the driver DSL, like [NodeDriver], and puts them under load to measure what the
+ * CorDapp sustains. Do not use in a production environment.
+ *
+ * A mix of issue, transfer and settle flows is started over RPC at a fixed rate. The flows are scheduled open-loop:
+ * the n-th flow is due at n / rate seconds whether or not the earlier flows have finished, and its latency is
+ * measured from when it was due rather than from when it was sent. A struggling node therefore shows up as latency
+ * instead of quietly lowering the load it is offered (coordinated omission).
+ *
+ * Options are key=value arguments, e.g. `./gradlew java-source:loadTest -PloadArgs='rate=50 duration=120'`:
+ *
+ * - nodes: the number of participant nodes (default 3).
+ * - notaries: the number of notaries (default 1).
+ * - rate: the flows started per second across all nodes (default 20).
+ * - warmup: the seconds of load run before measuring starts (default 10).
+ * - duration: the seconds of load that are measured (default 60).
+ * - mix: the relative weights of the flow types (default issue:60,transfer:20,settle:20). Transfers and settlements
+ *   use IOUs issued earlier in the run, and an IOU is issued instead when there are none.
+ * - seed: the seed for the choice of flows, parties and amounts (default 1).
+ * - out: the directory the results are written to (default build/load).
+ *
+ * For each flow type the run writes HdrHistogram interval logs of the latency, `<type>.hlog`, and of the notary time,
+ * `<type>-notary.hlog`, in microseconds, and a line of `summary.csv` with the throughput, the failures and the
+ * percentiles of both. The notary time runs from the flow asking the notary for its signature until it moves on to
+ * broadcasting the transaction, as seen by the RPC client, so it includes the time spent queueing at the notary.
+ */
+public class LoadDriver {
+
+    private static final String NOTARISING = TimedFinalityFlow.NOTARISING.getLabel();
+    private static final String BROADCASTING = TimedFinalityFlow.BROADCASTING.getLabel();
+    private static final Amount<Currency> CASH_PER_NOTARY = Currencies.POUNDS(10_000_000);
+    private static final long DRAIN_SECONDS = 120;
+
+    private enum FlowType { ISSUE, TRANSFER, SETTLE }
+
+    public static void main(String[] args) {
+        final Map<String, String> options = new HashMap<>();
+        for (String arg: args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("Options must be given as key=value, not " + arg + ".");
+            }
+            options.put(option[0], option[1]);
+        }
+        final int nodeCount = Integer.parseInt(options.getOrDefault("nodes", "3"));
+        final int notaryCount = Integer.parseInt(options.getOrDefault("notaries", "1"));
+
+        final User user = new User("user1", "test", ImmutableSet.of("ALL"));
+        List<NotarySpec> notarySpecs = new ArrayList<>();
+        for (int i = 0; i < notaryCount; i++) {
+            notarySpecs.add(new NotarySpec(new CordaX500Name("Notary" + i, "London", "GB"), true, Arrays.asList(user), VerifierType.InMemory, null));
+        }
+
+        driver(new DriverParameters()
+            .withCordappsForAllNodes(Arrays.asList(TestCordapp.findCordapp("net.corda.training"), TestCordapp.findCordapp("net.corda.finance")))
+            .withNotarySpecs(notarySpecs), dsl -> {
+                List<CordaFuture<NodeHandle>> nodeFutures = new ArrayList<>();
+                for (int i = 0; i < nodeCount; i++) {
+                    nodeFutures.add(dsl.startNode(new NodeParameters()
+                            .withProvidedName(new CordaX500Name("Participant" + i, "London", "GB"))
+                            .withRpcUsers(ImmutableList.of(user))));
+                }
+
+                try {
+                    List<NodeHandle> nodes = new ArrayList<>();
+                    for (CordaFuture<NodeHandle> nodeFuture: nodeFutures) {
+                        nodes.add(nodeFuture.get());
+                    }
+                    new LoadDriver(nodes, options).run();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+
+                return null;
+            });
+    }
+
+    private final List<NodeHandle> nodes;
+    private final List<Party> parties = new ArrayList<>();
+    private final double rate;
+    private final long warmupSeconds;
+    private final long durationSeconds;
+    private final Map<FlowType, Integer> mix = new EnumMap<>(FlowType.class);
+    private final int totalWeight;
+    private final Random random;
+    private final File outputDirectory;
+
+    private final Map<FlowType, Stats> stats = new EnumMap<>(FlowType.class);
+    private final Queue<Outstanding> outstanding = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private LoadDriver(List<NodeHandle> nodes, Map<String, String> options) {
+        this.nodes = nodes;
+        for (NodeHandle node: nodes) {
+            parties.add(node.getNodeInfo().getLegalIdentities().get(0));
+        }
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "20"));
+        this.warmupSeconds = Long.parseLong(options.getOrDefault("warmup", "10"));
+        this.durationSeconds = Long.parseLong(options.getOrDefault("duration", "60"));
+        this.random = new Random(Long.parseLong(options.getOrDefault("seed", "1")));
+        this.outputDirectory = new File(options.getOrDefault("out", "build/load"));
+
+        int weights = 0;
+        for (String weight: options.getOrDefault("mix", "issue:60,transfer:20,settle:20").split(",")) {
+            String[] typeAndWeight = weight.split(":");
+            FlowType type = FlowType.valueOf(typeAndWeight[0].trim().toUpperCase(Locale.ROOT));
+            mix.put(type, Integer.parseInt(typeAndWeight[1].trim()));
+            weights += mix.get(type);
+        }
+        this.totalWeight = weights;
+
+        if (nodes.size() < 2 || rate <= 0 || totalWeight <= 0) {
+            throw new IllegalArgumentException("The load test needs at least two nodes, a positive rate and a positive weight.");
+        } else if (nodes.size() < 3 && mix.getOrDefault(FlowType.TRANSFER, 0) > 0) {
+            throw new IllegalArgumentException("Transfers need a third node to be the new lender.");
+        }
+    }
+
+    private void run() throws Exception {
+        // Give every node enough cash at every notary to settle any IOU it borrows.
+        List<CordaFuture<?>> funding = new ArrayList<>();
+        for (NodeHandle node: nodes) {
+            for (Party notary: node.getRpc().notaryIdentities()) {
+                funding.add(node.getRpc().startFlowDynamic(SelfIssueCashFlow.class, CASH_PER_NOTARY, notary).getReturnValue());
+            }
+        }
+        for (CordaFuture<?> funded: funding) {
+            funded.get();
+        }
+
+        outputDirectory.mkdirs();
+        long startMillis = System.currentTimeMillis();
+        for (FlowType type: FlowType.values()) {
+            stats.put(type, new Stats(type, startMillis));
+        }
+        ExecutorService senders = Executors.newCachedThreadPool();
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        reporter.scheduleAtFixedRate(this::recordInterval, 1, 1, TimeUnit.SECONDS);
+
+        // Start each flow when it is due, however far behind the earlier flows are.
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        for (long n = 0; ; n++) {
+            final long due = start + (long) (n * 1e9 / rate);
+            if (due >= end) {
+                break;
+            }
+            for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+            final Attempt attempt = nextAttempt(due, due >= measureFrom);
+            inFlight.incrementAndGet();
+            senders.execute(() -> send(attempt));
+        }
+
+        // Let the flows still in flight finish before the nodes are stopped.
+        long drainUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_SECONDS);
+        while (inFlight.get() > 0 && System.nanoTime() < drainUntil) {
+            Thread.sleep(100);
+        }
+        senders.shutdownNow();
+        reporter.shutdown();
+        reporter.awaitTermination(10, TimeUnit.SECONDS);
+        recordInterval();
+        writeSummary();
+    }
+
+    /**
+     * Picks the next flow, its parties and its amount. Only the scheduling thread calls this, so a seed gives the same
+     * sequence of choices.
+     */
+    private Attempt nextAttempt(long due, boolean measured) {
+        int choice = random.nextInt(totalWeight);
+        FlowType type = FlowType.ISSUE;
+        for (Map.Entry<FlowType, Integer> weight: mix.entrySet()) {
+            choice -= weight.getValue();
+            if (choice < 0) {
+                type = weight.getKey();
+                break;
+            }
+        }
+        Outstanding iou = type == FlowType.ISSUE ? null : outstanding.poll();
+
+        if (iou != null && type == FlowType.TRANSFER) {
+            int newLender = otherNode(iou.lender, iou.borrower);
+            return new Attempt(type, iou.lender, IOUTransferFlow.InitiatorFlow.class, new Object[] { iou.linearId, parties.get(newLender) },
+                    due, measured, () -> outstanding.add(new Outstanding(iou.linearId, iou.amount, newLender, iou.borrower)));
+        } else if (iou != null && type == FlowType.SETTLE) {
+            return new Attempt(type, iou.borrower, IOUSettleFlow.InitiatorFlow.class, new Object[] { iou.linearId, iou.amount },
+                    due, measured, () -> { });
+        }
+
+        int lender = random.nextInt(nodes.size());
+        int borrower = otherNode(lender, lender);
+        IOUState state = new IOUState(Currencies.POUNDS(1 + random.nextInt(100)), parties.get(lender), parties.get(borrower));
+        return new Attempt(FlowType.ISSUE, lender, IOUIssueFlow.InitiatorFlow.class, new Object[] { state },
+                due, measured, () -> outstanding.add(new Outstanding(state.getLinearId(), state.amount, lender, borrower)));
+    }
+
+    private int otherNode(int first, int second) {
+        int node;
+        do {
+            node = random.nextInt(nodes.size());
+        } while (node == first || node == second);
+        return node;
+    }
+
+    private void send(Attempt attempt) {
+        Stats typeStats = stats.get(attempt.type);
+        try {
+            FlowProgressHandle<?> handle = nodes.get(attempt.node).getRpc().startTrackedFlowDynamic(attempt.flowClass, attempt.args);
+            handle.getProgress().subscribe(step -> {
+                if (step.equals(NOTARISING)) {
+                    attempt.notarising.compareAndSet(0, System.nanoTime());
+                } else if (step.equals(BROADCASTING)) {
+                    attempt.broadcasting.compareAndSet(0, System.nanoTime());
+                }
+            }, error -> { });
+            handle.getReturnValue().then(result -> {
+                try {
+                    result.get();
+                    attempt.onSuccess.run();
+                    typeStats.succeeded(attempt, System.nanoTime());
+                } catch (Exception e) {
+                    typeStats.failed(attempt, e);
+                } finally {
+                    handle.close();
+                    inFlight.decrementAndGet();
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            typeStats.failed(attempt, e);
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private synchronized void recordInterval() {
+        for (Stats typeStats: stats.values()) {
+            typeStats.recordInterval();
+        }
+    }
+
+    private void writeSummary() throws IOException {
+        try (PrintWriter summary = new PrintWriter(new File(outputDirectory, "summary.csv"), "UTF-8")) {
+            summary.println("flow,completed,failed,throughput_per_sec,p50_ms,p99_ms,p999_ms,max_ms,notary_p50_ms,notary_p99_ms,notary_p999_ms,notary_max_ms");
+            for (Stats typeStats: stats.values()) {
+                String line = String.format(Locale.ROOT, "%s,%d,%d,%.2f,%s,%s",
+                        typeStats.name, typeStats.completed.get(), typeStats.failures.get(),
+                        typeStats.completed.get() / (double) durationSeconds,
+                        percentiles(typeStats.latencyTotal), percentiles(typeStats.notaryTotal));
+                summary.println(line);
+                System.out.println(line);
+            }
+        }
+        for (Stats typeStats: stats.values()) {
+            typeStats.close();
+        }
+        System.out.println("Results written to " + outputDirectory.getAbsolutePath());
+    }
+
+    private static String percentiles(Histogram micros) {
+        return String.format(Locale.ROOT, "%.3f,%.3f,%.3f,%.3f",
+                micros.getValueAtPercentile(50.0) / 1000.0, micros.getValueAtPercentile(99.0) / 1000.0,
+                micros.getValueAtPercentile(99.9) / 1000.0, micros.getMaxValue() / 1000.0);
+    }
+
+    /**
+     * One flow to start, on the node at index [node], and what to do once it has succeeded.
+     */
+    private static class Attempt {
+        final FlowType type;
+        final int node;
+        final Class<? extends FlowLogic<?>> flowClass;
+        final Object[] args;
+        final long due;
+        final boolean measured;
+        final Runnable onSuccess;
+        final AtomicLong notarising = new AtomicLong();
+        final AtomicLong broadcasting = new AtomicLong();
+
+        Attempt(FlowType type, int node, Class<? extends FlowLogic<?>> flowClass, Object[] args, long due, boolean measured, Runnable onSuccess) {
+            this.type = type;
+            this.node = node;
+            this.flowClass = flowClass;
+            this.args = args;
+            this.due = due;
+            this.measured = measured;
+            this.onSuccess = onSuccess;
+        }
+    }
+
+    /**
+     * An IOU issued during the run, between the nodes at indexes [lender] and [borrower].
+     */
+    private static class Outstanding {
+        final UniqueIdentifier linearId;
+        final Amount<Currency> amount;
+        final int lender;
+        final int borrower;
+
+        Outstanding(UniqueIdentifier linearId, Amount<Currency> amount, int lender, int borrower) {
+            this.linearId = linearId;
+            this.amount = amount;
+            this.lender = lender;
+            this.borrower = borrower;
+        }
+    }
+
+    /**
+     * The measurements for one flow type. Latencies are recorded in microseconds.
+     */
+    private class Stats {
+        final String name;
+        final Recorder latency = new Recorder(3);
+        final Recorder notary = new Recorder(3);
+        final Histogram latencyTotal = new Histogram(3);
+        final Histogram notaryTotal = new Histogram(3);
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final HistogramLogWriter latencyLog;
+        final HistogramLogWriter notaryLog;
+
+        Stats(FlowType type, long startMillis) throws IOException {
+            this.name = type.name().toLowerCase(Locale.ROOT);
+            this.latencyLog = logWriter(new File(outputDirectory, name + ".hlog"), startMillis);
+            this.notaryLog = logWriter(new File(outputDirectory, name + "-notary.hlog"), startMillis);
+        }
+
+        void succeeded(Attempt attempt, long finished) {
+            if (!attempt.measured) {
+                return;
+            }
+            completed.incrementAndGet();
+            latency.recordValue(TimeUnit.NANOSECONDS.toMicros(finished - attempt.due));
+            long notarising = attempt.notarising.get();
+            long broadcasting = attempt.broadcasting.get();
+            if (notarising != 0 && broadcasting > notarising) {
+                notary.recordValue(TimeUnit.NANOSECONDS.toMicros(broadcasting - notarising));
+            }
+        }
+
+        void failed(Attempt attempt, Exception e) {
+            if (attempt.measured && failures.incrementAndGet() <= 10) {
+                System.err.println("A " + name + " flow failed: " + e.getMessage());
+            }
+        }
+
+        void recordInterval() {
+            Histogram latencyInterval = latency.getIntervalHistogram();
+            latencyTotal.add(latencyInterval);
+            latencyLog.outputIntervalHistogram(latencyInterval);
+            Histogram notaryInterval = notary.getIntervalHistogram();
+            notaryTotal.add(notaryInterval);
+            notaryLog.outputIntervalHistogram(notaryInterval);
+        }
+
+        void close() {
+            latencyLog.close();
+            notaryLog.close();
+        }
+    }
+
+    private static HistogramLogWriter logWriter(File file, long startMillis) throws IOException {
+        HistogramLogWriter writer = new HistogramLogWriter(file);
+        writer.outputLogFormatVersion();
+        writer.outputStartTime(startMillis);
+        writer.setBaseTime(startMillis);
+        writer.outputLegend();
+        return writer;
+    }
+}
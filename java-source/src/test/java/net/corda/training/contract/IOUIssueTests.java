@@ -14,6 +14,8 @@ import static net.corda.training.TestUtils.*;
 import net.corda.training.state.IOUState;
 import net.corda.training.state.IOUStateTests;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Arrays;
 import org.junit.*;
 
@@ -143,29 +145,65 @@ public class IOUIssueTests {
 
     /**
      * Task 3.
-     * Now we need to ensure that only one {@link IOUState} is issued per transaction.
-     *ここで、トランザクションごとに1つの{@link IOUState}のみが発行されるようにする必要があります。
-     * TODO: Write a contract constraint that ensures only one output state is created in a transaction.
-     * TODO：トランザクションで1つの出力状態のみが作成されることを保証するコントラクト制約を記述します。
-     * Hint: Write an additional constraint within the existing [requireThat] block which you created in the previous
-     * task.
-     *ヒント：前のタスクで作成した既存の[requireThat]ブロック内に追加の制約を記述します。
+     * Now we need to ensure that every {@link IOUState} issued in a transaction is a distinct IOU.
+     *ここで、トランザクションで発行される各{@link IOUState}が別個のIOUであることを確認する必要があります。
+     * Several IOUs may be issued in one transaction, but the same IOU (the same [linearId]) may not be issued twice.
+     *1つのトランザクションで複数のIOUを発行できますが、同じIOU（同じ[linearId]）を2回発行することはできません。
      */
     @Test
-    public void issueTransactionMustHaveOneOutput() {
+    public void issueTransactionMustHaveDistinctOutputs() {
         IOUState iou = new IOUState(Currencies.POUNDS(1), ALICE.getParty(), BOB.getParty());
+        IOUState otherIou = new IOUState(Currencies.POUNDS(2), ALICE.getParty(), BOB.getParty());
         ledger(ledgerServices, l -> {
             l.transaction(tx -> {
                 tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey()), new IOUContract.Commands.Issue());
-                tx.output(IOUContract.IOU_CONTRACT_ID, iou); // Two outputs fails.
+                tx.output(IOUContract.IOU_CONTRACT_ID, iou); // The same IOU twice fails.
                 tx.output(IOUContract.IOU_CONTRACT_ID, iou);
-                return tx.failsWith("Only one output state should be created when issuing an IOU.");
+                return tx.failsWith("Each issued IOU must have a distinct linear id.");
             });
             l.transaction(tx -> {
                 tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey()), new IOUContract.Commands.Issue());
                 tx.output(IOUContract.IOU_CONTRACT_ID, iou); // One output passes.
                 return tx.verifies();
             });
+            l.transaction(tx -> {
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey()), new IOUContract.Commands.Issue());
+                tx.output(IOUContract.IOU_CONTRACT_ID, iou); // Two distinct outputs pass.
+                tx.output(IOUContract.IOU_CONTRACT_ID, otherIou);
+                return tx.verifies();
+            });
+            return null;
+        });
+    }
+
+    /**
+     * Every IOU in a batch issuance is checked, and the signers must be exactly the participants of all of them.
+     *一括発行のすべてのIOUが確認され、署名者はそれらすべての参加者と完全に一致する必要があります。
+     */
+    @Test
+    public void batchIssueChecksEveryOutput() {
+        IOUState iou = new IOUState(Currencies.POUNDS(1), ALICE.getParty(), BOB.getParty());
+        IOUState zeroIou = new IOUState(Currencies.POUNDS(0), ALICE.getParty(), BOB.getParty());
+        IOUState charlieIou = new IOUState(Currencies.POUNDS(3), CHARLIE.getParty(), BOB.getParty());
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey()), new IOUContract.Commands.Issue());
+                tx.output(IOUContract.IOU_CONTRACT_ID, iou);
+                tx.output(IOUContract.IOU_CONTRACT_ID, zeroIou);
+                return tx.failsWith("A newly issued IOU must have a positive amount.");
+            });
+            l.transaction(tx -> {
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey()), new IOUContract.Commands.Issue());
+                tx.output(IOUContract.IOU_CONTRACT_ID, iou);
+                tx.output(IOUContract.IOU_CONTRACT_ID, charlieIou);
+                return tx.failsWith("Both lender and borrower together only may sign IOU issue transaction.");
+            });
+            l.transaction(tx -> {
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey(), CHARLIE.getPublicKey()), new IOUContract.Commands.Issue());
+                tx.output(IOUContract.IOU_CONTRACT_ID, iou);
+                tx.output(IOUContract.IOU_CONTRACT_ID, charlieIou);
+                return tx.verifies();
+            });
             return null;
         });
     }
@@ -335,4 +373,32 @@ public class IOUIssueTests {
             return null;
         });
     }
+
+    /**
+     * An IOU paid in instalments needs a due date and a positive instalment and interval.
+     * 分割払いのIOUには、期日と正の分割払い額および間隔が必要です。
+     */
+    @Test
+    public void instalmentsMustHaveADueDateAndAPositiveInterval() {
+        IOUState iou = new IOUState(Currencies.POUNDS(10), ALICE.getParty(), BOB.getParty());
+        Instant dueDate = Instant.parse("2030-01-01T00:00:00Z");
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey()), new IOUContract.Commands.Issue());
+                tx.output(IOUContract.IOU_CONTRACT_ID, iou.withSchedule(null, Currencies.POUNDS(2), Duration.ofDays(30)));
+                return tx.failsWith("An IOU paid in instalments must have a due date.");
+            });
+            l.transaction(tx -> {
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey()), new IOUContract.Commands.Issue());
+                tx.output(IOUContract.IOU_CONTRACT_ID, iou.withSchedule(dueDate, Currencies.POUNDS(2), Duration.ZERO));
+                return tx.failsWith("The interval between instalments must be positive.");
+            });
+            l.transaction(tx -> {
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey()), new IOUContract.Commands.Issue());
+                tx.output(IOUContract.IOU_CONTRACT_ID, iou.withSchedule(dueDate, Currencies.POUNDS(2), Duration.ofDays(30)));
+                return tx.verifies();
+            });
+            return null;
+        });
+    }
 }
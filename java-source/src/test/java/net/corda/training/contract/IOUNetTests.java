@@ -0,0 +1,216 @@
+package net.corda.training.contract;
+
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.PartyAndReference;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.utilities.OpaqueBytes;
+import net.corda.finance.Currencies;
+import net.corda.finance.contracts.asset.Cash;
+import net.corda.testing.node.MockServices;
+import net.corda.training.state.IOUState;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Currency;
+
+import static net.corda.testing.node.NodeTestUtils.ledger;
+import static net.corda.training.TestUtils.*;
+
+/**
+ * Tests for the [Net] command, which replaces the IOUs two parties owe each other with at most one residual IOU.
+ * 2者が互いに負うIOUを最大1つの残余IOUに置き換える[Net]コマンドのテスト。
+ */
+public class IOUNetTests {
+
+    static private final MockServices ledgerServices = new MockServices(Arrays.asList("net.corda.training", "net.corda.finance.contracts"));
+
+    private final IOUState aliceLendsTen = new IOUState(Currencies.POUNDS(10), ALICE.getParty(), BOB.getParty());
+    private final IOUState bobLendsFour = new IOUState(Currencies.POUNDS(4), BOB.getParty(), ALICE.getParty());
+
+    private Cash.State createCashState(AbstractParty owner, Amount<Currency> amount) {
+        OpaqueBytes defaultBytes = new OpaqueBytes(new byte[1]);
+        PartyAndReference partyAndReference = new PartyAndReference(owner, defaultBytes);
+        return new Cash.State(partyAndReference, amount, owner);
+    }
+
+    /**
+     * Offsetting IOUs are replaced by one IOU for the net amount, owed to the party that was owed more.
+     * 相殺されるIOUは、より多くの債権を持つ当事者に対する純額の1つのIOUに置き換えられます。
+     */
+    @Test
+    public void offsettingIOUsNetToOneResidualIOU() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceLendsTen);
+                tx.input(IOUContract.IOU_CONTRACT_ID, bobLendsFour);
+                tx.output(IOUContract.IOU_CONTRACT_ID, new IOUState(Currencies.POUNDS(6), ALICE.getParty(), BOB.getParty()));
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey()), new IOUContract.Commands.Net());
+                return tx.verifies();
+            });
+            l.transaction(tx -> {
+                // Amounts already paid are taken into account.
+                // すでに支払われた金額が考慮されます。
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceLendsTen.pay(Currencies.POUNDS(6)));
+                tx.input(IOUContract.IOU_CONTRACT_ID, bobLendsFour);
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey()), new IOUContract.Commands.Net());
+                return tx.verifies();
+            });
+            l.transaction(tx -> {
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceLendsTen);
+                tx.input(IOUContract.IOU_CONTRACT_ID, bobLendsFour);
+                tx.output(IOUContract.IOU_CONTRACT_ID, new IOUState(Currencies.POUNDS(6), BOB.getParty(), ALICE.getParty()));
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey()), new IOUContract.Commands.Net());
+                return tx.failsWith("The residual IOU must be owed by the net debtor to the net creditor.");
+            });
+            l.transaction(tx -> {
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceLendsTen);
+                tx.input(IOUContract.IOU_CONTRACT_ID, bobLendsFour);
+                tx.output(IOUContract.IOU_CONTRACT_ID, new IOUState(Currencies.POUNDS(5), ALICE.getParty(), BOB.getParty()));
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey()), new IOUContract.Commands.Net());
+                return tx.failsWith("The residual IOU must be for the net amount.");
+            });
+            l.transaction(tx -> {
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceLendsTen);
+                tx.input(IOUContract.IOU_CONTRACT_ID, bobLendsFour);
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey()), new IOUContract.Commands.Net());
+                return tx.failsWith("There must be one residual IOU when the IOUs do not net to zero.");
+            });
+            return null;
+        });
+    }
+
+    /**
+     * Only offsetting IOUs between two parties in one currency can be netted, no cash may move and the residual IOU has no
+     * schedule.
+     * 1つの通貨建ての2者間で相殺されるIOUのみをネッティングでき、現金は移動できず、残余IOUには支払予定がありません。
+     */
+    @Test
+    public void onlyOffsettingIOUsCanBeNetted() {
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceLendsTen);
+                tx.input(IOUContract.IOU_CONTRACT_ID, bobLendsFour);
+                tx.output(IOUContract.IOU_CONTRACT_ID, new IOUState(Currencies.POUNDS(6), ALICE.getParty(), BOB.getParty()));
+                tx.output(Cash.class.getName(), createCashState(ALICE.getParty(), Currencies.POUNDS(4)));
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey()), new IOUContract.Commands.Net());
+                return tx.failsWith("Only IOUs may be consumed or created when netting.");
+            });
+            l.transaction(tx -> {
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceLendsTen);
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceLendsTen.withNewLender(CHARLIE.getParty()));
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey()), new IOUContract.Commands.Net());
+                return tx.failsWith("All netted IOUs must be between the same two parties.");
+            });
+            l.transaction(tx -> {
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceLendsTen);
+                tx.input(IOUContract.IOU_CONTRACT_ID, new IOUState(Currencies.DOLLARS(4), BOB.getParty(), ALICE.getParty()));
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey()), new IOUContract.Commands.Net());
+                return tx.failsWith("All netted IOUs must be in the same currency.");
+            });
+            l.transaction(tx -> {
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceLendsTen);
+                tx.input(IOUContract.IOU_CONTRACT_ID, new IOUState(Currencies.POUNDS(4), ALICE.getParty(), BOB.getParty()));
+                tx.output(IOUContract.IOU_CONTRACT_ID, new IOUState(Currencies.POUNDS(14), ALICE.getParty(), BOB.getParty()));
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey()), new IOUContract.Commands.Net());
+                return tx.failsWith("Netted IOUs must be owed in both directions.");
+            });
+            l.transaction(tx -> {
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceLendsTen.withSchedule(Instant.parse("2030-01-01T00:00:00Z"), null, null));
+                tx.input(IOUContract.IOU_CONTRACT_ID, bobLendsFour);
+                tx.output(IOUContract.IOU_CONTRACT_ID, new IOUState(Currencies.POUNDS(6), ALICE.getParty(), BOB.getParty()));
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey()), new IOUContract.Commands.Net());
+                return tx.failsWith("IOUs with a due date cannot be netted.");
+            });
+            l.transaction(tx -> {
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceLendsTen);
+                tx.input(IOUContract.IOU_CONTRACT_ID, bobLendsFour);
+                tx.output(IOUContract.IOU_CONTRACT_ID, new IOUState(Currencies.POUNDS(6), ALICE.getParty(), BOB.getParty())
+                        .withSchedule(Instant.parse("2030-01-01T00:00:00Z"), null, null));
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey()), new IOUContract.Commands.Net());
+                return tx.failsWith("Residual IOUs must have no due date or instalments.");
+            });
+            l.transaction(tx -> {
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceLendsTen);
+                tx.input(IOUContract.IOU_CONTRACT_ID, bobLendsFour);
+                tx.output(IOUContract.IOU_CONTRACT_ID, new IOUState(Currencies.POUNDS(6), ALICE.getParty(), BOB.getParty())
+                        .withSchedule(Instant.parse("2030-01-01T00:00:00Z"), Currencies.POUNDS(0), Duration.ofDays(30)));
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey()), new IOUContract.Commands.Net());
+                return tx.failsWith("An instalment must be a positive amount in the currency of the IOU.");
+            });
+            l.transaction(tx -> {
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceLendsTen);
+                tx.input(IOUContract.IOU_CONTRACT_ID, bobLendsFour);
+                tx.output(IOUContract.IOU_CONTRACT_ID, new IOUState(Currencies.POUNDS(6), ALICE.getParty(), BOB.getParty()));
+                tx.command(Arrays.asList(ALICE.getPublicKey()), new IOUContract.Commands.Net());
+                return tx.failsWith("Both parties must sign an IOU netting transaction.");
+            });
+            return null;
+        });
+    }
+
+    /**
+     * A cycle of IOUs between many parties nets to the IOUs that leave every net position unchanged, signed by everyone.
+     * 多数の当事者間のIOUのサイクルは、すべての純ポジションを変えないIOUにネッティングされ、全員が署名します。
+     */
+    @Test
+    public void multilateralNettingPreservesEveryPosition() {
+        IOUState bobLendsTenToCharlie = new IOUState(Currencies.POUNDS(10), BOB.getParty(), CHARLIE.getParty());
+        IOUState charlieLendsFourToAlice = new IOUState(Currencies.POUNDS(4), CHARLIE.getParty(), ALICE.getParty());
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                // Alice is owed 6 net, Charlie owes 6 net and Bob is flat.
+                // アリスは純額で6の債権、チャーリーは純額で6の債務があり、ボブはゼロです。
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceLendsTen);
+                tx.input(IOUContract.IOU_CONTRACT_ID, bobLendsTenToCharlie);
+                tx.input(IOUContract.IOU_CONTRACT_ID, charlieLendsFourToAlice);
+                tx.output(IOUContract.IOU_CONTRACT_ID, new IOUState(Currencies.POUNDS(6), ALICE.getParty(), CHARLIE.getParty()));
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey(), CHARLIE.getPublicKey()), new IOUContract.Commands.MultilateralNet());
+                return tx.verifies();
+            });
+            l.transaction(tx -> {
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceLendsTen);
+                tx.input(IOUContract.IOU_CONTRACT_ID, bobLendsTenToCharlie);
+                tx.input(IOUContract.IOU_CONTRACT_ID, charlieLendsFourToAlice);
+                tx.output(IOUContract.IOU_CONTRACT_ID, new IOUState(Currencies.POUNDS(6), ALICE.getParty(), BOB.getParty()));
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey(), CHARLIE.getPublicKey()), new IOUContract.Commands.MultilateralNet());
+                return tx.failsWith("Multilateral netting must leave every party's net position unchanged.");
+            });
+            l.transaction(tx -> {
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceLendsTen);
+                tx.input(IOUContract.IOU_CONTRACT_ID, bobLendsTenToCharlie);
+                tx.output(IOUContract.IOU_CONTRACT_ID, new IOUState(Currencies.POUNDS(4), ALICE.getParty(), BOB.getParty()));
+                tx.output(IOUContract.IOU_CONTRACT_ID, new IOUState(Currencies.POUNDS(6), ALICE.getParty(), CHARLIE.getParty()));
+                tx.output(IOUContract.IOU_CONTRACT_ID, new IOUState(Currencies.POUNDS(0), BOB.getParty(), CHARLIE.getParty()));
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey(), CHARLIE.getPublicKey()), new IOUContract.Commands.MultilateralNet());
+                return tx.failsWith("Residual IOUs must be unpaid and for a positive amount.");
+            });
+            l.transaction(tx -> {
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceLendsTen);
+                tx.input(IOUContract.IOU_CONTRACT_ID, bobLendsTenToCharlie);
+                tx.output(IOUContract.IOU_CONTRACT_ID, new IOUState(Currencies.POUNDS(10), ALICE.getParty(), BOB.getParty()));
+                tx.output(IOUContract.IOU_CONTRACT_ID, new IOUState(Currencies.POUNDS(10), BOB.getParty(), CHARLIE.getParty()));
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey(), CHARLIE.getPublicKey()), new IOUContract.Commands.MultilateralNet());
+                return tx.failsWith("Multilateral netting must create fewer IOUs than there are parties.");
+            });
+            l.transaction(tx -> {
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceLendsTen);
+                tx.input(IOUContract.IOU_CONTRACT_ID, bobLendsTenToCharlie.withSchedule(Instant.parse("2030-01-01T00:00:00Z"), null, null));
+                tx.input(IOUContract.IOU_CONTRACT_ID, charlieLendsFourToAlice);
+                tx.output(IOUContract.IOU_CONTRACT_ID, new IOUState(Currencies.POUNDS(6), ALICE.getParty(), CHARLIE.getParty()));
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey(), CHARLIE.getPublicKey()), new IOUContract.Commands.MultilateralNet());
+                return tx.failsWith("IOUs with a due date cannot be netted.");
+            });
+            l.transaction(tx -> {
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceLendsTen);
+                tx.input(IOUContract.IOU_CONTRACT_ID, bobLendsTenToCharlie);
+                tx.input(IOUContract.IOU_CONTRACT_ID, charlieLendsFourToAlice);
+                tx.output(IOUContract.IOU_CONTRACT_ID, new IOUState(Currencies.POUNDS(6), ALICE.getParty(), CHARLIE.getParty()));
+                tx.command(Arrays.asList(ALICE.getPublicKey(), CHARLIE.getPublicKey()), new IOUContract.Commands.MultilateralNet());
+                return tx.failsWith("Every party to the netted IOUs must sign a multilateral netting transaction.");
+            });
+            return null;
+        });
+    }
+}
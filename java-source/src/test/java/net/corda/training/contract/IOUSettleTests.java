@@ -97,13 +97,13 @@ public class IOUSettleTests {
 
     /**
      * Task 2.
-     * For now, we only want to settle one IOU at once. We can use the [TransactionForContract.groupStates] function
-     * to group the IOUs by their [linearId] property. We want to make sure there is only one group of input and output
-     * IOUs.
-     *現時点では、一度に1つのIOUのみを決済します。 [TransactionForContract.groupStates]関数を使用して、
-     *[linearId]プロパティによってIOUをグループ化できます。 入力および出力IOUのグループが1つだけであることを確認する必要があります。
-     * TODO: Using [groupStates] add a constraint that checks for one group of input/output IOUs.
-     * TODO：[groupStates]を使用して、入出力IOUの1つのグループをチェックする制約を追加します。
+     * Several IOUs may be settled at once. We can use the [TransactionForContract.groupStates] function to group the
+     * IOUs by their [linearId] property and check each group separately against the cash paid to its lender.
+     *複数のIOUを一度に決済できます。 [TransactionForContract.groupStates]関数を使用して、[linearId]プロパティによって
+     *IOUをグループ化し、各グループをその貸し手に支払われた現金と個別に照合できます。
+     * When several IOUs owed to the same lender are settled together, the amounts settled on them must add up to the
+     * cash paid to that lender.
+     *同じ貸し手に対する複数のIOUを一緒に決済する場合、それらの決済額の合計はその貸し手に支払われた現金と一致する必要があります。
      * Hint:
      * - The [groupStates] method on a Transaction takes two type parameters: the type of the state you wish to group by and the type
      *   of the grouping key used (indicated by a method reference), in this case as you need to use the [linearId] and it is a [UniqueIdentifier].
@@ -129,7 +129,7 @@ public class IOUSettleTests {
                 tx.input(Cash.class.getName(), inputCash);
                 tx.output(Cash.class.getName(), outputCash.getOwnableState());
                 tx.command(BOB.getPublicKey(), new Cash.Commands.Move());
-                tx.failsWith("List has more than one element.");
+                tx.failsWith("The cash paid to each lender must equal the amount settled on their IOUs.");
                 return null;
             });
             l.transaction(tx -> {
@@ -147,6 +147,68 @@ public class IOUSettleTests {
 
     }
 
+    /**
+     * IOUs owed to different lenders are each settled against the cash paid to their own lender.
+     *異なる貸し手に対するIOUは、それぞれの貸し手に支払われた現金に対して個別に決済されます。
+     */
+    @Test
+    public void canSettleManyIOUsInOneTransaction() {
+        IOUState aliceONE = new IOUState(Currencies.POUNDS(10), ALICE.getParty(), BOB.getParty());
+        IOUState aliceTWO = new IOUState(Currencies.POUNDS(5), ALICE.getParty(), BOB.getParty());
+        IOUState charlieIOU = new IOUState(Currencies.POUNDS(10), CHARLIE.getParty(), BOB.getParty());
+        Cash.State tenPounds = createCashState(BOB.getParty(), Currencies.POUNDS(10));
+        Cash.State fourPounds = createCashState(BOB.getParty(), Currencies.POUNDS(4));
+
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceONE);
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceTWO);
+                tx.input(IOUContract.IOU_CONTRACT_ID, charlieIOU);
+                tx.output(IOUContract.IOU_CONTRACT_ID, aliceONE.pay(Currencies.POUNDS(5)));
+                tx.output(IOUContract.IOU_CONTRACT_ID, charlieIOU.pay(Currencies.POUNDS(4)));
+                tx.input(Cash.class.getName(), tenPounds);
+                tx.input(Cash.class.getName(), fourPounds);
+                tx.output(Cash.class.getName(), tenPounds.withNewOwner(ALICE.getParty()).getOwnableState());
+                tx.output(Cash.class.getName(), fourPounds.withNewOwner(CHARLIE.getParty()).getOwnableState());
+                tx.command(BOB.getPublicKey(), new Cash.Commands.Move());
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey()), new IOUContract.Commands.Settle());
+                tx.failsWith("Both lender and borrower must sign IOU settle transaction.");
+                return null;
+            });
+            l.transaction(tx -> {
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceONE);
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceTWO);
+                tx.input(IOUContract.IOU_CONTRACT_ID, charlieIOU);
+                tx.output(IOUContract.IOU_CONTRACT_ID, aliceONE.pay(Currencies.POUNDS(6)));
+                tx.output(IOUContract.IOU_CONTRACT_ID, charlieIOU.pay(Currencies.POUNDS(4)));
+                tx.input(Cash.class.getName(), tenPounds);
+                tx.input(Cash.class.getName(), fourPounds);
+                tx.output(Cash.class.getName(), tenPounds.withNewOwner(ALICE.getParty()).getOwnableState());
+                tx.output(Cash.class.getName(), fourPounds.withNewOwner(CHARLIE.getParty()).getOwnableState());
+                tx.command(BOB.getPublicKey(), new Cash.Commands.Move());
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey(), CHARLIE.getPublicKey()), new IOUContract.Commands.Settle());
+                tx.failsWith("The cash paid to each lender must equal the amount settled on their IOUs.");
+                return null;
+            });
+            l.transaction(tx -> {
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceONE);
+                tx.input(IOUContract.IOU_CONTRACT_ID, aliceTWO);
+                tx.input(IOUContract.IOU_CONTRACT_ID, charlieIOU);
+                tx.output(IOUContract.IOU_CONTRACT_ID, aliceONE.pay(Currencies.POUNDS(5)));
+                tx.output(IOUContract.IOU_CONTRACT_ID, charlieIOU.pay(Currencies.POUNDS(4)));
+                tx.input(Cash.class.getName(), tenPounds);
+                tx.input(Cash.class.getName(), fourPounds);
+                tx.output(Cash.class.getName(), tenPounds.withNewOwner(ALICE.getParty()).getOwnableState());
+                tx.output(Cash.class.getName(), fourPounds.withNewOwner(CHARLIE.getParty()).getOwnableState());
+                tx.command(BOB.getPublicKey(), new Cash.Commands.Move());
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey(), CHARLIE.getPublicKey()), new IOUContract.Commands.Settle());
+                tx.verifies();
+                return null;
+            });
+            return null;
+        });
+    }
+
     /**
      * Task 3.
      * There always has to be one input IOU in a settle transaction but there might not be an output IOU.
@@ -172,7 +234,7 @@ public class IOUSettleTests {
             l.transaction(tx -> {
                 tx.input(IOUContract.IOU_CONTRACT_ID, iou);
                 tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey()), new IOUContract.Commands.Settle());
-                tx.output(IOUContract.IOU_CONTRACT_ID, iou);
+                tx.output(IOUContract.IOU_CONTRACT_ID, iou.pay(Currencies.POUNDS(5)));
                 tx.input(Cash.class.getName(), fivePounds);
                 tx.output(Cash.class.getName(), fivePounds.withNewOwner(ALICE.getParty()).getOwnableState());
                 tx.command(BOB.getPublicKey(), new Cash.Commands.Move());
@@ -491,6 +553,19 @@ public class IOUSettleTests {
                 return null;
             });
 
+            l.transaction(tx -> {
+                // The paid property must record exactly the cash paid, even when a single IOU is settled.
+                // 単一のIOUを決済する場合でも、paidプロパティは支払われた現金を正確に記録する必要があります。
+                tx.input(IOUContract.IOU_CONTRACT_ID, iou);
+                tx.input(Cash.class.getName(), fiveDollars);
+                tx.output(Cash.class.getName(), fiveDollars.withNewOwner(ALICE.getParty()).getOwnableState());
+                tx.output(IOUContract.IOU_CONTRACT_ID, iou.pay(Currencies.DOLLARS(8)));
+                tx.command(BOB.getPublicKey(), new Cash.Commands.Move());
+                tx.command(Arrays.asList(BOB.getPublicKey(), ALICE.getPublicKey()), new IOUContract.Commands.Settle());
+                tx.failsWith("The amount paid must increase by exactly the amount settled.");
+                return null;
+            });
+
             l.transaction(tx -> {
                 tx.input(IOUContract.IOU_CONTRACT_ID, iou);
                 tx.input(Cash.class.getName(), fiveDollars);
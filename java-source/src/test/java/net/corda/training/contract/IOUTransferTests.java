@@ -291,4 +291,60 @@ public class IOUTransferTests {
         });
     }
 
+    /**
+     * A portfolio of IOUs may be transferred in one transaction. Each IOU is checked on its own, and the borrowers,
+     * the old lender and the new lender each sign once.
+     * IOUのポートフォリオは1つのトランザクションで譲渡できます。各IOUは個別に確認され、
+     * 借り手、旧貸し手、新しい貸し手はそれぞれ一度だけ署名します。
+     */
+    @Test
+    public void canTransferAPortfolioOfIOUs() {
+        IOUState iouOne = new IOUState(Currencies.DOLLARS(10), ALICE.getParty(), BOB.getParty());
+        IOUState iouTwo = new IOUState(Currencies.DOLLARS(20), ALICE.getParty(), BOB.getParty());
+        IOUState iouThree = new IOUState(Currencies.POUNDS(5), ALICE.getParty(), MINICORP.getParty());
+
+        ledger(ledgerServices, l -> {
+            l.transaction(tx -> {
+                tx.input(IOUContract.IOU_CONTRACT_ID, iouOne);
+                tx.input(IOUContract.IOU_CONTRACT_ID, iouTwo);
+                tx.input(IOUContract.IOU_CONTRACT_ID, iouThree);
+                tx.output(IOUContract.IOU_CONTRACT_ID, iouOne.withNewLender(CHARLIE.getParty()));
+                tx.output(IOUContract.IOU_CONTRACT_ID, iouTwo.withNewLender(CHARLIE.getParty()));
+                tx.output(IOUContract.IOU_CONTRACT_ID, iouThree.withNewLender(CHARLIE.getParty()));
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey(), MINICORP.getPublicKey(), CHARLIE.getPublicKey()), new IOUContract.Commands.Transfer());
+                return tx.verifies();
+            });
+            l.transaction(tx -> {
+                // Every IOU in the portfolio needs an output.
+                // ポートフォリオ内のすべてのIOUに出力が必要です。
+                tx.input(IOUContract.IOU_CONTRACT_ID, iouOne);
+                tx.input(IOUContract.IOU_CONTRACT_ID, iouTwo);
+                tx.output(IOUContract.IOU_CONTRACT_ID, iouOne.withNewLender(CHARLIE.getParty()));
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey(), CHARLIE.getPublicKey()), new IOUContract.Commands.Transfer());
+                return tx.failsWith("An IOU transfer transaction should only create one output state.");
+            });
+            l.transaction(tx -> {
+                // Every IOU in the portfolio is checked, not just the first.
+                // 最初のIOUだけでなく、ポートフォリオ内のすべてのIOUが確認されます。
+                tx.input(IOUContract.IOU_CONTRACT_ID, iouOne);
+                tx.input(IOUContract.IOU_CONTRACT_ID, iouTwo);
+                tx.output(IOUContract.IOU_CONTRACT_ID, iouOne.withNewLender(CHARLIE.getParty()));
+                tx.output(IOUContract.IOU_CONTRACT_ID, iouTwo.copy(Currencies.DOLLARS(20), CHARLIE.getParty(), BOB.getParty(), Currencies.DOLLARS(5)));
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey(), CHARLIE.getPublicKey()), new IOUContract.Commands.Transfer());
+                return tx.failsWith("Only the lender property may change.");
+            });
+            l.transaction(tx -> {
+                // Every borrower must sign.
+                // すべての借り手が署名する必要があります。
+                tx.input(IOUContract.IOU_CONTRACT_ID, iouOne);
+                tx.input(IOUContract.IOU_CONTRACT_ID, iouThree);
+                tx.output(IOUContract.IOU_CONTRACT_ID, iouOne.withNewLender(CHARLIE.getParty()));
+                tx.output(IOUContract.IOU_CONTRACT_ID, iouThree.withNewLender(CHARLIE.getParty()));
+                tx.command(Arrays.asList(ALICE.getPublicKey(), BOB.getPublicKey(), CHARLIE.getPublicKey()), new IOUContract.Commands.Transfer());
+                return tx.failsWith("The borrower, old lender and new lender only must sign an IOU transfer transaction");
+            });
+            return null;
+        });
+    }
+
 }
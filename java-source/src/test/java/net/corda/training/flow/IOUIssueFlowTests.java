@@ -14,10 +14,13 @@ import net.corda.core.flows.*;
 import net.corda.core.transactions.TransactionBuilder;
 
 
+import com.codahale.metrics.MetricRegistry;
 import net.corda.training.contract.IOUContract;
+import net.corda.training.service.FlowMetricsService;
 import net.corda.training.state.IOUState;
 
 import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.*;
 
@@ -59,6 +62,7 @@ public class IOUIssueFlowTests {
 
         // For real nodes this happens automatically, but we have to manually register the flow for tests
         startedNodes.forEach(el -> el.registerInitiatedFlow(IOUIssueFlow.ResponderFlow.class));
+        startedNodes.forEach(el -> el.registerInitiatedFlow(IOUBatchIssueFlow.ResponderFlow.class));
         mockNetwork.runNetwork();
     }
 
@@ -273,4 +277,103 @@ public class IOUIssueFlowTests {
             assertEquals(stx.getId(), txHash);
         });
     }
+
+    /**
+     * The {@link IOUBatchIssueFlow} issues many IOUs between the same parties in one transaction.
+     * {@link IOUBatchIssueFlow}は、同じ当事者間の多数のIOUを1つのトランザクションで発行します。
+     */
+    @Test
+    public void batchFlowIssuesManyIOUsInOneTransaction() throws Exception {
+        Party lender = a.getInfo().getLegalIdentitiesAndCerts().get(0).getParty();
+        Party borrower = b.getInfo().getLegalIdentitiesAndCerts().get(0).getParty();
+        List<IOUState> ious = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            ious.add(new IOUState(Currencies.POUNDS(i), lender, borrower));
+        }
+
+        Future<List<SignedTransaction>> future = a.startFlow(new IOUBatchIssueFlow.InitiatorFlow(ious));
+        mockNetwork.runNetwork();
+        SignedTransaction stx = future.get().get(0);
+        stx.verifyRequiredSignatures();
+
+        assertTrue(future.get().stream().allMatch(issuance -> issuance.getId().equals(stx.getId())));
+
+        assertEquals(10, stx.getTx().outputsOfType(IOUState.class).size());
+        Arrays.asList(a, b).forEach(el ->
+                assertEquals(stx.getId(), el.getServices().getValidatedTransactions().getTransaction(stx.getId()).getId())
+        );
+    }
+
+    /**
+     * Every stage of the {@link IOUIssueFlow} is timed, and each run is counted as a success or a failure.
+     * {@link IOUIssueFlow}の各段階の時間が計測され、各実行は成功または失敗として数えられます。
+     */
+    @Test
+    public void flowRecordsStageTimingsAndOutcomes() throws Exception {
+        Party lender = a.getInfo().getLegalIdentitiesAndCerts().get(0).getParty();
+        Party borrower = b.getInfo().getLegalIdentitiesAndCerts().get(0).getParty();
+
+        Future<SignedTransaction> future = a.startFlow(new IOUIssueFlow.InitiatorFlow(new IOUState(Currencies.POUNDS(10), lender, borrower)));
+        mockNetwork.runNetwork();
+        future.get();
+        // An IOU for nothing fails contract verification.
+        // ゼロのIOUは契約の検証に失敗します。
+        Future<SignedTransaction> failed = a.startFlow(new IOUIssueFlow.InitiatorFlow(new IOUState(Currencies.POUNDS(0), lender, borrower)));
+        mockNetwork.runNetwork();
+        try {
+            failed.get();
+            fail("The flow should have failed.");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(TransactionVerificationException.class));
+        }
+
+        // Both flows were built, but only the first got past verification.
+        // 両方のフローが構築されましたが、検証を通過したのは最初のフローだけです。
+        MetricRegistry metrics = a.getServices().cordaService(FlowMetricsService.class).getRegistry();
+        assertEquals(2, metrics.timer("IOUIssueFlow.Build").getCount());
+        for (String stage: Arrays.asList("Verify", "Sign", "CollectSignatures", "Finality")) {
+            assertEquals(1, metrics.timer("IOUIssueFlow." + stage).getCount());
+        }
+        assertEquals(1, metrics.counter("IOUIssueFlow.Success").getCount());
+        assertEquals(1, metrics.counter("IOUIssueFlow.Failure").getCount());
+    }
+
+    /**
+     * Issuing an IOU again with the same external id returns the original transaction instead of a duplicate, in a batch
+     * as well, and the external id cannot be reused for a different IOU. The external id is scoped to the issuer.
+     * 同じ外部IDでIOUを再度発行すると、一括発行でも重複ではなく元のトランザクションが返され、その外部IDを別のIOUに
+     * 再利用することはできません。外部IDは発行者の範囲に限定されます。
+     */
+    @Test
+    public void flowIssuesEachExternalIdOnlyOnce() throws Exception {
+        Party lender = a.getInfo().getLegalIdentitiesAndCerts().get(0).getParty();
+        Party borrower = b.getInfo().getLegalIdentitiesAndCerts().get(0).getParty();
+
+        Future<SignedTransaction> first = a.startFlow(new IOUIssueFlow.InitiatorFlow(new IOUState(Currencies.POUNDS(10), lender, borrower, "invoice-42")));
+        mockNetwork.runNetwork();
+        SignedTransaction issued = first.get();
+
+        // The retry builds a new state, with a new linearId, under the same external id.
+        // 再試行は、同じ外部IDで新しいlinearIdを持つ新しい状態を構築します。
+        Future<SignedTransaction> retry = a.startFlow(new IOUIssueFlow.InitiatorFlow(new IOUState(Currencies.POUNDS(10), lender, borrower, "invoice-42")));
+        mockNetwork.runNetwork();
+        assertEquals(issued.getId(), retry.get().getId());
+        assertEquals(1, a.transaction(() -> a.getServices().getVaultService().queryBy(IOUState.class).getStates().size()).intValue());
+        assertEquals(lender.getName() + ":invoice-42", issued.getTx().outputsOfType(IOUState.class).get(0).getLinearId().getExternalId());
+
+        // A batch issues only the IOUs whose external ids are new.
+        // 一括発行では、外部IDが新しいIOUだけが発行されます。
+        Future<List<SignedTransaction>> batch = a.startFlow(new IOUBatchIssueFlow.InitiatorFlow(Arrays.asList(
+                new IOUState(Currencies.POUNDS(10), lender, borrower, "invoice-42"),
+                new IOUState(Currencies.POUNDS(30), lender, borrower, "invoice-43"))));
+        mockNetwork.runNetwork();
+        assertEquals(issued.getId(), batch.get().get(0).getId());
+        assertEquals(1, batch.get().get(1).getTx().outputsOfType(IOUState.class).size());
+        assertEquals(2, a.transaction(() -> a.getServices().getVaultService().queryBy(IOUState.class).getStates().size()).intValue());
+
+        Future<SignedTransaction> conflicting = a.startFlow(new IOUIssueFlow.InitiatorFlow(new IOUState(Currencies.POUNDS(20), lender, borrower, "invoice-42")));
+        mockNetwork.runNetwork();
+        exception.expectCause(instanceOf(FlowException.class));
+        conflicting.get();
+    }
 }
@@ -5,6 +5,7 @@ import net.corda.core.contracts.Amount;
 import net.corda.core.contracts.Command;
 import net.corda.core.contracts.CommandAndState;
 import net.corda.core.contracts.CommandWithParties;
+import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.flows.FlowSession;
 import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
@@ -16,6 +17,8 @@ import net.corda.finance.contracts.asset.Cash;
 import net.corda.testing.node.*;
 import net.corda.training.contract.IOUContract;
 import net.corda.training.contract.IOUIssueTests;
+import net.corda.training.service.CashBalanceService;
+import net.corda.training.service.FlowMetricsService;
 import net.corda.training.state.IOUState;
 import org.junit.After;
 import org.junit.Before;
@@ -24,10 +27,14 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import javax.annotation.Signed;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Currency;
 import java.util.List;
+import java.util.Map;
+import java.util.LinkedHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.stream.Collectors;
@@ -36,6 +43,7 @@ import static net.corda.testing.driver.Driver.driver;
 import static net.corda.testing.node.NodeTestUtils.ledger;
 import static net.corda.training.TestUtils.ALICE;
 import static net.corda.training.TestUtils.BOB;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
 
 /**
  * Practical exercise instructions Flows part 3.
@@ -72,6 +80,9 @@ public class IOUSettleFlowTests{
         // For real nodes this happens automatically, but we have to manually register the flow for tests
         //実際のノードの場合、これは自動的に行われますが、テスト用のフローを手動で登録する必要があります
         startedNodes.forEach(el -> el.registerInitiatedFlow(IOUSettleFlow.Responder.class));
+        startedNodes.forEach(el -> el.registerInitiatedFlow(IOUMultiSettleFlow.Responder.class));
+        startedNodes.forEach(el -> el.registerInitiatedFlow(IOUNettingFlow.Responder.class));
+        startedNodes.forEach(el -> el.registerInitiatedFlow(IOUMultilateralNettingFlow.Responder.class));
         mockNetwork.runNetwork();
     }
 
@@ -307,4 +318,298 @@ public class IOUSettleFlowTests{
         }
     }
 
+    /**
+     * The {@link IOUMultiSettleFlow} settles several IOUs owed to different lenders in one transaction.
+     * {@link IOUMultiSettleFlow}は、異なる貸し手に対する複数のIOUを1つのトランザクションで決済します。
+     */
+    @Test
+    public void multiSettleFlowSettlesManyIOUsInOneTransaction() throws Exception {
+        Party lenderB = b.getInfo().getLegalIdentities().get(0);
+        Party lenderC = c.getInfo().getLegalIdentities().get(0);
+        Party borrower = a.getInfo().getLegalIdentities().get(0);
+        IOUState iouOne = issueIOU(new IOUState(Currencies.POUNDS(10), lenderB, borrower)).getTx().outputsOfType(IOUState.class).get(0);
+        IOUState iouTwo = issueIOU(new IOUState(Currencies.POUNDS(5), lenderB, borrower)).getTx().outputsOfType(IOUState.class).get(0);
+        IOUState iouThree = issueIOU(new IOUState(Currencies.POUNDS(10), lenderC, borrower)).getTx().outputsOfType(IOUState.class).get(0);
+        issueCash(Currencies.POUNDS(20));
+
+        Map<UniqueIdentifier, Amount<Currency>> amounts = new LinkedHashMap<>();
+        amounts.put(iouOne.getLinearId(), Currencies.POUNDS(5));
+        amounts.put(iouTwo.getLinearId(), Currencies.POUNDS(5));
+        amounts.put(iouThree.getLinearId(), Currencies.POUNDS(4));
+        Future<SignedTransaction> futureSettleResult = a.startFlow(new IOUMultiSettleFlow.InitiatorFlow(amounts));
+        mockNetwork.runNetwork();
+
+        SignedTransaction settleResult = futureSettleResult.get();
+        settleResult.verifyRequiredSignatures();
+
+        // Two IOUs are partially settled, one is fully settled.
+        // 2つのIOUは部分的に決済され、1つは完全に決済されます。
+        List<IOUState> outputIOUs = settleResult.getTx().outputsOfType(IOUState.class);
+        assert (outputIOUs.size() == 2);
+        assert (outputIOUs.stream().anyMatch(iou -> iou.getLinearId().equals(iouOne.getLinearId()) && iou.paid.equals(Currencies.POUNDS(5))));
+        assert (outputIOUs.stream().anyMatch(iou -> iou.getLinearId().equals(iouThree.getLinearId()) && iou.paid.equals(Currencies.POUNDS(4))));
+    }
+
+    /**
+     * The {@link IOUMultiSettleFlow} refuses up front to settle IOUs owed to one lender in different currencies, which
+     * the contract could never accept.
+     * {@link IOUMultiSettleFlow}は、契約が決して受け入れない、1人の貸し手に対する異なる通貨のIOUの決済を事前に拒否します。
+     */
+    @Test
+    public void multiSettleFlowRejectsMixedCurrenciesForOneLender() throws Exception {
+        Party lender = b.getInfo().getLegalIdentities().get(0);
+        Party borrower = a.getInfo().getLegalIdentities().get(0);
+        IOUState pounds = issueIOU(new IOUState(Currencies.POUNDS(10), lender, borrower)).getTx().outputsOfType(IOUState.class).get(0);
+        IOUState dollars = issueIOU(new IOUState(Currencies.DOLLARS(10), lender, borrower)).getTx().outputsOfType(IOUState.class).get(0);
+        issueCash(Currencies.POUNDS(10));
+        issueCash(Currencies.DOLLARS(10));
+
+        Map<UniqueIdentifier, Amount<Currency>> amounts = new LinkedHashMap<>();
+        amounts.put(pounds.getLinearId(), Currencies.POUNDS(10));
+        amounts.put(dollars.getLinearId(), Currencies.DOLLARS(10));
+        Future<SignedTransaction> futureSettleResult = a.startFlow(new IOUMultiSettleFlow.InitiatorFlow(amounts));
+        mockNetwork.runNetwork();
+
+        exception.expectCause(instanceOf(IllegalArgumentException.class));
+        futureSettleResult.get();
+    }
+
+    /**
+     * The settle flows check the borrower's cash against the {@link CashBalanceService}, which must follow the vault.
+     * 決済フローは借り手の現金を{@link CashBalanceService}と照合するため、サービスはボールトに追従する必要があります。
+     */
+    @Test
+    public void cashBalanceServiceFollowsTheVault() throws Exception {
+        CashBalanceService cashBalances = a.getServices().cordaService(CashBalanceService.class);
+        Currency pounds = Currency.getInstance("GBP");
+        issueCash(Currencies.POUNDS(20));
+        assert (a.transaction(() -> cashBalances.getCashBalance(pounds)).equals(Currencies.POUNDS(20)));
+
+        SignedTransaction stx = issueIOU(new IOUState(Currencies.POUNDS(10), b.getInfo().getLegalIdentities().get(0), a.getInfo().getLegalIdentities().get(0)));
+        IOUState inputIOU = stx.getTx().outputsOfType(IOUState.class).get(0);
+        Future<SignedTransaction> futureSettleResult = a.startFlow(new IOUSettleFlow.InitiatorFlow(inputIOU.getLinearId(), Currencies.POUNDS(5)));
+        mockNetwork.runNetwork();
+        futureSettleResult.get();
+        assert (a.transaction(() -> cashBalances.getCashBalance(pounds)).equals(Currencies.POUNDS(15)));
+
+        issueCash(Currencies.POUNDS(3));
+        assert (a.transaction(() -> cashBalances.getCashBalance(pounds)).equals(Currencies.POUNDS(18)));
+        assert (a.transaction(() -> cashBalances.getCashBalance(Currency.getInstance("USD"))).getQuantity() == 0);
+    }
+
+    /**
+     * The {@link CashConsolidationFlow} merges fragmented cash so that a settlement spends a single cash state.
+     * {@link CashConsolidationFlow}は断片化した現金を統合し、決済が1つの現金状態だけを使用するようにします。
+     */
+    @Test
+    public void consolidatedCashSettlesWithOneCashInput() throws Exception {
+        Party borrower = a.getInfo().getLegalIdentities().get(0);
+        for (int i = 0; i < CashConsolidationFlow.DEFAULT_THRESHOLD + 2; i++) {
+            issueCash(Currencies.POUNDS(1));
+        }
+        Future<List<SignedTransaction>> futureConsolidation = a.startFlow(new CashConsolidationFlow(Currency.getInstance("GBP"), borrower));
+        mockNetwork.runNetwork();
+        List<SignedTransaction> consolidations = futureConsolidation.get();
+        assert (consolidations.size() == 1);
+        assert (consolidations.get(0).getTx().getInputs().size() == CashConsolidationFlow.DEFAULT_THRESHOLD + 2);
+        List<Cash.State> consolidated = consolidations.get(0).getTx().outputsOfType(Cash.State.class);
+        assert (consolidated.size() == 1);
+        assert (consolidated.get(0).getAmount().getQuantity() == Currencies.POUNDS(CashConsolidationFlow.DEFAULT_THRESHOLD + 2).getQuantity());
+
+        // Below the threshold there is nothing to do.
+        // しきい値を下回る場合は何もしません。
+        futureConsolidation = a.startFlow(new CashConsolidationFlow(Currency.getInstance("GBP"), borrower));
+        mockNetwork.runNetwork();
+        assert (futureConsolidation.get().isEmpty());
+
+        SignedTransaction stx = issueIOU(new IOUState(Currencies.POUNDS(10), b.getInfo().getLegalIdentities().get(0), borrower));
+        IOUState inputIOU = stx.getTx().outputsOfType(IOUState.class).get(0);
+        Future<SignedTransaction> futureSettleResult = a.startFlow(new IOUSettleFlow.InitiatorFlow(inputIOU.getLinearId(), Currencies.POUNDS(10)));
+        mockNetwork.runNetwork();
+        // One IOU input and one cash input.
+        // 1つのIOU入力と1つの現金入力。
+        assert (futureSettleResult.get().getTx().getInputs().size() == 2);
+    }
+
+    /**
+     * The {@link IOUNettingFlow} replaces the IOUs two parties owe each other with one residual IOU, without cash.
+     * {@link IOUNettingFlow}は、2者が互いに負うIOUを、現金を使わずに1つの残余IOUに置き換えます。
+     */
+    @Test
+    public void nettingFlowLeavesOneResidualIOU() throws Exception {
+        Party partyA = a.getInfo().getLegalIdentities().get(0);
+        Party partyB = b.getInfo().getLegalIdentities().get(0);
+        issueIOU(new IOUState(Currencies.POUNDS(10), partyB, partyA));
+        issueIOU(new IOUState(Currencies.POUNDS(4), partyA, partyB));
+        issueIOU(new IOUState(Currencies.POUNDS(3), partyA, partyB));
+
+        Future<List<SignedTransaction>> futureNetResult = a.startFlow(new IOUNettingFlow.InitiatorFlow(partyB, Currency.getInstance("GBP")));
+        mockNetwork.runNetwork();
+        // All of the IOUs share one notary, so they are netted in one transaction.
+        // すべてのIOUは1つの公証人を共有するため、1つのトランザクションでネッティングされます。
+        assert (futureNetResult.get().size() == 1);
+        SignedTransaction netResult = futureNetResult.get().get(0);
+        netResult.verifyRequiredSignatures();
+
+        assert (netResult.getTx().getInputs().size() == 3);
+        assert (netResult.getTx().getOutputs().size() == 1);
+        IOUState residual = netResult.getTx().outputsOfType(IOUState.class).get(0);
+        assert (residual.lender.equals(partyB) && residual.borrower.equals(partyA));
+        assert (residual.amount.equals(Currencies.POUNDS(3)));
+    }
+
+    /**
+     * A cycle of IOUs between three nodes is netted away in one transaction, without any cash.
+     * 3つのノード間のIOUのサイクルは、現金なしで1つのトランザクションでネッティングされます。
+     */
+    @Test
+    public void multilateralNettingFlowCancelsACycle() throws Exception {
+        Party partyA = a.getInfo().getLegalIdentities().get(0);
+        Party partyB = b.getInfo().getLegalIdentities().get(0);
+        Party partyC = c.getInfo().getLegalIdentities().get(0);
+        // Each IOU is issued by its lender, as the issuer must be a party to the IOU.
+        // 発行者はIOUの当事者である必要があるため、各IOUは貸し手によって発行されます。
+        List<CordaFuture<SignedTransaction>> issued = Arrays.asList(
+                a.startFlow(new IOUIssueFlow.InitiatorFlow(new IOUState(Currencies.POUNDS(10), partyA, partyB))),
+                b.startFlow(new IOUIssueFlow.InitiatorFlow(new IOUState(Currencies.POUNDS(10), partyB, partyC))),
+                c.startFlow(new IOUIssueFlow.InitiatorFlow(new IOUState(Currencies.POUNDS(10), partyC, partyA))));
+        mockNetwork.runNetwork();
+        for (CordaFuture<SignedTransaction> future: issued) {
+            future.get();
+        }
+
+        Future<List<SignedTransaction>> futureNetResult = a.startFlow(
+                new IOUMultilateralNettingFlow.InitiatorFlow(Arrays.asList(partyA, partyB, partyC), Currency.getInstance("GBP")));
+        mockNetwork.runNetwork();
+        List<SignedTransaction> netResults = futureNetResult.get();
+
+        assert (netResults.size() == 1);
+        SignedTransaction netResult = netResults.get(0);
+        netResult.verifyRequiredSignatures();
+        assert (netResult.getTx().getInputs().size() == 3);
+        assert (netResult.getTx().getOutputs().isEmpty());
+        for (StartedMockNode node: Arrays.asList(a, b, c)) {
+            node.transaction(() -> {
+                assert (node.getServices().getVaultService().queryBy(IOUState.class).getStates().isEmpty());
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Two partial settlements of the same IOU started at once both commit: the second finds the IOU soft-locked by the
+     * first before signing anything, backs off and retries against the IOU the first one produced.
+     * 同じIOUの2つの部分決済を同時に開始すると、両方がコミットされます。2番目は何かに署名する前に最初の決済によってIOUが
+     * ソフトロックされていることを検出し、待機してから、最初の決済が作成したIOUに対して再試行します。
+     */
+    @Test
+    public void concurrentPartialSettlementsOfOneIOURetryAndBothCommit() throws Exception {
+        SignedTransaction stx = issueIOU(new IOUState(Currencies.POUNDS(10), b.getInfo().getLegalIdentities().get(0), a.getInfo().getLegalIdentities().get(0)));
+        issueCash(Currencies.POUNDS(5));
+        issueCash(Currencies.POUNDS(5));
+        UniqueIdentifier linearId = stx.getTx().outputsOfType(IOUState.class).get(0).getLinearId();
+
+        CordaFuture<SignedTransaction> first = a.startFlow(new IOUSettleFlow.InitiatorFlow(linearId, Currencies.POUNDS(3)));
+        CordaFuture<SignedTransaction> second = a.startFlow(new IOUSettleFlow.InitiatorFlow(linearId, Currencies.POUNDS(4)));
+        // The retry waits on a timer, so keep the network running until both flows have finished.
+        // 再試行はタイマーで待機するため、両方のフローが完了するまでネットワークを実行し続けます。
+        for (int i = 0; i < 100 && !(first.isDone() && second.isDone()); i++) {
+            mockNetwork.runNetwork();
+            Thread.sleep(100);
+        }
+        first.get();
+        second.get();
+
+        IOUState settled = a.transaction(() -> a.getServices().getVaultService().queryBy(IOUState.class).getStates().get(0).getState().getData());
+        assert (settled.paid.equals(Currencies.POUNDS(7)));
+        assert (a.getServices().cordaService(FlowMetricsService.class).getRegistry().counter("IOUSettleFlow.Retry").getCount() >= 1);
+    }
+
+    /**
+     * Settling everything an IOU owes consumes it, and the lender signs the settlement although it has no IOU output.
+     * IOUが負うすべてを決済するとIOUは消費され、IOU出力がなくても貸し手は決済に署名します。
+     */
+    @Test
+    public void fullSettlementConsumesTheIOU() throws Exception {
+        SignedTransaction stx = issueIOU(new IOUState(Currencies.POUNDS(10), b.getInfo().getLegalIdentities().get(0), a.getInfo().getLegalIdentities().get(0)));
+        issueCash(Currencies.POUNDS(10));
+        UniqueIdentifier linearId = stx.getTx().outputsOfType(IOUState.class).get(0).getLinearId();
+
+        Future<SignedTransaction> futureSettleResult = a.startFlow(new IOUSettleFlow.InitiatorFlow(linearId, Currencies.POUNDS(10)));
+        mockNetwork.runNetwork();
+        SignedTransaction settleResult = futureSettleResult.get();
+
+        settleResult.verifyRequiredSignatures();
+        assert (settleResult.getTx().outputsOfType(IOUState.class).isEmpty());
+        for (StartedMockNode node: Arrays.asList(a, b)) {
+            assert (node.transaction(() -> node.getServices().getVaultService().queryBy(IOUState.class).getStates().isEmpty()));
+        }
+    }
+
+    /**
+     * Paying the remainder of a partly paid IOU settles it in full, although the remainder is less than its amount.
+     * 一部支払い済みのIOUの残額を支払うと、残額がその金額より少なくても完全に決済されます。
+     */
+    @Test
+    public void settlingTheRemainderOfAPartlyPaidIOUConsumesIt() throws Exception {
+        SignedTransaction stx = issueIOU(new IOUState(Currencies.POUNDS(10), b.getInfo().getLegalIdentities().get(0), a.getInfo().getLegalIdentities().get(0)));
+        issueCash(Currencies.POUNDS(10));
+        UniqueIdentifier linearId = stx.getTx().outputsOfType(IOUState.class).get(0).getLinearId();
+
+        Future<SignedTransaction> firstPayment = a.startFlow(new IOUSettleFlow.InitiatorFlow(linearId, Currencies.POUNDS(4)));
+        mockNetwork.runNetwork();
+        assert (firstPayment.get().getTx().outputsOfType(IOUState.class).get(0).paid.equals(Currencies.POUNDS(4)));
+
+        Future<SignedTransaction> remainder = a.startFlow(new IOUSettleFlow.InitiatorFlow(linearId, Currencies.POUNDS(6)));
+        mockNetwork.runNetwork();
+        SignedTransaction settleResult = remainder.get();
+
+        settleResult.verifyRequiredSignatures();
+        assert (settleResult.getTx().outputsOfType(IOUState.class).isEmpty());
+        for (StartedMockNode node: Arrays.asList(a, b)) {
+            assert (node.transaction(() -> node.getServices().getVaultService().queryBy(IOUState.class).getStates().isEmpty()));
+        }
+    }
+
+    /**
+     * IOUs that fall due at the same instant are settled automatically by the borrower's node in one transaction: a
+     * plain IOU is paid off, and an IOU paid in instalments has its first instalment paid and falls due again later.
+     * 同じ時刻に期日となるIOUは、借り手のノードによって1つのトランザクションで自動的に決済されます。通常のIOUは完済され、
+     * 分割払いのIOUは最初の分割払いが支払われ、後で再び期日となります。
+     */
+    @Test
+    public void iousFallingDueTogetherAreSettledAutomaticallyInOneTransaction() throws Exception {
+        Party lender = b.getInfo().getLegalIdentities().get(0);
+        Party borrower = a.getInfo().getLegalIdentities().get(0);
+        Instant due = Instant.now().minusSeconds(1);
+        issueCash(Currencies.POUNDS(20));
+        issueIOU(new IOUState(Currencies.POUNDS(5), lender, borrower).withSchedule(due, null, null));
+        issueIOU(new IOUState(Currencies.POUNDS(10), lender, borrower).withSchedule(due, Currencies.POUNDS(4), Duration.ofDays(30)));
+
+        // The scheduler starts the settlement on its own thread, so keep the network running until it has finished.
+        // スケジューラーは独自のスレッドで決済を開始するため、完了するまでネットワークを実行し続けます。
+        List<IOUState> remaining = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            mockNetwork.runNetwork();
+            remaining = a.transaction(() -> a.getServices().getVaultService().queryBy(IOUState.class).getStates().stream()
+                    .map(stateAndRef -> stateAndRef.getState().getData())
+                    .collect(Collectors.toList()));
+            if (remaining.size() == 1 && remaining.get(0).paid.getQuantity() > 0) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+
+        assert (remaining.size() == 1);
+        assert (remaining.get(0).paid.equals(Currencies.POUNDS(4)));
+        assert (remaining.get(0).getNextDue().equals(due.plus(Duration.ofDays(30))));
+        // Both payments to the lender were made in a single cash state, so they were settled together.
+        // 貸し手への両方の支払いは単一の現金状態で行われたため、まとめて決済されました。
+        List<Cash.State> lenderCash = b.transaction(() -> b.getServices().getVaultService().queryBy(Cash.State.class).getStates().stream()
+                .map(stateAndRef -> stateAndRef.getState().getData())
+                .collect(Collectors.toList()));
+        assert (lenderCash.size() == 1);
+        assert (lenderCash.get(0).getAmount().getQuantity() == Currencies.POUNDS(9).getQuantity());
+    }
+
 }
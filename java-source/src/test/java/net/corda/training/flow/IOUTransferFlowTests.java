@@ -4,6 +4,7 @@ import net.corda.core.concurrent.CordaFuture;
 import net.corda.core.contracts.Amount;
 import net.corda.core.contracts.Command;
 import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
 import net.corda.core.transactions.SignedTransaction;
@@ -16,6 +17,8 @@ import org.junit.rules.ExpectedException;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
@@ -46,6 +49,7 @@ public class IOUTransferFlowTests {
         // For real nodes this happens automatically, but we have to manually register the flow for tests
         //実際のノードの場合、これは自動的に行われますが、テスト用のフローを手動で登録する必要があります
         startedNodes.forEach(el -> el.registerInitiatedFlow(IOUTransferFlow.Responder.class));
+        startedNodes.forEach(el -> el.registerInitiatedFlow(IOUPortfolioTransferFlow.Responder.class));
         mockNetwork.runNetwork();
     }
 
@@ -226,4 +230,34 @@ public class IOUTransferFlowTests {
             System.out.println(exception.getMessage());
         }
     }
+
+    /**
+     * The {@link IOUPortfolioTransferFlow} moves several IOUs to a new lender in one transaction.
+     * {@link IOUPortfolioTransferFlow}は、複数のIOUを1つのトランザクションで新しい貸し手に移します。
+     */
+    @Test
+    public void portfolioFlowTransfersManyIOUsInOneTransaction() throws Exception {
+        Party lender = a.getInfo().getLegalIdentitiesAndCerts().get(0).getParty();
+        Party borrower = b.getInfo().getLegalIdentitiesAndCerts().get(0).getParty();
+        Party newLender = c.getInfo().getLegalIdentities().get(0);
+        List<UniqueIdentifier> linearIds = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            SignedTransaction stx = issueIOU(new IOUState(Currencies.DOLLARS(i * 10), lender, borrower));
+            linearIds.add(stx.getTx().outputsOfType(IOUState.class).get(0).getLinearId());
+        }
+
+        Future<SignedTransaction> future = a.startFlow(new IOUPortfolioTransferFlow.InitiatorFlow(linearIds, newLender));
+        mockNetwork.runNetwork();
+        SignedTransaction stx = future.get();
+        stx.verifyRequiredSignatures();
+
+        assert (stx.getTx().getInputs().size() == 3);
+        List<IOUState> outputs = stx.getTx().outputsOfType(IOUState.class);
+        assert (outputs.stream().allMatch(iou -> iou.lender.equals(newLender) && iou.borrower.equals(borrower)));
+        assert (outputs.stream().map(IOUState::getLinearId).collect(Collectors.toList()).containsAll(linearIds));
+        // One Transfer command signed once each by the borrower, the old lender and the new lender.
+        // 借り手、旧貸し手、新しい貸し手がそれぞれ一度だけ署名する1つのTransferコマンド。
+        assert (stx.getTx().getCommands().size() == 1);
+        assert (stx.getTx().getCommands().get(0).getSigners().size() == 3);
+    }
 }
@@ -0,0 +1,110 @@
+package net.corda.training.service;
+
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.finance.Currencies;
+import net.corda.testing.core.TestIdentity;
+import net.corda.training.state.IOUState;
+import org.junit.Test;
+
+import java.util.*;
+
+import static net.corda.training.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the {@link MultilateralNettingEngine}.
+ * {@link MultilateralNettingEngine}のテスト。
+ */
+public class MultilateralNettingEngineTests {
+
+    /**
+     * A cycle of equal debts cancels out completely.
+     * 等しい債務のサイクルは完全に相殺されます。
+     */
+    @Test
+    public void cyclicDebtsCancelOut() {
+        List<IOUState> gross = Arrays.asList(
+                new IOUState(Currencies.POUNDS(10), ALICE.getParty(), BOB.getParty()),
+                new IOUState(Currencies.POUNDS(10), BOB.getParty(), CHARLIE.getParty()),
+                new IOUState(Currencies.POUNDS(10), CHARLIE.getParty(), ALICE.getParty()));
+        assertTrue(MultilateralNettingEngine.net(gross).isEmpty());
+    }
+
+    /**
+     * Only the net positions remain, and amounts already paid are taken into account.
+     * 純ポジションのみが残り、すでに支払われた金額が考慮されます。
+     */
+    @Test
+    public void onlyNetPositionsRemain() {
+        // Bob owes Alice 10 and is owed 6 by Charlie, and 4 of Charlie's 10 has been paid.
+        // ボブはアリスに10を負い、チャーリーから6の債権があり、チャーリーの10のうち4は支払い済みです。
+        List<IOUState> gross = Arrays.asList(
+                new IOUState(Currencies.POUNDS(10), ALICE.getParty(), BOB.getParty()),
+                new IOUState(Currencies.POUNDS(10), BOB.getParty(), CHARLIE.getParty()).pay(Currencies.POUNDS(4)),
+                new IOUState(Currencies.DOLLARS(5), ALICE.getParty(), CHARLIE.getParty()));
+        List<IOUState> net = MultilateralNettingEngine.net(gross);
+
+        assertEquals(3, net.size());
+        assertTrue(net.stream().anyMatch(iou -> iou.lender.equals(ALICE.getParty()) && iou.borrower.equals(CHARLIE.getParty()) && iou.amount.equals(Currencies.POUNDS(6))));
+        assertTrue(net.stream().anyMatch(iou -> iou.lender.equals(ALICE.getParty()) && iou.borrower.equals(BOB.getParty()) && iou.amount.equals(Currencies.POUNDS(4))));
+        assertTrue(net.stream().anyMatch(iou -> iou.lender.equals(ALICE.getParty()) && iou.borrower.equals(CHARLIE.getParty()) && iou.amount.equals(Currencies.DOLLARS(5))));
+    }
+
+    /**
+     * Equal and opposite positions are matched before the rest are paired off by size.
+     * 等しく反対のポジションは、残りが大きさ順に組み合わされる前に組み合わされます。
+     */
+    @Test
+    public void equalAndOppositePositionsAreMatchedFirst() {
+        // Alice is owed 6 and Bob 3, while Charlie owes 5, MiniCorp 3 and MegaCorp 1. Pairing off largest first would
+        // split MiniCorp's 3 between Alice and Bob and need four IOUs; matching Bob with MiniCorp needs three.
+        // アリスは6、ボブは3の債権を持ち、チャーリーは5、ミニコープは3、メガコープは1の債務を持ちます。大きい順に組み合わせると
+        // ミニコープの3がアリスとボブに分かれて4つのIOUが必要になりますが、ボブとミニコープを組み合わせると3つで済みます。
+        List<IOUState> gross = Arrays.asList(
+                new IOUState(Currencies.POUNDS(5), ALICE.getParty(), CHARLIE.getParty()),
+                new IOUState(Currencies.POUNDS(1), ALICE.getParty(), MEGACORP.getParty()),
+                new IOUState(Currencies.POUNDS(3), BOB.getParty(), MINICORP.getParty()));
+        List<IOUState> net = MultilateralNettingEngine.net(gross);
+
+        assertEquals(3, net.size());
+        assertTrue(net.stream().anyMatch(iou -> iou.lender.equals(BOB.getParty()) && iou.borrower.equals(MINICORP.getParty()) && iou.amount.equals(Currencies.POUNDS(3))));
+        assertEquals(positions(gross), positions(net));
+    }
+
+    /**
+     * Netting many random IOUs between many parties preserves every position with fewer IOUs than parties.
+     * 多数の当事者間の多数のランダムなIOUをネッティングしても、当事者の数より少ないIOUですべてのポジションが保たれます。
+     */
+    @Test
+    public void largeBooksKeepEveryPositionWithFewerIOUsThanParties() {
+        Random random = new Random(42);
+        List<Party> parties = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            parties.add(new TestIdentity(new CordaX500Name("Party" + i, "London", "GB")).getParty());
+        }
+        List<IOUState> gross = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            Party lender = parties.get(random.nextInt(parties.size()));
+            Party borrower = parties.get(random.nextInt(parties.size()));
+            if (!lender.equals(borrower)) {
+                gross.add(new IOUState(Currencies.POUNDS(1 + random.nextInt(1000)), lender, borrower));
+            }
+        }
+        List<IOUState> net = MultilateralNettingEngine.net(gross);
+
+        assertTrue(net.size() < parties.size());
+        assertEquals(positions(gross), positions(net));
+    }
+
+    private static Map<Party, Long> positions(List<IOUState> ious) {
+        Map<Party, Long> positions = new HashMap<>();
+        for (IOUState iou: ious) {
+            long outstanding = iou.amount.getQuantity() - iou.paid.getQuantity();
+            positions.merge(iou.lender, outstanding, Long::sum);
+            positions.merge(iou.borrower, -outstanding, Long::sum);
+        }
+        positions.values().removeIf(position -> position == 0);
+        return positions;
+    }
+}
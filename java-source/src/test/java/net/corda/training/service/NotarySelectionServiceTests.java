@@ -0,0 +1,90 @@
+package net.corda.training.service;
+
+import net.corda.core.identity.Party;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static net.corda.training.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the strategies of the {@link NotarySelectionService}. The test identities stand in for notaries.
+ * {@link NotarySelectionService}の戦略のテスト。テスト用のアイデンティティが公証人の代わりになります。
+ */
+public class NotarySelectionServiceTests {
+
+    private final List<Party> notaries = Arrays.asList(MINICORP.getParty(), MEGACORP.getParty(), DUMMY.getParty());
+
+    /**
+     * Round-robin hands out every notary in turn.
+     * ラウンドロビンはすべての公証人を順番に割り当てます。
+     */
+    @Test
+    public void roundRobinCyclesThroughTheNotaries() {
+        NotarySelectionService.NotarySelector selector = NotarySelectionService.selectorFor("round-robin");
+        assertEquals(MINICORP.getParty(), selector.select(notaries, ALICE.getParty()));
+        assertEquals(MEGACORP.getParty(), selector.select(notaries, ALICE.getParty()));
+        assertEquals(DUMMY.getParty(), selector.select(notaries, ALICE.getParty()));
+        assertEquals(MINICORP.getParty(), selector.select(notaries, ALICE.getParty()));
+    }
+
+    /**
+     * Least-recent-latency hands out the notaries that are about as quick as the quickest in turn, counts unused
+     * notaries as average, and lets a slow notarisation count against a notary without forgetting its history.
+     * least-recent-latencyは最も速い公証人とほぼ同じ速さの公証人を順番に割り当て、未使用の公証人を平均とみなし、
+     * 遅い公証を履歴を忘れずに公証人の評価に反映させます。
+     */
+    @Test
+    public void leastRecentLatencySpreadsOverTheQuickestNotaries() {
+        NotarySelectionService.NotarySelector selector = NotarySelectionService.selectorFor("least-recent-latency");
+        // With nothing recorded, or with the unused notary counted as average, every notary takes its turn.
+        // 何も記録されていない場合や、未使用の公証人が平均とみなされる場合は、すべての公証人が順番に選ばれます。
+        assertEquals(new HashSet<>(notaries), select(selector, 3));
+        selector.recordLatency(MINICORP.getParty(), 100);
+        selector.recordLatency(MEGACORP.getParty(), 110);
+        assertEquals(new HashSet<>(notaries), select(selector, 3));
+
+        // A clearly slower notary is left out, while the near-ties still share the load.
+        // 明らかに遅い公証人は除外され、ほぼ同じ速さの公証人は引き続き負荷を分け合います。
+        selector.recordLatency(DUMMY.getParty(), 1000);
+        assertEquals(new HashSet<>(Arrays.asList(MINICORP.getParty(), MEGACORP.getParty())), select(selector, 4));
+
+        // One slow notarisation moves the average part of the way: 100 + 0.2 * (1000 - 100) = 280.
+        // 1回の遅い公証は平均を一部だけ動かします：100 + 0.2 * (1000 - 100) = 280。
+        selector.recordLatency(MINICORP.getParty(), 1000);
+        assertEquals(Collections.singleton(MEGACORP.getParty()), select(selector, 3));
+    }
+
+    private Set<Party> select(NotarySelectionService.NotarySelector selector, int times) {
+        Set<Party> selected = new HashSet<>();
+        for (int i = 0; i < times; i++) {
+            selected.add(selector.select(notaries, ALICE.getParty()));
+        }
+        return selected;
+    }
+
+    /**
+     * Hash-by-counterparty always picks the same notary for a counterparty.
+     * hash-by-counterpartyは取引相手に対して常に同じ公証人を選びます。
+     */
+    @Test
+    public void hashByCounterpartyIsStable() {
+        NotarySelectionService.NotarySelector selector = NotarySelectionService.selectorFor("hash-by-counterparty");
+        Party forAlice = selector.select(notaries, ALICE.getParty());
+        Party forBob = selector.select(notaries, BOB.getParty());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(forAlice, selector.select(notaries, ALICE.getParty()));
+            assertEquals(forBob, selector.select(notaries, BOB.getParty()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownStrategyIsRejected() {
+        NotarySelectionService.selectorFor("random");
+    }
+}
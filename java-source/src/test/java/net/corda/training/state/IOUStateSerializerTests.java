@@ -0,0 +1,83 @@
+package net.corda.training.state;
+
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.serialization.SerializationContext;
+import net.corda.core.serialization.SerializedBytes;
+import net.corda.finance.Currencies;
+import net.corda.serialization.internal.AllWhitelist;
+import net.corda.serialization.internal.SharedContexts;
+import net.corda.serialization.internal.amqp.CorDappCustomSerializer;
+import net.corda.serialization.internal.amqp.DeserializationInput;
+import net.corda.serialization.internal.amqp.SerializationOutput;
+import net.corda.serialization.internal.amqp.SerializerFactory;
+import net.corda.serialization.internal.amqp.SerializerFactoryBuilder;
+import net.corda.serialization.internal.amqp.custom.CurrencySerializer;
+import net.corda.serialization.internal.amqp.custom.DurationSerializer;
+import net.corda.serialization.internal.amqp.custom.InstantSerializer;
+import net.corda.serialization.internal.amqp.custom.PublicKeySerializer;
+import net.corda.serialization.internal.carpenter.ClassCarpenterImpl;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static net.corda.training.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the {@link IOUStateSerializer}.
+ * {@link IOUStateSerializer}のテスト。
+ */
+public class IOUStateSerializerTests {
+
+    private final SerializationContext context = SharedContexts.getAMQP_STORAGE_CONTEXT();
+
+    /**
+     * A partly paid IOU with an external id and instalments comes back unchanged.
+     * 外部IDと分割払いを持つ一部支払い済みのIOUは変更されずに戻ります。
+     */
+    @Test
+    public void roundTripPreservesEveryField() throws Exception {
+        IOUState iou = new IOUState(Currencies.POUNDS(10), ALICE.getParty(), BOB.getParty()).pay(Currencies.POUNDS(3));
+        IOUState withExternalId = IOUState.fromSerializedFields(iou.amount, iou.lender, iou.borrower, iou.paid,
+                new UniqueIdentifier("invoice-42", iou.getLinearId().getId()),
+                Instant.parse("2030-01-01T00:00:00Z"), Currencies.POUNDS(2), Duration.ofDays(30));
+
+        SerializerFactory factory = factory(true);
+        SerializedBytes<IOUState> bytes = new SerializationOutput(factory).serialize(withExternalId, context);
+        IOUState restored = new DeserializationInput(factory).deserialize(bytes, IOUState.class, context);
+
+        assertEquals(withExternalId.amount, restored.amount);
+        assertEquals(withExternalId.paid, restored.paid);
+        assertEquals(withExternalId.lender, restored.lender);
+        assertEquals(withExternalId.borrower, restored.borrower);
+        assertEquals(withExternalId.getLinearId(), restored.getLinearId());
+        assertEquals("invoice-42", restored.getLinearId().getExternalId());
+        assertTrue(withExternalId.hasSameSchedule(restored));
+    }
+
+    /**
+     * The proxy is smaller on the ledger than the reflective form.
+     * プロキシは、台帳上でリフレクションによる形式よりも小さくなります。
+     */
+    @Test
+    public void proxyIsSmallerThanReflectiveForm() throws Exception {
+        IOUState iou = new IOUState(Currencies.DOLLARS(25), ALICE.getParty(), BOB.getParty()).pay(Currencies.DOLLARS(5));
+        int reflective = new SerializationOutput(factory(false)).serialize(iou, context).getSize();
+        int custom = new SerializationOutput(factory(true)).serialize(iou, context).getSize();
+        assertTrue("Expected " + custom + " < " + reflective, custom < reflective);
+    }
+
+    private static SerializerFactory factory(boolean withProxy) {
+        SerializerFactory factory = SerializerFactoryBuilder.build(AllWhitelist.INSTANCE,
+                new ClassCarpenterImpl(AllWhitelist.INSTANCE, IOUState.class.getClassLoader()));
+        factory.register(PublicKeySerializer.INSTANCE);
+        factory.register(CurrencySerializer.INSTANCE);
+        factory.register(new InstantSerializer(factory));
+        factory.register(new DurationSerializer(factory));
+        if (withProxy) {
+            factory.registerExternal(new CorDappCustomSerializer(new IOUStateSerializer(), factory));
+        }
+        return factory;
+    }
+}
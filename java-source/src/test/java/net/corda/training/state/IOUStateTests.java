@@ -3,12 +3,15 @@ package net.corda.training.state;
 import net.corda.core.contracts.*;
 import net.corda.core.identity.Party;
 import net.corda.finance.*;
+import net.corda.training.schema.IOUSchemaV1;
 
 import static net.corda.training.TestUtils.*;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Constructor;
 import org.junit.Test;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
 import static org.junit.Assert.*;
 
@@ -273,4 +276,44 @@ public class IOUStateTests {
             fail("The correct private copy constructor does not exist!");
         }
     }
+
+    /**
+     * The [IOUState] is mapped onto [IOUSchemaV1] so that the vault can query it on its lender, borrower and currency.
+     * [IOUState]は[IOUSchemaV1]にマッピングされ、ボールトは貸し手、借り手、通貨でクエリできます。
+     */
+    @Test
+    public void mapsOntoIOUSchemaV1() {
+        IOUState iou = new IOUState(Currencies.POUNDS(10), ALICE.getParty(), BOB.getParty()).pay(Currencies.POUNDS(4));
+        IOUSchemaV1.PersistentIOU persistentIOU = (IOUSchemaV1.PersistentIOU) iou.generateMappedObject(new IOUSchemaV1());
+        assertEquals(ALICE.getParty().getName().toString(), persistentIOU.getLender());
+        assertEquals(BOB.getParty().getName().toString(), persistentIOU.getBorrower());
+        assertEquals("GBP", persistentIOU.getCurrency());
+        assertEquals(1000L, persistentIOU.getAmount());
+        assertEquals(400L, persistentIOU.getPaid());
+        assertEquals(600L, persistentIOU.getOutstanding());
+        assertEquals(iou.getLinearId().getId(), persistentIOU.getLinearId());
+    }
+
+    /**
+     * The next payment of an IOU paid in instalments is worked out from how much has been paid.
+     * 分割払いのIOUの次の支払いは、支払済みの金額から算出されます。
+     */
+    @Test
+    public void instalmentsFallDueFromHowMuchHasBeenPaid() {
+        Instant dueDate = Instant.parse("2030-01-01T00:00:00Z");
+        IOUState iou = new IOUState(Currencies.POUNDS(10), ALICE.getParty(), BOB.getParty())
+                .withSchedule(dueDate, Currencies.POUNDS(4), Duration.ofDays(30));
+        assertEquals(dueDate, iou.getNextDue());
+        assertEquals(Currencies.POUNDS(4), iou.getAmountDue());
+
+        // A manual payment of 5 covers the first instalment and part of the second.
+        // 5の手動支払いは、最初の分割払いと2回目の一部をカバーします。
+        IOUState partlyPaid = iou.pay(Currencies.POUNDS(5));
+        assertEquals(dueDate.plus(Duration.ofDays(30)), partlyPaid.getNextDue());
+        assertEquals(Currencies.POUNDS(3), partlyPaid.getAmountDue());
+        assertEquals(Currencies.POUNDS(2), partlyPaid.pay(Currencies.POUNDS(3)).getAmountDue());
+        assertTrue(partlyPaid.hasSameSchedule(iou));
+
+        assertNull(new IOUState(Currencies.POUNDS(10), ALICE.getParty(), BOB.getParty()).getNextDue());
+    }
 }